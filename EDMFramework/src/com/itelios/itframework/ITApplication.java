@@ -2,14 +2,12 @@ package com.itelios.itframework;
 
 import android.app.Application;
 import android.content.Context;
-import android.graphics.Bitmap;
 
+import com.itelios.itframework.image.ImagePipeline;
+import com.itelios.itframework.services.engine.KSoapWebServiceEngine;
+import com.itelios.itframework.utils.JsonUtils;
 import com.itelios.itframework.utils.Log.LogLevel;
-import com.nostra13.universalimageloader.cache.memory.impl.WeakMemoryCache;
-import com.nostra13.universalimageloader.core.DisplayImageOptions;
 import com.nostra13.universalimageloader.core.ImageLoader;
-import com.nostra13.universalimageloader.core.ImageLoaderConfiguration;
-import com.nostra13.universalimageloader.core.assist.ImageScaleType;
 
 /**
  * Itelios framework application class
@@ -43,36 +41,25 @@ public abstract class ITApplication extends Application {
 	}
 	
 	/**
-	 * Singleton object to store the image loader. Can be retrieved with <code>getImageLoader()</code>
+	 * Return the image pipeline shared by the application : memory cache, disk cache and thread pools
+	 * of all the image loaders, and the backend used to display the images.
+	 * itApplicationContext must be initialized before calling this method.
+	 * @return The image pipeline
 	 */
-	private static ImageLoader imgLoader;
+	public static ImagePipeline getImagePipeline()
+	{
+		return ImagePipeline.getInstance(getItApplicationContext());
+	}
+	
 	/**
 	 * Return the ImageLoader singleton used to download and cache images.
+	 * It uses the caches and thread pools of <code>getImagePipeline()</code>.
 	 * itApplicationContext must be initialized before calling this method.
 	 * @return
 	 */
 	public static ImageLoader getImageLoader()
 	{
-		if(imgLoader == null)
-		{
-			// Create global configuration and initialize ImageLoader with this configuration
-			DisplayImageOptions defaultOptions = new DisplayImageOptions.Builder()
-		        .cacheInMemory(true)
-		        .cacheOnDisc(true)
-		        .bitmapConfig(Bitmap.Config.RGB_565)
-		        .imageScaleType(ImageScaleType.EXACTLY)
-		        .build();
-	        ImageLoaderConfiguration config = new ImageLoaderConfiguration.Builder(getItApplicationContext())
-	        	.threadPoolSize(5)
-	        	.denyCacheImageMultipleSizesInMemory()
-	        	.memoryCache(new WeakMemoryCache())
-	        	.defaultDisplayImageOptions(defaultOptions)
-	            .build();
-	        ImageLoader.getInstance().init(config);
-	        imgLoader = ImageLoader.getInstance();
-		}
-		
-		return imgLoader;
+		return getImagePipeline().getUniversalImageBackend().getImageLoader();
 	}
 	
 	/**
@@ -80,6 +67,21 @@ public abstract class ITApplication extends Application {
    */
   public static final long CACHE_IMAGE_MAX_MB_SIZE = 10 * 1024 * 1024; //Correspond to 10 MB
 	
+	/**
+	 * The max size of the cache of the GET responses (see HttpResponseCache.install()), 5 MB by default
+	 */
+	public static final long HTTP_RESPONSE_CACHE_MAX_SIZE = 5 * 1024 * 1024;
+	
+	/**
+	 * The max number of deserialized web service results kept by WebServiceResultCache (100 by default)
+	 */
+	public static final int WS_RESULT_CACHE_MAX_ENTRIES = 100;
+	
+	/**
+	 * The fraction of the memory class of the device used by the image memory cache (1/8 by default)
+	 */
+	public static final float IMAGE_MEMORY_CACHE_FRACTION = 0.125f;
+	
 	/**
 	 * The log level used by the application
 	 */
@@ -89,11 +91,65 @@ public abstract class ITApplication extends Application {
 	 * The timeout of the WS call (60 seconds by default)
 	 */
 	public static final int HTTP_TIMEOUT = 60 * 1000;	
+	
+	/**
+	 * The max number of bytes of a SOAP request or response logged in diagnostics mode (4 KB by default)
+	 */
+	public static final int SOAP_DIAGNOSTICS_MAX_DUMP_SIZE = 4 * 1024;
+	
+	/**
+	 * The max number of pooled HTTP connections, all servers included
+	 */
+	public static final int HTTP_MAX_TOTAL_CONNECTIONS = 20;
+	
+	/**
+	 * The max number of pooled HTTP connections to the same server
+	 */
+	public static final int HTTP_MAX_CONNECTIONS_PER_ROUTE = 6;
+	
+	/**
+	 * The time after which an unused pooled HTTP connection is closed (30 seconds by default)
+	 */
+	public static final long HTTP_IDLE_CONNECTION_TIMEOUT = 30 * 1000;
+	
+	/**
+	 * The min size of the POST bodies gzipped for the endpoints set with HttpCompression.setRequestCompression() (1 KB by default)
+	 */
+	public static final int HTTP_REQUEST_COMPRESSION_MIN_SIZE = 1024;
+	
+	/**
+	 * The number of threads running the asynchronous web service calls (see WebServiceExecutor, 4 by default)
+	 */
+	public static final int WS_ASYNC_THREAD_COUNT = 4;
+
+	/**
+	 * The model classes for which the JSON mapper is prepared in background when the application starts.
+	 * Override to avoid the introspection cost on the first web service call using these classes.
+	 * @return The model classes, null by default (no warm up)
+	 */
+	protected Class<?>[] getJsonModelClasses()
+	{
+		return null;
+	}
 
 	@Override
 	public void onCreate()
 	{
 		super.onCreate();
 		itApplicationContext = getApplicationContext();
+		KSoapWebServiceEngine.initialize();
+		
+		final Class<?>[] jsonModelClasses = getJsonModelClasses();
+		if(jsonModelClasses != null && jsonModelClasses.length > 0)
+		{
+			Thread warmUpThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					JsonUtils.warmUp(jsonModelClasses);
+				}
+			}, "JsonWarmUp");
+			warmUpThread.setPriority(Thread.MIN_PRIORITY);
+			warmUpThread.start();
+		}
 	}
 }
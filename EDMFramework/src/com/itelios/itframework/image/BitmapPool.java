@@ -0,0 +1,167 @@
+package com.itelios.itframework.image;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Pool of mutable bitmaps that are not displayed anymore, reused by the decoder through BitmapFactory.Options.inBitmap.
+ * The bitmaps are grouped by size and config, the pool is bounded by the total size of the bitmaps in bytes
+ * (the least recently added bitmaps are recycled first).
+ */
+public class BitmapPool {
+
+    private final HashMap<String, LinkedList<Bitmap>> bitmapsByKey=new HashMap<String, LinkedList<Bitmap>>();
+    //all the pooled bitmaps, the oldest first
+    private final LinkedHashMap<Bitmap, String> bitmapsByAge=new LinkedHashMap<Bitmap, String>();
+    private long size=0;
+    private long maxSize;
+
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    /**
+     * @param maxSize the max size of the pooled bitmaps in bytes
+     */
+    public BitmapPool(long maxSize){
+        this.maxSize=maxSize;
+    }
+
+    /**
+     * inBitmap exists since Honeycomb
+     */
+    public static boolean isSupported(){
+        return Build.VERSION.SDK_INT>=Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    private static String getKey(int width, int height, Bitmap.Config config){
+        return width+"x"+height+"-"+config;
+    }
+
+    /**
+     * Gives a bitmap to the pool. The bitmap must not be used (displayed) anymore
+     */
+    public void put(Bitmap bitmap){
+        if(bitmap==null || !isSupported() || !bitmap.isMutable() || bitmap.isRecycled() || bitmap.getConfig()==null)
+            return;
+        long bitmapSize=MemoryCache.getBitmapSize(bitmap);
+        if(bitmapSize>maxSize){
+            bitmap.recycle();
+            return;
+        }
+        synchronized(this){
+            if(bitmapsByAge.containsKey(bitmap))
+                return;
+            String key=getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            LinkedList<Bitmap> bitmaps=bitmapsByKey.get(key);
+            if(bitmaps==null){
+                bitmaps=new LinkedList<Bitmap>();
+                bitmapsByKey.put(key, bitmaps);
+            }
+            bitmaps.add(bitmap);
+            bitmapsByAge.put(bitmap, key);
+            size+=bitmapSize;
+            putCount++;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * Takes a bitmap of the given size and config out of the pool
+     * @return the bitmap, or null if there is none in the pool
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config){
+        LinkedList<Bitmap> bitmaps=bitmapsByKey.get(getKey(width, height, config));
+        if(bitmaps==null || bitmaps.isEmpty()){
+            missCount++;
+            return null;
+        }
+        Bitmap bitmap=bitmaps.removeLast();
+        if(bitmaps.isEmpty())
+            bitmapsByKey.remove(getKey(width, height, config));
+        bitmapsByAge.remove(bitmap);
+        size-=MemoryCache.getBitmapSize(bitmap);
+        hitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Sets a pooled bitmap as inBitmap of the decoding options, when one matches the size of the decoded image.
+     * Before KitKat, the decoded image must have exactly the size of the reused bitmap, without sampling.
+     * @param options the decoding options, with inSampleSize and inPreferredConfig set
+     * @param width the width of the image (outWidth)
+     * @param height the height of the image (outHeight)
+     * @return the bitmap set as inBitmap, null if there is none (always null before Honeycomb, where inBitmap doesn't exist)
+     */
+    public Bitmap prepareOptions(BitmapFactory.Options options, int width, int height){
+        if(!isSupported())
+            return null;
+        //the decoded bitmap can be pooled once it is not displayed anymore
+        options.inMutable=true;
+        int sampleSize=Math.max(1, options.inSampleSize);
+        if(sampleSize>1 && Build.VERSION.SDK_INT<Build.VERSION_CODES.KITKAT)
+            return null;
+        Bitmap.Config config=options.inPreferredConfig!=null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        int sampledWidth=(width+sampleSize-1)/sampleSize;
+        int sampledHeight=(height+sampleSize-1)/sampleSize;
+        Bitmap bitmap=get(sampledWidth, sampledHeight, config);
+        if(bitmap!=null)
+            options.inBitmap=bitmap;
+        return bitmap;
+    }
+
+    public synchronized void clear(){
+        trimToSize(0);
+    }
+
+    public synchronized long size(){
+        return size;
+    }
+
+    public synchronized long getHitCount(){
+        return hitCount;
+    }
+
+    public synchronized long getMissCount(){
+        return missCount;
+    }
+
+    public synchronized long getPutCount(){
+        return putCount;
+    }
+
+    public synchronized long getEvictionCount(){
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "BitmapPool[size="+size+",maxSize="+maxSize+",hits="+hitCount+",misses="+missCount
+                +",puts="+putCount+",evictions="+evictionCount+"]";
+    }
+
+    //Must be called with the lock held
+    private void trimToSize(long targetSize){
+        Iterator<Map.Entry<Bitmap, String>> iterator=bitmapsByAge.entrySet().iterator();
+        while(size>targetSize && iterator.hasNext()){
+            Map.Entry<Bitmap, String> eldest=iterator.next();
+            iterator.remove();
+            Bitmap bitmap=eldest.getKey();
+            LinkedList<Bitmap> bitmaps=bitmapsByKey.get(eldest.getValue());
+            bitmaps.remove(bitmap);
+            if(bitmaps.isEmpty())
+                bitmapsByKey.remove(eldest.getValue());
+            size-=MemoryCache.getBitmapSize(bitmap);
+            evictionCount++;
+            bitmap.recycle();
+        }
+    }
+}
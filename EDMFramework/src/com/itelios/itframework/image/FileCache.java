@@ -1,35 +1,133 @@
 package com.itelios.itframework.image;
 
 import java.io.File;
+import java.io.IOException;
+
+import com.itelios.itframework.ITApplication;
+import com.itelios.itframework.utils.DiskLruCache;
+import com.itelios.itframework.utils.Log;
+
 import android.content.Context;
-  
+
+/**
+ * Disk cache of the downloaded images in a dedicated directory of the application cache, bounded by ITApplication.CACHE_IMAGE_MAX_MB_SIZE.
+ * A directory must be opened by a single FileCache : use the one of ImagePipeline
+ */
 public class FileCache {
-  
+
+    private static final String LOG_TAG = "FileCache";
+    //Sub directory of the cache of the application, private to the process (never a directory shared with files of the application)
+    private static final String CACHE_DIR_NAME = "itframework-images";
+    //Suffix of the files downloaded by another library before being added with put
+    private static final String TEMP_FILE_SUFFIX = ".uil.tmp";
+
+    private DiskLruCache diskCache;
     private File cacheDir;
-  
+
     public FileCache(Context context){
         //Find the dir to save cached images
+        File rootDir=null;
         if (android.os.Environment.getExternalStorageState().equals(android.os.Environment.MEDIA_MOUNTED))
-            cacheDir=new File(android.os.Environment.getExternalStorageDirectory(),"TempImages");
-        else
-            cacheDir=context.getCacheDir();
-        if(!cacheDir.exists())
-            cacheDir.mkdirs();
+            rootDir=context.getExternalCacheDir();
+        if(rootDir==null)
+            rootDir=context.getCacheDir();
+        cacheDir=new File(rootDir,CACHE_DIR_NAME);
+        try {
+            diskCache=DiskLruCache.open(cacheDir, ITApplication.CACHE_IMAGE_MAX_MB_SIZE);
+            deleteTempFiles();
+        } catch (IOException ex) {
+            //The images will be downloaded without being cached
+            Log.e(LOG_TAG, "Unable to open the image cache in " + cacheDir + " - Ex : " + ex.getMessage());
+        }
     }
-  
+
+    /**
+     * @return the cached file of the image, null if the image is not in the cache
+     */
     public File getFile(String url){
-        String filename=String.valueOf(url.hashCode());
-        File f = new File(cacheDir, filename);
-        return f;
-  
+        if(diskCache==null)
+            return null;
+        return diskCache.get(DiskLruCache.hashKey(url));
     }
-  
-    public void clear(){
+
+    /**
+     * @return the opened cached file of the image, to be closed, null if the image is not in the cache
+     */
+    public DiskLruCache.Snapshot getSnapshot(String url){
+        if(diskCache==null)
+            return null;
+        return diskCache.getSnapshot(DiskLruCache.hashKey(url));
+    }
+
+    /**
+     * Start writing an image in the cache : the image must be written in the file of the editor, then the editor
+     * must be committed (or aborted if the download failed)
+     * @return the editor, null if the image is already being written or if the cache is not available
+     */
+    public DiskLruCache.Editor edit(String url){
+        if(diskCache==null)
+            return null;
+        return diskCache.edit(DiskLruCache.hashKey(url));
+    }
+
+    /**
+     * @return a private file where an image can be downloaded before being added with put (never the file of the cache entry)
+     */
+    public File getTempFile(String url){
+        return new File(cacheDir, DiskLruCache.hashKey(url)+TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * @return the cached file of an image downloaded in getTempFile(url) then added with put, null if it is not in the cache
+     */
+    public File getFileForTempFile(File tempFile){
+        String name=tempFile.getName();
+        if(diskCache==null || !name.endsWith(TEMP_FILE_SUFFIX))
+            return null;
+        return diskCache.get(name.substring(0, name.length()-TEMP_FILE_SUFFIX.length()));
+    }
+
+    /**
+     * Adds to the cache an image written in getTempFile(url), moving the file in an editor
+     * @return false if the image is not cached (the file is left as is)
+     */
+    public boolean put(String url, File file){
+        if(diskCache==null)
+            return false;
+        DiskLruCache.Editor editor=diskCache.edit(DiskLruCache.hashKey(url));
+        if(editor==null)
+            return false;
+        if(!file.renameTo(editor.getFile())){
+            editor.abort();
+            return false;
+        }
+        editor.commit();
+        return true;
+    }
+
+    //Downloads interrupted by a crash, or that couldn't be added to the cache
+    private void deleteTempFiles(){
         File[] files=cacheDir.listFiles();
         if(files==null)
             return;
-        for(File f:files)
-            f.delete();
+        for(File file:files){
+            if(file.getName().endsWith(TEMP_FILE_SUFFIX))
+                file.delete();
+        }
+    }
+
+    public void remove(String url){
+        if(diskCache!=null)
+            diskCache.remove(DiskLruCache.hashKey(url));
     }
-  
-}
\ No newline at end of file
+
+    public DiskLruCache getDiskCache(){
+        return diskCache;
+    }
+
+    public void clear(){
+        if(diskCache!=null)
+            diskCache.clear();
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.itelios.itframework.image;
+
+import android.widget.ImageView;
+
+/**
+ * Library displaying the images of ImagePipeline
+ */
+public interface ImageBackend {
+
+    /**
+     * Displays an image in a view, the stub being displayed while the image is loading or if it can't be loaded
+     */
+    void displayImage(String url, ImageView imageView, int stubResId);
+
+    /**
+     * Stops loading the image of a view that is recycled or detached
+     */
+    void cancelDisplayTask(ImageView imageView);
+}
@@ -1,151 +1,763 @@
 package com.itelios.itframework.image;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import com.itelios.itframework.R;
+import com.itelios.itframework.utils.DiskLruCache;
   
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.view.ViewGroup.LayoutParams;
 import android.widget.ImageView;
   
-public class ImageLoader {
+/**
+ * Loader of the framework, using the caches and thread pools of ImagePipeline
+ */
+public class ImageLoader implements ImageBackend {
   
-    MemoryCache memoryCache=new MemoryCache();
-    FileCache fileCache;
+    final MemoryCache memoryCache;
+    final FileCache fileCache;
+    final BitmapPool bitmapPool;
+    final PriorityExecutor diskExecutor;
+    final PriorityExecutor networkExecutor;
+    private final ImageMetrics metrics;
     private Map<ImageView, String> imageViews=Collections.synchronizedMap(new WeakHashMap<ImageView, String>());
-    ExecutorService executorService; 
+    //Loads queued or running, by url and size : the views asking for an image already loading wait for the same load
+    private final Map<String, PhotosLoader> inFlightLoads=new HashMap<String, PhotosLoader>();
+    //The load each view is waiting for, guarded by inFlightLoads
+    private final Map<ImageView, PhotosLoader> viewLoads=new WeakHashMap<ImageView, PhotosLoader>();
+    //Prefetches waiting for a free slot (oldest first) and number of prefetches running, guarded by inFlightLoads
+    private final LinkedList<PhotosLoader> pendingPrefetches=new LinkedList<PhotosLoader>();
+    private int runningPrefetchCount;
+    private volatile int maxConcurrentPrefetches=2;
+    //bandwidth shared by the prefetch downloads
+    private final ThrottledInputStream.Throttle prefetchThrottle=new ThrottledInputStream.Throttle();
   
     public ImageLoader(Context context){
-        fileCache=new FileCache(context);
-        executorService=Executors.newFixedThreadPool(5);
+        this(ImagePipeline.getInstance(context));
+    }
+  
+    ImageLoader(ImagePipeline pipeline){
+        memoryCache=pipeline.memoryCache;
+        fileCache=pipeline.fileCache;
+        bitmapPool=pipeline.bitmapPool;
+        diskExecutor=pipeline.diskExecutor;
+        networkExecutor=pipeline.networkExecutor;
+        metrics=pipeline.getMetrics();
+        pipeline.register(this);
+    }
+  
+    private static final int DECODE_BUFFER_SIZE=16*1024;
+    //max size of the image header read to get the image size, before going back to the start of the stream
+    private static final int DECODE_MARK_LIMIT=64*1024;
+  
+    //scale the decoded images to the exact target size (else only the power of 2 downsampling is done)
+    private volatile boolean exactScaling=false;
+    //decode the JPEG images (never transparent) with 2 bytes per pixel
+    private volatile boolean preferRgb565=true;
+  
+    public void setExactScaling(boolean exactScaling){
+        this.exactScaling=exactScaling;
+    }
+  
+    public void setPreferRgb565(boolean preferRgb565){
+        this.preferRgb565=preferRgb565;
     }
   
     int stub_id = R.drawable.ic_launcher;
+  
+    @Override
+    public void displayImage(String url, ImageView imageView, int stubResId)
+    {
+        DisplayImage(url, stubResId, imageView);
+    }
+  
+    /**
+     * Displays an image decoded at the size of the view (or of its layout params, or of the screen if the view is not measured yet)
+     */
     public void DisplayImage(String url, int loader, ImageView imageView)
+    {
+        DisplayMetrics metrics=imageView.getContext().getResources().getDisplayMetrics();
+        LayoutParams params=imageView.getLayoutParams();
+        int targetWidth=getTargetDimension(imageView.getWidth(), params!=null ? params.width : 0, metrics.widthPixels);
+        int targetHeight=getTargetDimension(imageView.getHeight(), params!=null ? params.height : 0, metrics.heightPixels);
+        DisplayImage(url, loader, imageView, targetWidth, targetHeight);
+    }
+  
+    /**
+     * Displays an image decoded for the given size
+     */
+    public void DisplayImage(String url, int loader, ImageView imageView, int targetWidth, int targetHeight)
     {
         stub_id = loader;
-        imageViews.put(imageView, url);
-        Bitmap bitmap=memoryCache.get(url);
+        String loadKey=getLoadKey(url, targetWidth, targetHeight);
+        imageViews.put(imageView, loadKey);
+        //the previous load of the view is cancelled if no other view needs it
+        detachFromLoad(imageView, loadKey);
+        Bitmap bitmap=memoryCache.get(loadKey);
         if(bitmap!=null)
             imageView.setImageBitmap(bitmap);
         else
         {
-            queuePhoto(url, imageView);
+            queuePhoto(url, loadKey, targetWidth, targetHeight, imageView, PriorityExecutor.PRIORITY_VISIBLE);
             imageView.setImageResource(loader);
         }
     }
   
-    private void queuePhoto(String url, ImageView imageView)
+    boolean isDisplayed(String loadKey)
     {
-        PhotoToLoad p=new PhotoToLoad(url, imageView);
-        executorService.submit(new PhotosLoader(p));
+        synchronized(imageViews){
+            return imageViews.containsValue(loadKey);
+        }
     }
   
-    private Bitmap getBitmap(String url)
+    private static int getTargetDimension(int viewSize, int layoutSize, int screenSize)
     {
-        File f=fileCache.getFile(url);
+        if(viewSize>0)
+            return viewSize;
+        if(layoutSize>0)
+            return layoutSize;
+        return screenSize;
+    }
   
-        //from SD cache
-        Bitmap b = decodeFile(f);
-        if(b!=null)
-            return b;
+    private void queuePhoto(String url, String loadKey, int targetWidth, int targetHeight, ImageView imageView, int priority)
+    {
+        PhotoToLoad p=new PhotoToLoad(url, loadKey, imageView);
+        PhotosLoader loader;
+        PhotosLoader startedLoader=null;
+        boolean prefetchPromoted=false;
+        synchronized(inFlightLoads){
+            loader=inFlightLoads.get(loadKey);
+            if(loader==null){
+                loader=new PhotosLoader(loadKey, url, targetWidth, targetHeight, priority);
+                loader.photosToLoad.add(p);
+                inFlightLoads.put(loadKey, loader);
+                viewLoads.put(imageView, loader);
+                startedLoader=loader;
+            }
+            else{
+                //the view may already wait for this load
+                if(viewLoads.get(imageView)!=loader){
+                    loader.photosToLoad.add(p);
+                    viewLoads.put(imageView, loader);
+                }
+                if(loader.prefetchGroup!=null){
+                    //the prefetched image is now displayed : the load is no more limited nor cancelled with its group
+                    loader.prefetchGroup=null;
+                    prefetchPromoted=true;
+                    if(pendingPrefetches.remove(loader)){
+                        loader.priority=priority;
+                        startedLoader=loader;
+                    }
+                }
+                //the most recently requested images are loaded first
+                if(startedLoader==null)
+                    loader.reschedule(Math.min(priority, loader.getPriority()));
+            }
+        }
+        if(startedLoader!=null)
+            diskExecutor.execute(startedLoader);
+        if(prefetchPromoted)
+            finishPrefetch(loader);
+    }
+  
+    /**
+     * Downloads images in the file cache (and decodes them in the memory cache if decodeInMemory is true) before they are displayed,
+     * for instance for the next page of a list. The prefetches run after the visible images, with the limits set by setPrefetchLimits.
+     * An image displayed while it is prefetched is loaded as a visible image.
+     */
+    public PrefetchGroup prefetch(List<String> urls, int targetWidth, int targetHeight, boolean decodeInMemory)
+    {
+        PrefetchGroup group=new PrefetchGroup(decodeInMemory);
+        for(String url:urls){
+            String loadKey=getLoadKey(url, targetWidth, targetHeight);
+            if(decodeInMemory && memoryCache.get(loadKey)!=null)
+                continue;
+            synchronized(inFlightLoads){
+                //already loading for a view or another prefetch
+                if(inFlightLoads.containsKey(loadKey))
+                    continue;
+                PhotosLoader loader=new PhotosLoader(loadKey, url, targetWidth, targetHeight, PriorityExecutor.PRIORITY_PREFETCH);
+                loader.prefetchGroup=group;
+                group.loaders.add(loader);
+                inFlightLoads.put(loadKey, loader);
+                pendingPrefetches.add(loader);
+            }
+        }
+        schedulePrefetches();
+        return group;
+    }
+  
+    /**
+     * Sets the max number of prefetches running at the same time (2 by default),
+     * and the max bandwidth used by the prefetch downloads (0 for no limit, the default)
+     */
+    public void setPrefetchLimits(int maxConcurrentPrefetches, long maxBytesPerSecond)
+    {
+        this.maxConcurrentPrefetches=Math.max(1, maxConcurrentPrefetches);
+        prefetchThrottle.setMaxBytesPerSecond(maxBytesPerSecond);
+        schedulePrefetches();
+    }
+  
+    //starts the pending prefetches while there are free slots
+    private void schedulePrefetches()
+    {
+        List<PhotosLoader> startedLoaders=new ArrayList<PhotosLoader>();
+        synchronized(inFlightLoads){
+            while(runningPrefetchCount<maxConcurrentPrefetches && !pendingPrefetches.isEmpty()){
+                PhotosLoader loader=pendingPrefetches.removeFirst();
+                loader.prefetchSlot=true;
+                runningPrefetchCount++;
+                startedLoaders.add(loader);
+            }
+        }
+        for(PhotosLoader loader:startedLoaders)
+            diskExecutor.execute(loader);
+    }
   
+    //releases the slot of a prefetch finished, cancelled or promoted, can be called several times
+    private void finishPrefetch(PhotosLoader loader)
+    {
+        synchronized(inFlightLoads){
+            if(!loader.prefetchSlot)
+                return;
+            loader.prefetchSlot=false;
+            runningPrefetchCount--;
+        }
+        schedulePrefetches();
+    }
+  
+    /**
+     * Prefetches started by the same call, cancelled together (for instance when the list is scrolled away)
+     */
+    public class PrefetchGroup
+    {
+        final boolean decodeInMemory;
+        //guarded by inFlightLoads
+        final List<PhotosLoader> loaders=new ArrayList<PhotosLoader>();
+        private boolean cancelled;
+  
+        PrefetchGroup(boolean decodeInMemory){
+            this.decodeInMemory=decodeInMemory;
+        }
+  
+        /**
+         * Cancels the prefetches not finished yet, except the ones of images displayed meanwhile
+         */
+        public void cancel(){
+            List<PhotosLoader> cancelledLoaders=new ArrayList<PhotosLoader>();
+            synchronized(inFlightLoads){
+                cancelled=true;
+                for(PhotosLoader loader:loaders){
+                    if(loader.prefetchGroup!=this)
+                        continue;
+                    if(inFlightLoads.get(loader.loadKey)==loader)
+                        inFlightLoads.remove(loader.loadKey);
+                    pendingPrefetches.remove(loader);
+                    cancelledLoaders.add(loader);
+                }
+                loaders.clear();
+            }
+            for(PhotosLoader loader:cancelledLoaders){
+                loader.cancel();
+                finishPrefetch(loader);
+            }
+        }
+  
+        public boolean isCancelled(){
+            synchronized(inFlightLoads){
+                return cancelled;
+            }
+        }
+  
+        /**
+         * Returns the number of prefetches of the group not finished yet
+         */
+        public int getPendingCount(){
+            int count=0;
+            synchronized(inFlightLoads){
+                for(PhotosLoader loader:loaders){
+                    if(loader.prefetchGroup==this && inFlightLoads.get(loader.loadKey)==loader)
+                        count++;
+                }
+            }
+            return count;
+        }
+    }
+  
+    /**
+     * Cancels the load of the image of a view, to call when the view is detached or recycled without a new image.
+     * The download and the decoding are stopped if no other view waits for the same image.
+     * The view keeps its key while it holds the bitmap, so that the bitmap is not reused by the pool once evicted.
+     */
+    @Override
+    public void cancelDisplayTask(ImageView imageView)
+    {
+        detachFromLoad(imageView, null);
+    }
+  
+    private void detachFromLoad(ImageView imageView, String newLoadKey)
+    {
+        PhotosLoader cancelledLoader=null;
+        synchronized(inFlightLoads){
+            PhotosLoader currentLoader=viewLoads.get(imageView);
+            if(currentLoader==null || currentLoader.loadKey.equals(newLoadKey))
+                return;
+            viewLoads.remove(imageView);
+            for(Iterator<PhotoToLoad> iterator=currentLoader.photosToLoad.iterator(); iterator.hasNext(); ){
+                if(iterator.next().imageView==imageView)
+                    iterator.remove();
+            }
+            if(currentLoader.allImageViewsReused()){
+                inFlightLoads.remove(currentLoader.loadKey);
+                cancelledLoader=currentLoader;
+            }
+        }
+        if(cancelledLoader!=null)
+            cancelledLoader.cancel();
+    }
+  
+    private static String getLoadKey(String url, int targetWidth, int targetHeight)
+    {
+        return url+"#"+targetWidth+"x"+targetHeight;
+    }
+  
+    private Bitmap getCachedBitmap(String url, PhotosLoader loader)
+    {
+        //from SD cache : the snapshot keeps the file read even if the entry is evicted or written again meanwhile
+        DiskLruCache.Snapshot snapshot=fileCache.getSnapshot(url);
+        if(snapshot==null)
+            return null;
+        try {
+            Bitmap b = decodeFile(snapshot.getInputStream(), loader);
+            if(b!=null || loader.cancelled)
+                return b;
+            //corrupted file, unless a new image has been committed since the snapshot
+            snapshot.remove();
+            return null;
+        } finally {
+            snapshot.close();
+        }
+    }
+  
+    private Bitmap downloadBitmap(String url, PhotosLoader loader)
+    {
         //from web
+        DiskLruCache.Editor editor=null;
+        File tempFile=null;
+        InputStream is=null;
+        OutputStream os=null;
         try {
-            Bitmap bitmap=null;
-            URL imageUrl = new URL(url);
-            HttpURLConnection conn = (HttpURLConnection)imageUrl.openConnection();
-            conn.setConnectTimeout(30000);
-            conn.setReadTimeout(30000);
-            conn.setInstanceFollowRedirects(true);
-            InputStream is=conn.getInputStream();
-            OutputStream os = new FileOutputStream(f);
-            Utils.CopyStream(is, os);
+            HttpURLConnection conn=openConnection(url, loader);
+            if(loader.cancelled)
+                return null;
+            is=getInputStream(conn, loader);
+            final File f;
+            editor=fileCache.edit(url);
+            if(editor!=null)
+                f=editor.getFile();
+            else
+                f=tempFile=File.createTempFile("image", null); //cache not available, or image being written by another load
+            os = new FileOutputStream(f);
+  
+            //the image is decoded while it is written in the cache
+            final TeeInputStream tee=new TeeInputStream(is, os);
+            final OutputStream fileStream=os;
+            Bitmap bitmap=decodeStream(tee, new StreamSource() {
+                @Override
+                public InputStream open() throws IOException {
+                    //the decoder needs the start of the image again : the download is finished, then the file is read
+                    tee.drain();
+                    fileStream.flush();
+                    return new BufferedInputStream(new FileInputStream(f), DECODE_BUFFER_SIZE);
+                }
+            }, loader);
+            //the decoder may stop before the end of the stream
+            tee.drain();
             os.close();
-            bitmap = decodeFile(f);
+            os=null;
+  
+            //only complete and valid images are published in the cache
+            if(editor!=null){
+                if(bitmap!=null && tee.isCopyComplete(conn.getContentLength()))
+                    editor.commit();
+                else
+                    editor.abort();
+            }
+            metrics.onDownload(tee.getCount());
             return bitmap;
         } catch (Exception ex){
-           ex.printStackTrace();
+           if(!loader.cancelled){
+               metrics.onDownloadFailure();
+               ex.printStackTrace();
+           }
+           if(editor!=null)
+               editor.abort();
            return null;
+        } finally {
+            loader.connection=null;
+            closeQuietly(os);
+            closeQuietly(is);
+            if(tempFile!=null)
+                tempFile.delete();
+        }
+    }
+  
+    //downloads an image in the file cache without decoding it, returns true if the image is in the cache
+    private boolean downloadToCache(String url, PhotosLoader loader)
+    {
+        DiskLruCache.Editor editor=null;
+        InputStream is=null;
+        OutputStream os=null;
+        try {
+            HttpURLConnection conn=openConnection(url, loader);
+            if(loader.cancelled)
+                return false;
+            is=getInputStream(conn, loader);
+            editor=fileCache.edit(url);
+            if(editor==null)
+                return false; //cache not available, or image being written by another load
+            os=new FileOutputStream(editor.getFile());
+            long length=Utils.copy(is, os);
+            os.close();
+            os=null;
+            metrics.onDownload(length);
+            int contentLength=conn.getContentLength();
+            if(!loader.cancelled && (contentLength<0 || contentLength==length)){
+                editor.commit();
+                return true;
+            }
+            editor.abort();
+            return false;
+        } catch (Exception ex){
+           if(!loader.cancelled){
+               metrics.onDownloadFailure();
+               ex.printStackTrace();
+           }
+           if(editor!=null)
+               editor.abort();
+           return false;
+        } finally {
+            loader.connection=null;
+            closeQuietly(os);
+            closeQuietly(is);
         }
     }
   
-    //decodes image and scales it to reduce memory consumption
-    private Bitmap decodeFile(File f){
+    private HttpURLConnection openConnection(String url, PhotosLoader loader) throws IOException
+    {
+        URL imageUrl = new URL(url);
+        HttpURLConnection conn = (HttpURLConnection)imageUrl.openConnection();
+        conn.setConnectTimeout(30000);
+        conn.setReadTimeout(30000);
+        conn.setInstanceFollowRedirects(true);
+        //a cancellation disconnects the connection, which stops the download
+        loader.connection=conn;
+        return conn;
+    }
+  
+    private InputStream getInputStream(HttpURLConnection conn, PhotosLoader loader) throws IOException
+    {
+        InputStream is=conn.getInputStream();
+        //the prefetches share a limited bandwidth, so that they don't slow down the visible images
+        if(loader.prefetchGroup!=null && prefetchThrottle.getMaxBytesPerSecond()>0)
+            is=new ThrottledInputStream(is, prefetchThrottle);
+        return is;
+    }
+  
+    //source of an image that can be read again from its start
+    private interface StreamSource {
+        InputStream open() throws IOException;
+    }
+  
+    //the file is read again from the same stream, the path may lead to another file meanwhile
+    private Bitmap decodeFile(final FileInputStream fis, PhotosLoader loader){
+        if(loader.cancelled)
+            return null;
         try {
+            return decodeStream(fis, new StreamSource() {
+                @Override
+                public InputStream open() throws IOException {
+                    fis.getChannel().position(0);
+                    //closed by the decoder, fis is closed by the caller
+                    return new BufferedInputStream(new FilterInputStream(fis) {
+                        @Override
+                        public void close() {}
+                    }, DECODE_BUFFER_SIZE);
+                }
+            }, loader);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+  
+    //decodes image at the size of the target to reduce memory consumption
+    private Bitmap decodeStream(InputStream source, StreamSource sourceReader, PhotosLoader loader) throws IOException {
+        if(loader.cancelled)
+            return null;
+        InputStream reopened=null;
+        try {
+            //the same stream is used for the size and the pixels
+            InputStream is=new BufferedInputStream(source, DECODE_BUFFER_SIZE);
+            is.mark(DECODE_MARK_LIMIT);
+  
             //decode image size
             BitmapFactory.Options o = new BitmapFactory.Options();
             o.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(new FileInputStream(f),null,o);
-  
-            //Find the correct scale value. It should be the power of 2.
-            final int REQUIRED_SIZE=70;
-            int width_tmp=o.outWidth, height_tmp=o.outHeight;
-            int scale=1;
-            while(true){
-                if(width_tmp/2<REQUIRED_SIZE || height_tmp/2<REQUIRED_SIZE)
-                    break;
-                width_tmp/=2;
-                height_tmp/=2;
-                scale*=2;
+            BitmapFactory.decodeStream(is,null,o);
+            if(o.outWidth<=0 || o.outHeight<=0)
+                return null;
+            try {
+                is.reset();
+            } catch (IOException e) {
+                //header bigger than the mark limit
+                is=reopened=sourceReader.open();
             }
   
             //decode with inSampleSize
             BitmapFactory.Options o2 = new BitmapFactory.Options();
-            o2.inSampleSize=scale;
-            return BitmapFactory.decodeStream(new FileInputStream(f), null, o2);
-        } catch (FileNotFoundException e) {}
-        return null;
+            o2.inSampleSize=computeSampleSize(o.outWidth, o.outHeight, loader.targetWidth, loader.targetHeight);
+            if(preferRgb565 && "image/jpeg".equals(o.outMimeType))
+                o2.inPreferredConfig=Bitmap.Config.RGB_565;
+            //o2.inBitmap is only read when a bitmap is reused : the field doesn't exist before Honeycomb
+            Bitmap reusedBitmap=bitmapPool.prepareOptions(o2, o.outWidth, o.outHeight);
+            loader.decodeOptions=o2;
+            if(loader.cancelled){
+                bitmapPool.put(reusedBitmap);
+                return null;
+            }
+            Bitmap bitmap;
+            try {
+                bitmap=BitmapFactory.decodeStream(is, null, o2);
+            } catch (IllegalArgumentException e) {
+                //the pooled bitmap can't hold this image
+                if(reusedBitmap==null)
+                    throw e;
+                bitmap=null;
+            }
+            if(bitmap==null && reusedBitmap!=null){
+                bitmapPool.put(reusedBitmap);
+                o2.inBitmap=null;
+                if(!loader.cancelled){
+                    //decoded again in a new bitmap
+                    closeQuietly(reopened);
+                    is=reopened=sourceReader.open();
+                    bitmap=BitmapFactory.decodeStream(is, null, o2);
+                }
+            }
+            if(bitmap!=null && exactScaling)
+                bitmap=scaleToTarget(bitmap, loader.targetWidth, loader.targetHeight);
+            return bitmap;
+        } finally {
+            closeQuietly(reopened);
+        }
+    }
+  
+    private static void closeQuietly(Closeable closeable){
+        if(closeable!=null){
+            try {
+                closeable.close();
+            } catch (IOException e) {}
+        }
+    }
+  
+    //largest power of 2 keeping the image at least as big as the target
+    static int computeSampleSize(int width, int height, int targetWidth, int targetHeight){
+        int sampleSize=1;
+        if(targetWidth<=0 || targetHeight<=0)
+            return sampleSize;
+        while(width/(sampleSize*2)>=targetWidth && height/(sampleSize*2)>=targetHeight)
+            sampleSize*=2;
+        return sampleSize;
+    }
+  
+    //scales the bitmap down to fit in the target, keeping its ratio
+    private Bitmap scaleToTarget(Bitmap bitmap, int targetWidth, int targetHeight){
+        if(targetWidth<=0 || targetHeight<=0)
+            return bitmap;
+        float ratio=Math.min((float)targetWidth/bitmap.getWidth(), (float)targetHeight/bitmap.getHeight());
+        if(ratio>=1)
+            return bitmap;
+        int width=Math.max(1, Math.round(bitmap.getWidth()*ratio));
+        int height=Math.max(1, Math.round(bitmap.getHeight()*ratio));
+        Bitmap scaledBitmap=Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if(scaledBitmap!=bitmap)
+            bitmapPool.put(bitmap);
+        return scaledBitmap;
     }
   
     //Task for the queue
     private class PhotoToLoad
     {
         public String url;
+        public String loadKey;
         public ImageView imageView;
-        public PhotoToLoad(String u, ImageView i){
+        public PhotoToLoad(String u, String k, ImageView i){
             url=u;
+            loadKey=k;
             imageView=i;
         }
     }
   
-    class PhotosLoader implements Runnable {
-        PhotoToLoad photoToLoad;
-        PhotosLoader(PhotoToLoad photoToLoad){
-            this.photoToLoad=photoToLoad;
+    //Loads an image once for all the views waiting for it
+    class PhotosLoader extends PriorityExecutor.Task {
+        final String loadKey;
+        final String url;
+        //guarded by inFlightLoads
+        final List<PhotoToLoad> photosToLoad=new ArrayList<PhotoToLoad>();
+        volatile boolean cancelled;
+        //the current download and decoding, stopped when the load is cancelled
+        volatile HttpURLConnection connection;
+        volatile BitmapFactory.Options decodeOptions;
+        //false while the load runs on the disk pool, true once it has moved to the network pool
+        volatile boolean downloading;
+        final int targetWidth;
+        final int targetHeight;
+        //the group of a prefetch, null for the loads of visible images. Changed with the inFlightLoads lock held
+        volatile PrefetchGroup prefetchGroup;
+        //true while the prefetch counts in the running prefetches, guarded by inFlightLoads
+        boolean prefetchSlot;
+        PhotosLoader(String loadKey, String url, int targetWidth, int targetHeight, int priority){
+            super(priority);
+            this.loadKey=loadKey;
+            this.targetWidth=targetWidth;
+            this.targetHeight=targetHeight;
+            this.url=url;
         }
   
         @Override
         public void run() {
-            if(imageViewReused(photoToLoad))
-                return;
-            Bitmap bmp=getBitmap(photoToLoad.url);
-            memoryCache.put(photoToLoad.url, bmp);
-            if(imageViewReused(photoToLoad))
-                return;
-            BitmapDisplayer bd=new BitmapDisplayer(bmp, photoToLoad);
-            Activity a=(Activity)photoToLoad.imageView.getContext();
-            a.runOnUiThread(bd);
+            boolean movedToNetwork=false;
+            try {
+                movedToNetwork=load();
+            } finally {
+                //the slot of a prefetch is released after its last stage
+                if(!movedToNetwork)
+                    finishPrefetch(this);
+            }
+        }
+  
+        //returns true if the load goes on in the network pool
+        private boolean load() {
+            synchronized(inFlightLoads){
+                //nobody needs the image anymore
+                if(cancelled || (prefetchGroup==null && allImageViewsReused())){
+                    if(inFlightLoads.get(loadKey)==this)
+                        inFlightLoads.remove(loadKey);
+                    return false;
+                }
+            }
+            PrefetchGroup group=prefetchGroup;
+            Bitmap bmp;
+            if(group!=null && !group.decodeInMemory){
+                //prefetch in the file cache only
+                boolean cached=fileCache.getFile(url)!=null;
+                if(!cached){
+                    if(!downloading){
+                        downloading=true;
+                        networkExecutor.execute(this);
+                        return true;
+                    }
+                    cached=downloadToCache(url, this);
+                }
+                if(cancelled)
+                    return false;
+                synchronized(inFlightLoads){
+                    //no view has asked for the image meanwhile, nothing to decode
+                    if(prefetchGroup!=null){
+                        if(inFlightLoads.get(loadKey)==this)
+                            inFlightLoads.remove(loadKey);
+                        return false;
+                    }
+                }
+                bmp=cached ? getCachedBitmap(url, this) : null;
+            }
+            else if(!downloading){
+                bmp=getCachedBitmap(url, this);
+                if(bmp==null && !cancelled){
+                    downloading=true;
+                    networkExecutor.execute(this);
+                    return true;
+                }
+            }
+            else
+                bmp=downloadBitmap(url, this);
+            if(cancelled)
+                return false;
+            memoryCache.put(loadKey, bmp);
+  
+            List<PhotoToLoad> waitingPhotos;
+            synchronized(inFlightLoads){
+                if(inFlightLoads.get(loadKey)==this)
+                    inFlightLoads.remove(loadKey);
+                waitingPhotos=new ArrayList<PhotoToLoad>(photosToLoad);
+                for(PhotoToLoad photoToLoad:waitingPhotos){
+                    if(viewLoads.get(photoToLoad.imageView)==this)
+                        viewLoads.remove(photoToLoad.imageView);
+                }
+            }
+            for(PhotoToLoad photoToLoad:waitingPhotos){
+                if(imageViewReused(photoToLoad))
+                    continue;
+                BitmapDisplayer bd=new BitmapDisplayer(bmp, photoToLoad);
+                Activity a=(Activity)photoToLoad.imageView.getContext();
+                a.runOnUiThread(bd);
+            }
+            return false;
+        }
+  
+        //called without the inFlightLoads lock : the connection may block while closing
+        void cancel(){
+            cancelled=true;
+            diskExecutor.remove(this);
+            networkExecutor.remove(this);
+            HttpURLConnection conn=connection;
+            if(conn!=null)
+                conn.disconnect();
+            BitmapFactory.Options options=decodeOptions;
+            if(options!=null)
+                options.requestCancelDecode();
+        }
+  
+        void reschedule(int newPriority){
+            PriorityExecutor executor=downloading ? networkExecutor : diskExecutor;
+            executor.reschedule(this, newPriority);
+        }
+  
+        //must be called with the inFlightLoads lock held
+        private boolean allImageViewsReused(){
+            for(PhotoToLoad photoToLoad:photosToLoad){
+                if(!imageViewReused(photoToLoad))
+                    return false;
+            }
+            return true;
         }
     }
   
     boolean imageViewReused(PhotoToLoad photoToLoad){
         String tag=imageViews.get(photoToLoad.imageView);
-        if(tag==null || !tag.equals(photoToLoad.url))
+        if(tag==null || !tag.equals(photoToLoad.loadKey))
             return true;
         return false;
     }
@@ -169,6 +781,7 @@ public class ImageLoader {
   
     public void clearCache() {
         memoryCache.clear();
+        bitmapPool.clear();
         fileCache.clear();
     }
   
@@ -0,0 +1,76 @@
+package com.itelios.itframework.image;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.itelios.itframework.utils.DiskLruCache;
+
+/**
+ * Statistics of the image pipeline, all backends included
+ */
+public class ImageMetrics {
+
+    private final MemoryCache memoryCache;
+    private final FileCache fileCache;
+    private final AtomicLong downloadCount=new AtomicLong();
+    private final AtomicLong downloadedBytes=new AtomicLong();
+    private final AtomicLong downloadFailureCount=new AtomicLong();
+
+    ImageMetrics(MemoryCache memoryCache, FileCache fileCache){
+        this.memoryCache=memoryCache;
+        this.fileCache=fileCache;
+    }
+
+    void onDownload(long byteCount){
+        downloadCount.incrementAndGet();
+        downloadedBytes.addAndGet(byteCount);
+    }
+
+    void onDownloadFailure(){
+        downloadFailureCount.incrementAndGet();
+    }
+
+    public long getMemoryHitCount(){
+        return memoryCache.getHitCount();
+    }
+
+    public long getMemoryMissCount(){
+        return memoryCache.getMissCount();
+    }
+
+    public long getMemorySize(){
+        return memoryCache.size();
+    }
+
+    public long getDiskHitCount(){
+        DiskLruCache diskCache=fileCache.getDiskCache();
+        return diskCache!=null ? diskCache.getHitCount() : 0;
+    }
+
+    public long getDiskMissCount(){
+        DiskLruCache diskCache=fileCache.getDiskCache();
+        return diskCache!=null ? diskCache.getMissCount() : 0;
+    }
+
+    public long getDiskSize(){
+        DiskLruCache diskCache=fileCache.getDiskCache();
+        return diskCache!=null ? diskCache.size() : 0;
+    }
+
+    public long getDownloadCount(){
+        return downloadCount.get();
+    }
+
+    public long getDownloadedBytes(){
+        return downloadedBytes.get();
+    }
+
+    public long getDownloadFailureCount(){
+        return downloadFailureCount.get();
+    }
+
+    @Override
+    public String toString(){
+        return "ImageMetrics[memory="+memoryCache+", disk="+fileCache.getDiskCache()+", downloads="+getDownloadCount()
+                +", downloadedBytes="+getDownloadedBytes()+", downloadFailures="+getDownloadFailureCount()+"]";
+    }
+}
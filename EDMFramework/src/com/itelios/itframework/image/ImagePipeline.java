@@ -0,0 +1,135 @@
+package com.itelios.itframework.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+/**
+ * Image loading shared by the whole application : a single memory budget, disk cache (see FileCache)
+ * and pair of thread pools, used by the ImageLoader of the framework as well as by Universal Image Loader.
+ * The images are displayed by the backend set with setBackend, the ImageLoader of the framework by default.
+ */
+public class ImagePipeline {
+
+    private static ImagePipeline instance;
+
+    private static final int DISK_THREAD_COUNT=2;
+    private static final int NETWORK_THREAD_COUNT=4;
+
+    private final Context context;
+    final MemoryCache memoryCache;
+    //bitmaps evicted from the memory cache, reused for the next decodings
+    final BitmapPool bitmapPool;
+    final FileCache fileCache;
+    //Loads start on the disk pool, and go on the network pool only when the image is not in the file cache,
+    //so that a slow download never delays an image already on the disk
+    final PriorityExecutor diskExecutor;
+    final PriorityExecutor networkExecutor;
+    private final ImageMetrics metrics;
+    //the loaders of the framework, asked if an evicted bitmap is still displayed
+    private final Map<ImageLoader, Boolean> loaders=new WeakHashMap<ImageLoader, Boolean>();
+    private ImageLoader imageLoader;
+    private UniversalImageBackend universalImageBackend;
+    private volatile ImageBackend backend;
+
+    public static synchronized ImagePipeline getInstance(Context context){
+        if(instance==null)
+            instance=new ImagePipeline(context.getApplicationContext());
+        return instance;
+    }
+
+    private ImagePipeline(Context context){
+        this.context=context;
+        memoryCache=new MemoryCache(context);
+        bitmapPool=new BitmapPool(memoryCache.maxSize()/4);
+        memoryCache.setEvictionListener(new MemoryCache.EvictionListener() {
+            @Override
+            public void onBitmapEvicted(String id, Bitmap bitmap) {
+                //a bitmap still displayed (or about to be) must not be overwritten
+                if(!UilMemoryCache.isUilKey(id) && !isDisplayed(id))
+                    bitmapPool.put(bitmap);
+            }
+        });
+        fileCache=new FileCache(context);
+        diskExecutor=new PriorityExecutor(DISK_THREAD_COUNT, "ImageLoader-disk");
+        networkExecutor=new PriorityExecutor(NETWORK_THREAD_COUNT, "ImageLoader-network");
+        metrics=new ImageMetrics(memoryCache, fileCache);
+    }
+
+    Context getContext(){
+        return context;
+    }
+
+    void register(ImageLoader loader){
+        synchronized(loaders){
+            loaders.put(loader, Boolean.TRUE);
+        }
+    }
+
+    private boolean isDisplayed(String id){
+        List<ImageLoader> registeredLoaders;
+        synchronized(loaders){
+            registeredLoaders=new ArrayList<ImageLoader>(loaders.keySet());
+        }
+        for(ImageLoader loader:registeredLoaders){
+            if(loader.isDisplayed(id))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the shared ImageLoader of the framework
+     */
+    public synchronized ImageLoader getImageLoader(){
+        if(imageLoader==null)
+            imageLoader=new ImageLoader(this);
+        return imageLoader;
+    }
+
+    /**
+     * @return the backend of Universal Image Loader, initializing its singleton with the shared configuration
+     */
+    public synchronized UniversalImageBackend getUniversalImageBackend(){
+        if(universalImageBackend==null)
+            universalImageBackend=new UniversalImageBackend(this);
+        return universalImageBackend;
+    }
+
+    /**
+     * Changes the backend displaying the images, for instance getUniversalImageBackend() or a custom backend
+     */
+    public void setBackend(ImageBackend backend){
+        this.backend=backend;
+    }
+
+    public ImageBackend getBackend(){
+        ImageBackend currentBackend=backend;
+        if(currentBackend==null)
+            currentBackend=backend=getImageLoader();
+        return currentBackend;
+    }
+
+    public void displayImage(String url, ImageView imageView, int stubResId){
+        getBackend().displayImage(url, imageView, stubResId);
+    }
+
+    public void cancelDisplayTask(ImageView imageView){
+        getBackend().cancelDisplayTask(imageView);
+    }
+
+    public ImageMetrics getMetrics(){
+        return metrics;
+    }
+
+    public void clearCache(){
+        memoryCache.clear();
+        bitmapPool.clear();
+        fileCache.clear();
+    }
+}
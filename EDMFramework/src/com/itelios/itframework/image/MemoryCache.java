@@ -1,26 +1,201 @@
 package com.itelios.itframework.image;
 
-import java.lang.ref.SoftReference;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+
+import com.itelios.itframework.ITApplication;
+
+import android.app.ActivityManager;
+import android.content.Context;
 import android.graphics.Bitmap;
-  
+import android.util.Pair;
+
+/**
+ * LRU bitmap cache bounded by the total size of the bitmaps in bytes
+ */
 public class MemoryCache {
-    private Map<String, SoftReference<Bitmap>> cache=Collections.synchronizedMap(new HashMap<String, SoftReference<Bitmap>>());
-  
+
+    /**
+     * Called when a bitmap leaves the cache (evicted to respect the budget, replaced by a new bitmap, or removed)
+     */
+    public interface EvictionListener {
+        void onBitmapEvicted(String id, Bitmap bitmap);
+    }
+
+    //Access order : iterating gives the least recently used entries first
+    private final LinkedHashMap<String, Bitmap> cache=new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+    private long size=0;
+    private long maxSize;
+    private EvictionListener evictionListener;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Cache using a fraction (ITApplication.IMAGE_MEMORY_CACHE_FRACTION) of the memory class of the device
+     */
+    public MemoryCache(Context context){
+        this(getDefaultMaxSize(context));
+    }
+
+    /**
+     * Cache using a fraction (ITApplication.IMAGE_MEMORY_CACHE_FRACTION) of the max heap size
+     */
+    public MemoryCache(){
+        this(getDefaultMaxSize(null));
+    }
+
+    /**
+     * @param maxSize the budget of the cache in bytes
+     */
+    public MemoryCache(long maxSize){
+        this.maxSize=maxSize;
+    }
+
+    public static long getDefaultMaxSize(Context context){
+        long heapSize=Runtime.getRuntime().maxMemory();
+        if(context!=null){
+            ActivityManager activityManager=(ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE);
+            if(activityManager!=null && activityManager.getMemoryClass()>0)
+                heapSize=activityManager.getMemoryClass()*1024L*1024L;
+        }
+        return (long)(heapSize*ITApplication.IMAGE_MEMORY_CACHE_FRACTION);
+    }
+
+    public static long getBitmapSize(Bitmap bitmap){
+        return (long)bitmap.getRowBytes()*bitmap.getHeight();
+    }
+
+    public void setEvictionListener(EvictionListener listener){
+        evictionListener=listener;
+    }
+
     public Bitmap get(String id){
-        if(!cache.containsKey(id))
-            return null;
-        SoftReference<Bitmap> ref=cache.get(id);
-        return ref.get();
+        synchronized(this){
+            Bitmap bitmap=cache.get(id);
+            if(bitmap!=null)
+                hitCount++;
+            else
+                missCount++;
+            return bitmap;
+        }
     }
-  
+
     public void put(String id, Bitmap bitmap){
-        cache.put(id, new SoftReference<Bitmap>(bitmap));
+        if(bitmap==null)
+            return;
+        List<Pair<String, Bitmap>> evicted=new ArrayList<Pair<String, Bitmap>>();
+        synchronized(this){
+            long bitmapSize=getBitmapSize(bitmap);
+            Bitmap previous;
+            if(bitmapSize>maxSize){
+                //would flush the whole cache for a single image, only the outdated image of the id is removed
+                previous=cache.remove(id);
+            }else{
+                previous=cache.put(id, bitmap);
+                size+=bitmapSize;
+            }
+            if(previous!=null){
+                size-=getBitmapSize(previous);
+                if(previous!=bitmap)
+                    evicted.add(Pair.create(id, previous));
+            }
+            trimToSize(maxSize, evicted);
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Removes a bitmap, the eviction listener being notified
+     */
+    public Bitmap remove(String id){
+        Bitmap bitmap;
+        synchronized(this){
+            bitmap=cache.remove(id);
+            if(bitmap==null)
+                return null;
+            size-=getBitmapSize(bitmap);
+        }
+        EvictionListener listener=evictionListener;
+        if(listener!=null)
+            listener.onBitmapEvicted(id, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Change the budget of the cache, evicting the least recently used bitmaps if needed
+     */
+    public void setMaxSize(long maxSize){
+        List<Pair<String, Bitmap>> evicted=new ArrayList<Pair<String, Bitmap>>();
+        synchronized(this){
+            this.maxSize=maxSize;
+            trimToSize(maxSize, evicted);
+        }
+        notifyEvicted(evicted);
     }
-  
+
     public void clear() {
-        cache.clear();
+        List<Pair<String, Bitmap>> evicted=new ArrayList<Pair<String, Bitmap>>();
+        synchronized(this){
+            trimToSize(0, evicted);
+        }
+        notifyEvicted(evicted);
+    }
+
+    public synchronized List<String> keys(){
+        return new ArrayList<String>(cache.keySet());
+    }
+
+    public synchronized long size(){
+        return size;
+    }
+
+    public synchronized long maxSize(){
+        return maxSize;
+    }
+
+    public synchronized long getHitCount(){
+        return hitCount;
+    }
+
+    public synchronized long getMissCount(){
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount(){
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString(){
+        long accessCount=hitCount+missCount;
+        int hitPercent=accessCount!=0 ? (int)(100*hitCount/accessCount) : 0;
+        return "MemoryCache[size="+size+",maxSize="+maxSize+",hits="+hitCount+",misses="+missCount
+                +",evictions="+evictionCount+",hitRate="+hitPercent+"%]";
+    }
+
+    //Must be called with the lock held
+    private void trimToSize(long targetSize, List<Pair<String, Bitmap>> evicted){
+        Iterator<Map.Entry<String, Bitmap>> iterator=cache.entrySet().iterator();
+        while(size>targetSize && iterator.hasNext()){
+            Map.Entry<String, Bitmap> eldest=iterator.next();
+            iterator.remove();
+            size-=getBitmapSize(eldest.getValue());
+            evictionCount++;
+            evicted.add(Pair.create(eldest.getKey(), eldest.getValue()));
+        }
+    }
+
+    //Called without the lock so that the listener can use the cache
+    private void notifyEvicted(List<Pair<String, Bitmap>> evicted){
+        EvictionListener listener=evictionListener;
+        if(listener==null)
+            return;
+        for(Pair<String, Bitmap> entry:evicted)
+            listener.onBitmapEvicted(entry.first, entry.second);
     }
-}
\ No newline at end of file
+}
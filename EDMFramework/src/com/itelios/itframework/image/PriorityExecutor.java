@@ -0,0 +1,109 @@
+package com.itelios.itframework.image;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor running the most urgent tasks first : the tasks with the lowest priority value,
+ * then the most recently queued ones (last in, first out)
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+
+    //images displayed now
+    public static final int PRIORITY_VISIBLE=0;
+    //images that will be displayed soon
+    public static final int PRIORITY_PREFETCH=1;
+
+    private final AtomicLong sequenceGenerator=new AtomicLong();
+
+    public PriorityExecutor(int threadCount, String name){
+        super(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+                new NamedThreadFactory(name));
+    }
+
+    /**
+     * Queues a task, in front of the tasks with the same priority
+     */
+    @Override
+    public void execute(Runnable command){
+        //the tasks of other libraries run with the visible images
+        if(!(command instanceof Task))
+            command=new RunnableTask(command);
+        //the order must not change while the task is in the queue
+        ((Task)command).sequence=sequenceGenerator.incrementAndGet();
+        super.execute(command);
+    }
+
+    /**
+     * Moves a queued task in front of the tasks of its new priority
+     * @return false if the task is not in the queue anymore (running, done or cancelled)
+     */
+    public boolean reschedule(Task task, int priority){
+        if(!remove(task))
+            return false;
+        task.priority=priority;
+        execute(task);
+        return true;
+    }
+
+    public abstract static class Task implements Runnable, Comparable<Task> {
+        //only changed while the task is not queued
+        volatile int priority;
+        volatile long sequence;
+
+        protected Task(int priority){
+            this.priority=priority;
+        }
+
+        public int getPriority(){
+            return priority;
+        }
+
+        @Override
+        public int compareTo(Task another){
+            if(priority!=another.priority)
+                return priority<another.priority ? -1 : 1;
+            //last in, first out
+            if(sequence!=another.sequence)
+                return sequence>another.sequence ? -1 : 1;
+            return 0;
+        }
+    }
+
+    //task queued by another library
+    private static class RunnableTask extends Task {
+        private final Runnable runnable;
+
+        RunnableTask(Runnable runnable){
+            super(PRIORITY_VISIBLE);
+            this.runnable=runnable;
+        }
+
+        @Override
+        public void run(){
+            runnable.run();
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadNumber=new AtomicInteger(1);
+
+        NamedThreadFactory(String name){
+            this.name=name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r){
+            Thread thread=new Thread(r, name+"-"+threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            //below the UI thread
+            thread.setPriority(Thread.NORM_PRIORITY-1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.itelios.itframework.image;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream writing a copy of every byte read (or skipped) in another stream.
+ * The reading goes on if the copy fails, the copy is then incomplete.
+ */
+class TeeInputStream extends FilterInputStream {
+
+    private final OutputStream copy;
+    private long count;
+    private boolean copyFailed;
+
+    TeeInputStream(InputStream in, OutputStream copy){
+        super(in);
+        this.copy=copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b=in.read();
+        if(b!=-1){
+            count++;
+            if(!copyFailed){
+                try {
+                    copy.write(b);
+                } catch (IOException e) {
+                    copyFailed=true;
+                }
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int readCount=in.read(b, off, len);
+        if(readCount>0){
+            count+=readCount;
+            if(!copyFailed){
+                try {
+                    copy.write(b, off, readCount);
+                } catch (IOException e) {
+                    copyFailed=true;
+                }
+            }
+        }
+        return readCount;
+    }
+
+    //the skipped bytes must be copied too
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer=Utils.getCopyBuffer();
+        long skipped=0;
+        while(skipped<n){
+            int readCount=read(buffer, 0, (int)Math.min(buffer.length, n-skipped));
+            if(readCount==-1)
+                break;
+            skipped+=readCount;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Reads (and copies) the stream until its end
+     */
+    void drain() throws IOException {
+        byte[] buffer=Utils.getCopyBuffer();
+        while(read(buffer, 0, buffer.length)!=-1){
+            //only copied
+        }
+    }
+
+    long getCount(){
+        return count;
+    }
+
+    /**
+     * @param expectedLength the length of the source, -1 if unknown
+     * @return true if every byte read has been copied, and the whole source has been read when its length is known
+     */
+    boolean isCopyComplete(long expectedLength){
+        return !copyFailed && (expectedLength<0 || count==expectedLength);
+    }
+}
@@ -0,0 +1,81 @@
+package com.itelios.itframework.image;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import android.os.SystemClock;
+
+/**
+ * Stream slowing down its reading to respect a bandwidth shared by several streams
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+    private final Throttle throttle;
+
+    ThrottledInputStream(InputStream in, Throttle throttle){
+        super(in);
+        this.throttle=throttle;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b=in.read();
+        if(b!=-1)
+            throttle.onBytesRead(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int readCount=in.read(b, off, len);
+        if(readCount>0)
+            throttle.onBytesRead(readCount);
+        return readCount;
+    }
+
+    /**
+     * Bandwidth shared by the streams, measured on windows of one second
+     */
+    static class Throttle {
+        private volatile long maxBytesPerSecond;
+        private long windowStart;
+        private long windowBytes;
+
+        /**
+         * @param maxBytesPerSecond the max bandwidth, 0 for no limit
+         */
+        void setMaxBytesPerSecond(long maxBytesPerSecond){
+            this.maxBytesPerSecond=maxBytesPerSecond;
+        }
+
+        long getMaxBytesPerSecond(){
+            return maxBytesPerSecond;
+        }
+
+        void onBytesRead(int count) throws InterruptedIOException {
+            long maxBytes=maxBytesPerSecond;
+            if(maxBytes<=0)
+                return;
+            long sleepTime;
+            synchronized(this){
+                long now=SystemClock.elapsedRealtime();
+                if(now-windowStart>=1000){
+                    windowStart=now;
+                    windowBytes=0;
+                }
+                windowBytes+=count;
+                //time at which the bytes read in the window are allowed
+                sleepTime=windowBytes*1000/maxBytes-(now-windowStart);
+            }
+            if(sleepTime>0){
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.itelios.itframework.image;
+
+import java.io.File;
+
+import com.nostra13.universalimageloader.cache.disc.DiscCacheAware;
+
+/**
+ * Disc cache of Universal Image Loader stored in the shared FileCache
+ */
+class UilDiscCache implements DiscCacheAware {
+
+    private final FileCache fileCache;
+    private final ImageMetrics metrics;
+
+    UilDiscCache(FileCache fileCache, ImageMetrics metrics){
+        this.fileCache=fileCache;
+        this.metrics=metrics;
+    }
+
+    //Universal Image Loader downloads the image in the returned file if it doesn't exist, then calls put.
+    //On a miss the file is a private temporary file, moved in the cache by put (see UilImageDownloader for the decoding)
+    @Override
+    public File get(String imageUri){
+        File tempFile=fileCache.getTempFile(imageUri);
+        //Left by a download that couldn't be added to the cache : it must not be taken for a cached image
+        if(tempFile.exists())
+            tempFile.delete();
+        File file=fileCache.getFile(imageUri);
+        if(file!=null)
+            return file;
+        return tempFile;
+    }
+
+    @Override
+    public void put(String imageUri, File file){
+        metrics.onDownload(file.length());
+        fileCache.put(imageUri, file);
+    }
+
+    @Override
+    public void clear(){
+        fileCache.clear();
+    }
+}
@@ -0,0 +1,38 @@
+package com.itelios.itframework.image;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.nostra13.universalimageloader.core.download.BaseImageDownloader;
+
+import android.content.Context;
+
+/**
+ * Downloader of Universal Image Loader decoding the downloaded images from the shared FileCache :
+ * Universal Image Loader decodes the file returned by UilDiscCache.get, which is moved in the cache once downloaded
+ */
+class UilImageDownloader extends BaseImageDownloader {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final FileCache fileCache;
+
+    UilImageDownloader(Context context, FileCache fileCache){
+        super(context);
+        this.fileCache=fileCache;
+    }
+
+    @Override
+    protected InputStream getStreamFromFile(String imageUri, Object extra) throws IOException {
+        File file=new File(Scheme.FILE.crop(imageUri));
+        if(!file.exists()){
+            File cachedFile=fileCache.getFileForTempFile(file);
+            if(cachedFile!=null)
+                return new BufferedInputStream(new FileInputStream(cachedFile), BUFFER_SIZE);
+        }
+        return super.getStreamFromFile(imageUri, extra);
+    }
+}
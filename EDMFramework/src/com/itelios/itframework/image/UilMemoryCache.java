@@ -0,0 +1,63 @@
+package com.itelios.itframework.image;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.nostra13.universalimageloader.cache.memory.MemoryCacheAware;
+
+import android.graphics.Bitmap;
+
+/**
+ * Memory cache of Universal Image Loader stored in the shared MemoryCache, its keys being prefixed
+ */
+class UilMemoryCache implements MemoryCacheAware<String, Bitmap> {
+
+    private static final String KEY_PREFIX="uil:";
+
+    private final MemoryCache memoryCache;
+
+    UilMemoryCache(MemoryCache memoryCache){
+        this.memoryCache=memoryCache;
+    }
+
+    //the bitmaps of Universal Image Loader may still be displayed, they are never reused
+    static boolean isUilKey(String id){
+        return id.startsWith(KEY_PREFIX);
+    }
+
+    @Override
+    public boolean put(String key, Bitmap value){
+        memoryCache.put(KEY_PREFIX+key, value);
+        return true;
+    }
+
+    @Override
+    public Bitmap get(String key){
+        return memoryCache.get(KEY_PREFIX+key);
+    }
+
+    @Override
+    public void remove(String key){
+        memoryCache.remove(KEY_PREFIX+key);
+    }
+
+    @Override
+    public Collection<String> keys(){
+        List<String> keys=new ArrayList<String>();
+        for(String id:memoryCache.keys()){
+            if(isUilKey(id))
+                keys.add(id.substring(KEY_PREFIX.length()));
+        }
+        return keys;
+    }
+
+    //only the images of Universal Image Loader are removed
+    @Override
+    public void clear(){
+        for(String id:memoryCache.keys()){
+            if(isUilKey(id))
+                memoryCache.remove(id);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.itelios.itframework.image;
+
+import com.nostra13.universalimageloader.core.DisplayImageOptions;
+import com.nostra13.universalimageloader.core.ImageLoader;
+import com.nostra13.universalimageloader.core.ImageLoaderConfiguration;
+import com.nostra13.universalimageloader.core.assist.ImageScaleType;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+/**
+ * Universal Image Loader running on the thread pools, memory budget and disk cache of ImagePipeline
+ */
+public class UniversalImageBackend implements ImageBackend {
+
+    private final ImageLoader imageLoader;
+    private final DisplayImageOptions defaultOptions;
+
+    UniversalImageBackend(ImagePipeline pipeline){
+        defaultOptions = new DisplayImageOptions.Builder()
+            .cacheInMemory(true)
+            .cacheOnDisc(true)
+            .bitmapConfig(Bitmap.Config.RGB_565)
+            .imageScaleType(ImageScaleType.EXACTLY)
+            .build();
+        ImageLoaderConfiguration config = new ImageLoaderConfiguration.Builder(pipeline.getContext())
+            .taskExecutor(pipeline.networkExecutor)
+            .taskExecutorForCachedImages(pipeline.diskExecutor)
+            .denyCacheImageMultipleSizesInMemory()
+            .memoryCache(new UilMemoryCache(pipeline.memoryCache))
+            .discCache(new UilDiscCache(pipeline.fileCache, pipeline.getMetrics()))
+            .imageDownloader(new UilImageDownloader(pipeline.getContext(), pipeline.fileCache))
+            .defaultDisplayImageOptions(defaultOptions)
+            .build();
+        imageLoader=ImageLoader.getInstance();
+        imageLoader.init(config);
+    }
+
+    /**
+     * @return the Universal Image Loader singleton, initialized with the shared configuration
+     */
+    public ImageLoader getImageLoader(){
+        return imageLoader;
+    }
+
+    @Override
+    public void displayImage(String url, ImageView imageView, int stubResId){
+        DisplayImageOptions options=new DisplayImageOptions.Builder()
+            .cloneFrom(defaultOptions)
+            .showStubImage(stubResId)
+            .showImageForEmptyUri(stubResId)
+            .showImageOnFail(stubResId)
+            .build();
+        imageLoader.displayImage(url, imageView, options);
+    }
+
+    @Override
+    public void cancelDisplayTask(ImageView imageView){
+        imageLoader.cancelDisplayTask(imageView);
+    }
+}
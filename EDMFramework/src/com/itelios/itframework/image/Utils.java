@@ -1,23 +1,55 @@
 package com.itelios.itframework.image;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
   
 public class Utils {
+    private static final int COPY_BUFFER_SIZE=32*1024;
+    //one buffer per loading thread, reused for every copy
+    private static final ThreadLocal<byte[]> copyBuffers=new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[COPY_BUFFER_SIZE];
+        }
+    };
+  
+    /**
+     * @return the copy buffer of the current thread
+     */
+    public static byte[] getCopyBuffer()
+    {
+        return copyBuffers.get();
+    }
+  
+    /**
+     * Copies a stream until its end
+     * @return the number of bytes copied
+     */
+    public static long copy(InputStream is, OutputStream os) throws IOException
+    {
+        byte[] bytes=getCopyBuffer();
+        long total=0;
+        for(;;)
+        {
+            int count=is.read(bytes, 0, bytes.length);
+            if(count==-1)
+                break;
+            os.write(bytes, 0, count);
+            total+=count;
+        }
+        return total;
+    }
+  
+    /**
+     * Copies a stream, ignoring the errors. Use <code>copy()</code> to know if the copy is complete
+     */
     public static void CopyStream(InputStream is, OutputStream os)
     {
-        final int buffer_size=1024;
         try
         {
-            byte[] bytes=new byte[buffer_size];
-            for(;;)
-            {
-              int count=is.read(bytes, 0, buffer_size);
-              if(count==-1)
-                  break;
-              os.write(bytes, 0, count);
-            }
+            copy(is, os);
         }
         catch(Exception ex){}
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,19 @@
+package com.itelios.itframework.listener;
+
+import com.itelios.itframework.exception.ITException;
+
+/**
+ * Listener receiving the elements of a list one by one while the list is streamed from a web service
+ * @author marcduvignaud
+ *
+ * @param <ElementType> : The type of the elements of the list
+ */
+public interface StreamElementListener<ElementType> {
+	/**
+	 * Called for each element of the list, in the order of the list
+	 * @param element : The deserialized element
+	 * @return True to continue reading the list, false to stop (the connection is then closed)
+	 * @throws ITException : Stops the reading and is sent back to the caller
+	 */
+	public boolean onElementReceived(ElementType element) throws ITException;
+}
@@ -0,0 +1,15 @@
+package com.itelios.itframework.listener;
+
+import com.itelios.itframework.exception.ITException;
+
+/**
+ * Listener receiving on the main thread the end of an asynchronous web service call (see WebServiceFuture)
+ * @author marcduvignaud
+ *
+ * @param <ReturnType> : The type of returned object
+ */
+public interface WebServiceCallback<ReturnType> {
+	public void onCallCompleted(ReturnType returnedObject);
+	public void onCallRaisedError(ITException exception);
+	public void onCallCancelled();
+}
@@ -0,0 +1,117 @@
+package com.itelios.itframework.services.caller;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.services.engine.WebServiceResponse;
+import com.itelios.itframework.utils.JsonUtils;
+
+/**
+ * Iterator reading the elements of a JSON array one by one, directly from the response of a web service.
+ * Only the current element is kept in memory, whatever the size of the array.
+ * WARNING : The iterator holds the connection of the call, it must always be closed with <code>close()</code>
+ * @author marcduvignaud
+ *
+ * @param <ElementType> : The type of the elements of the array
+ */
+public class JsonElementIterator<ElementType> {
+
+	private final WebServiceResponse response;
+	private final JsonParser jsonParser;
+	private final Class<ElementType> elementTypeClass;
+	private boolean nextTokenRead;
+	private boolean finished;
+	private boolean closed;
+	
+	JsonElementIterator(WebServiceResponse response, JsonParser jsonParser, Class<ElementType> elementTypeClass)
+	{
+		this.response = response;
+		this.jsonParser = jsonParser;
+		this.elementTypeClass = elementTypeClass;
+	}
+	
+	/**
+	 * Check if there is another element in the array. The iterator is closed automatically at the end of the array.
+	 * @return True if <code>next()</code> can be called
+	 * @throws ITException : Exception of type PARSE_ERROR if the content can't be read
+	 */
+	public boolean hasNext() throws ITException
+	{
+		if(finished || closed)
+			return false;
+		if(!nextTokenRead)
+		{
+			JsonToken token;
+			try
+			{
+				token = jsonParser.nextToken();
+			}
+			catch (IOException ex)
+			{
+				close();
+				throw new ITException(ex.getMessage(), ITExceptionsType.PARSE_ERROR);
+			}
+			nextTokenRead = true;
+			if(token == null || token == JsonToken.END_ARRAY)
+			{
+				finished = true;
+				close();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Read the next element of the array
+	 * @return The deserialized element
+	 * @throws ITException : Exception of type PARSE_ERROR if the content can't be read, or if there's no more element
+	 */
+	public ElementType next() throws ITException
+	{
+		if(!hasNext())
+			throw new ITException("No more element to read in the JSON array", ITExceptionsType.PARSE_ERROR);
+		
+		nextTokenRead = false;
+		try
+		{
+			return JsonUtils.deserializeJson(jsonParser, elementTypeClass);
+		}
+		catch (ITException ex)
+		{
+			close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Release the connection. If the array hasn't been read until the end, the connection is aborted 
+	 * so that the rest of the response isn't downloaded.
+	 */
+	public void close()
+	{
+		if(closed)
+			return;
+		closed = true;
+		
+		if(finished)
+		{
+			response.close();
+		}
+		else
+		{
+			response.abort();
+		}
+		try
+		{
+			jsonParser.close();
+		}
+		catch (IOException ex)
+		{
+			//Nothing to do, the connection is already released
+		}
+	}
+}
@@ -1,12 +1,24 @@
 package com.itelios.itframework.services.caller;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.itelios.itframework.exception.ITException;
 import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.listener.StreamElementListener;
+import com.itelios.itframework.services.caller.WebServiceResultCache.RefreshListener;
+import com.itelios.itframework.services.caller.WebServiceResultCache.ResultLoader;
+import com.itelios.itframework.services.engine.SingleFlightGroup;
 import com.itelios.itframework.services.engine.WebServiceEngine;
+import com.itelios.itframework.services.engine.WebServiceEngine.HttpRequestType;
+import com.itelios.itframework.services.engine.WebServiceEngine.ResponseHandler;
+import com.itelios.itframework.services.engine.WebServiceResponse;
+import com.itelios.itframework.task.WebServiceExecutor;
+import com.itelios.itframework.task.WebServiceFuture;
 import com.itelios.itframework.utils.JsonUtils;
-import com.itelios.itframework.utils.StringUtils;
 
 /**
  * Json webservice caller
@@ -15,6 +27,49 @@ import com.itelios.itframework.utils.StringUtils;
  */
 public class JsonWebServiceCaller {
 	
+	/**
+	 * The URL prefixes whose identical GET calls running at the same time share their result
+	 */
+	private static final Set<String> coalescedUrlPrefixes = Collections.synchronizedSet(new HashSet<String>());
+	
+	/**
+	 * Enable the coalescing of the GET calls of the URLs starting with a prefix : while a call is running, the identical calls
+	 * (same URL and same type of result) wait for its result instead of calling the web service again.
+	 * The callers then receive the same object, that must not be modified (disabled by default, for all the URLs)
+	 * @param urlPrefix : The prefix of the URLs, for instance the URL of a service
+	 */
+	public static void enableCallCoalescing(String urlPrefix)
+	{
+		coalescedUrlPrefixes.add(urlPrefix);
+	}
+	
+	/**
+	 * Disable the coalescing of the calls enabled with <code>enableCallCoalescing()</code>
+	 * @param urlPrefix : The prefix given to <code>enableCallCoalescing()</code>
+	 */
+	public static void disableCallCoalescing(String urlPrefix)
+	{
+		coalescedUrlPrefixes.remove(urlPrefix);
+	}
+	
+	/**
+	 * Check if the identical GET calls of a URL share their result
+	 * @param url : The URL of the web service
+	 * @return True if the coalescing is enabled for a prefix of the URL
+	 */
+	public static boolean isCallCoalescingEnabled(String url)
+	{
+		synchronized (coalescedUrlPrefixes)
+		{
+			for(String urlPrefix : coalescedUrlPrefixes)
+			{
+				if(url.startsWith(urlPrefix))
+					return true;
+			}
+			return false;
+		}
+	}
+	
 	/**
 	 * Call a POST Web service that needs a request object and send back a response object
 	 * @param urlToCall : The URL of the web service
@@ -26,12 +81,8 @@ public class JsonWebServiceCaller {
 	public  <RequestType, ReturnType> ReturnType callPostWebService(String urlToCall, RequestType requestObject, Class<ReturnType> returnTypeClass) throws ITException
 	{
 		String jsonRequest = JsonUtils.serializeJson(requestObject);		
-		String jsonResponse = WebServiceEngine.callWebServicePost(urlToCall, jsonRequest);
-		if(StringUtils.isNullOrEmpty(jsonResponse))
-		{
-			throw new ITException("No response message sent back by the server for the POST call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
-		}
-		return JsonUtils.deserializeJson(jsonResponse, returnTypeClass);
+		return WebServiceEngine.callWebService(urlToCall, jsonRequest, HttpRequestType.Post, 
+				new JsonObjectResponseHandler<ReturnType>("POST", urlToCall, returnTypeClass));
 	}
 	
 	/**
@@ -46,12 +97,8 @@ public class JsonWebServiceCaller {
 			Class<ReturnType> returnTypeClass) throws ITException
 	{
 		String jsonRequest = JsonUtils.serializeJson(requestObject);		
-		String jsonResponse = WebServiceEngine.callWebServicePost(urlToCall, jsonRequest);
-		if(StringUtils.isNullOrEmpty(jsonResponse))
-		{
-			throw new ITException("No response message sent back by the server for the POST call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
-		}
-		return JsonUtils.deserializeJsonList(jsonResponse, returnTypeClass);
+		return WebServiceEngine.callWebService(urlToCall, jsonRequest, HttpRequestType.Post, 
+				new JsonListResponseHandler<ReturnType>("POST", urlToCall, returnTypeClass));
 	}
 
 	/**
@@ -63,12 +110,8 @@ public class JsonWebServiceCaller {
 	 */
 	public <ReturnType> ReturnType callPostWebService(String urlToCall, Class<ReturnType> returnTypeClass) throws ITException
 	{	
-		String jsonResponse = WebServiceEngine.callWebServicePost(urlToCall, null);
-		if(StringUtils.isNullOrEmpty(jsonResponse))
-		{
-			throw new ITException("No response message sent back by the server for the POST call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
-		}
-		return JsonUtils.deserializeJson(jsonResponse, returnTypeClass);
+		return WebServiceEngine.callWebService(urlToCall, null, HttpRequestType.Post, 
+				new JsonObjectResponseHandler<ReturnType>("POST", urlToCall, returnTypeClass));
 	}
 	
 	/**
@@ -80,12 +123,8 @@ public class JsonWebServiceCaller {
 	 */
 	public <ReturnType> List<ReturnType> callPostWebServiceForList(String urlToCall, Class<ReturnType> returnTypeClass) throws ITException
 	{
-		String jsonResponse = WebServiceEngine.callWebServicePost(urlToCall, null);
-		if(StringUtils.isNullOrEmpty(jsonResponse))
-		{
-			throw new ITException("No response message sent back by the server for the POST call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
-		}
-		return JsonUtils.deserializeJsonList(jsonResponse, returnTypeClass);
+		return WebServiceEngine.callWebService(urlToCall, null, HttpRequestType.Post, 
+				new JsonListResponseHandler<ReturnType>("POST", urlToCall, returnTypeClass));
 	}
 
 	/**
@@ -102,34 +141,213 @@ public class JsonWebServiceCaller {
 	 * Call a GET Web service that send back a response object
 	 * @param urlToCall : The URL of the web service
 	 * @param returnTypeClass : The type of object that is sent back by the web service
-	 * @return The object sent back by the web service
+	 * @return The object sent back by the web service, shared with the identical calls running at the same time
+	 * if the coalescing is enabled for the URL (see <code>enableCallCoalescing()</code>) : it must not be modified then
 	 * @throws ITException : A web service exception
 	 */
-	public <ReturnType> ReturnType callGetWebService(String urlToCall, Class<ReturnType> returnTypeClass) throws ITException
+	public <ReturnType> ReturnType callGetWebService(final String urlToCall, final Class<ReturnType> returnTypeClass) throws ITException
 	{
-		String jsonResponse = WebServiceEngine.callWebServiceGet(urlToCall);
-		if(StringUtils.isNullOrEmpty(jsonResponse))
+		if(!isCallCoalescingEnabled(urlToCall))
 		{
-			throw new ITException("No response message sent back by the server for the GET call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+			return WebServiceEngine.callWebService(urlToCall, "", HttpRequestType.Get, 
+					new JsonObjectResponseHandler<ReturnType>("GET", urlToCall, returnTypeClass));
 		}
-		return JsonUtils.deserializeJson(jsonResponse, returnTypeClass);
+		//The identical calls running at the same time share the same object
+		return SingleFlightGroup.getInstance().execute("JSON GET " + urlToCall + " " + returnTypeClass.getName(), new SingleFlightGroup.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return WebServiceEngine.callWebService(urlToCall, "", HttpRequestType.Get, 
+						new JsonObjectResponseHandler<ReturnType>("GET", urlToCall, returnTypeClass));
+			}
+		});
 	}
 	
 	/**
 	 * Call a GET Web service that send back a response list containing several object
 	 * @param urlToCall : The URL of the web service
 	 * @param returnTypeClass : The type of object that is sent back in a list by the web service
-	 * @return The list of object sent back by the web service
+	 * @return The list of object sent back by the web service, shared with the identical calls running at the same time
+	 * if the coalescing is enabled for the URL (see <code>enableCallCoalescing()</code>) : it must not be modified then
 	 * @throws ITException : A web service exception
 	 */
-	public <ReturnType> List<ReturnType> callGetWebServiceForList(String urlToCall, Class<ReturnType> returnTypeClass) throws ITException
+	public <ReturnType> List<ReturnType> callGetWebServiceForList(final String urlToCall, final Class<ReturnType> returnTypeClass) throws ITException
 	{
-		String jsonResponse = WebServiceEngine.callWebServiceGet(urlToCall);
-		if(StringUtils.isNullOrEmpty(jsonResponse))
+		if(!isCallCoalescingEnabled(urlToCall))
 		{
-			throw new ITException("No response message sent back by the server for the GET call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+			return WebServiceEngine.callWebService(urlToCall, "", HttpRequestType.Get, 
+					new JsonListResponseHandler<ReturnType>("GET", urlToCall, returnTypeClass));
 		}
-		return JsonUtils.deserializeJsonList(jsonResponse, returnTypeClass);
+		//The identical calls running at the same time share the same list
+		return SingleFlightGroup.getInstance().execute("JSON GET " + urlToCall + " List<" + returnTypeClass.getName() + ">", new SingleFlightGroup.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return WebServiceEngine.callWebService(urlToCall, "", HttpRequestType.Get, 
+						new JsonListResponseHandler<ReturnType>("GET", urlToCall, returnTypeClass));
+			}
+		});
+	}
+	
+	/**
+	 * Call a GET Web service that send back a response object, the object being kept in the WebServiceResultCache
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the object is given back without calling the web service, in milliseconds
+	 * @return The object sent back by the web service or the cached object (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public <ReturnType> ReturnType callGetWebServiceCached(String urlToCall, Class<ReturnType> returnTypeClass, long timeToLive) throws ITException
+	{
+		return callGetWebServiceCached(urlToCall, returnTypeClass, timeToLive, 0, null);
+	}
+	
+	/**
+	 * Call a GET Web service that send back a response object, the object being kept in the WebServiceResultCache.
+	 * An object expired for less than the stale time is given back instantly while it is refreshed in background
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the object is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the object is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed object on the main thread, can be null
+	 * @return The object sent back by the web service or the cached object (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public <ReturnType> ReturnType callGetWebServiceCached(final String urlToCall, final Class<ReturnType> returnTypeClass, long timeToLive, 
+			long staleTime, RefreshListener<ReturnType> refreshListener) throws ITException
+	{
+		String key = WebServiceResultCache.buildKey(urlToCall, "GET", null, returnTypeClass.getName());
+		return WebServiceResultCache.getInstance().get(key, timeToLive, staleTime, new ResultLoader<ReturnType>() {
+			@Override
+			public ReturnType loadResult() throws ITException
+			{
+				return callGetWebService(urlToCall, returnTypeClass);
+			}
+		}, refreshListener);
+	}
+	
+	/**
+	 * Call a GET Web service that send back a response list, the list being kept in the WebServiceResultCache
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back in a list by the web service
+	 * @param timeToLive : The time during which the list is given back without calling the web service, in milliseconds
+	 * @return The list sent back by the web service or the cached list (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public <ReturnType> List<ReturnType> callGetWebServiceForListCached(String urlToCall, Class<ReturnType> returnTypeClass, long timeToLive) throws ITException
+	{
+		return callGetWebServiceForListCached(urlToCall, returnTypeClass, timeToLive, 0, null);
+	}
+	
+	/**
+	 * Call a GET Web service that send back a response list, the list being kept in the WebServiceResultCache.
+	 * A list expired for less than the stale time is given back instantly while it is refreshed in background
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back in a list by the web service
+	 * @param timeToLive : The time during which the list is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the list is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed list on the main thread, can be null
+	 * @return The list sent back by the web service or the cached list (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public <ReturnType> List<ReturnType> callGetWebServiceForListCached(final String urlToCall, final Class<ReturnType> returnTypeClass, 
+			long timeToLive, long staleTime, RefreshListener<List<ReturnType>> refreshListener) throws ITException
+	{
+		String key = WebServiceResultCache.buildKey(urlToCall, "GET", null, "List<" + returnTypeClass.getName() + ">");
+		return WebServiceResultCache.getInstance().get(key, timeToLive, staleTime, new ResultLoader<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> loadResult() throws ITException
+			{
+				return callGetWebServiceForList(urlToCall, returnTypeClass);
+			}
+		}, refreshListener);
+	}
+	
+	/**
+	 * Call a POST Web service that needs a request object and send back a response object, the object being kept 
+	 * in the WebServiceResultCache for the same request. To use only for the POST services that don't modify any data
+	 * @param urlToCall : The URL of the web service
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the object is given back without calling the web service, in milliseconds
+	 * @return The object sent back by the web service or the cached object (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public <RequestType, ReturnType> ReturnType callPostWebServiceCached(final String urlToCall, RequestType requestObject, 
+			final Class<ReturnType> returnTypeClass, long timeToLive) throws ITException
+	{
+		final String jsonRequest = JsonUtils.serializeJson(requestObject);
+		String key = WebServiceResultCache.buildKey(urlToCall, "POST", jsonRequest, returnTypeClass.getName());
+		return WebServiceResultCache.getInstance().get(key, timeToLive, new ResultLoader<ReturnType>() {
+			@Override
+			public ReturnType loadResult() throws ITException
+			{
+				return WebServiceEngine.callWebService(urlToCall, jsonRequest, HttpRequestType.Post, 
+						new JsonObjectResponseHandler<ReturnType>("POST", urlToCall, returnTypeClass));
+			}
+		});
+	}
+	
+	/**
+	 * Call a POST Web service that needs a request object and send back a list read element by element.
+	 * WARNING : The returned iterator must be closed to release the connection
+	 * @param urlToCall : The URL of the web service
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back in a list by the web service
+	 * @return The iterator on the elements of the list
+	 * @throws ITException : A web service exception
+	 */
+	public <RequestType, ReturnType> JsonElementIterator<ReturnType> openPostWebServiceForList(String urlToCall, RequestType requestObject,
+			Class<ReturnType> returnTypeClass) throws ITException
+	{
+		String jsonRequest = requestObject != null ? JsonUtils.serializeJson(requestObject) : null;
+		WebServiceResponse response = WebServiceEngine.openWebService(urlToCall, jsonRequest, HttpRequestType.Post);
+		return openElementIterator(response, "POST", urlToCall, returnTypeClass);
+	}
+	
+	/**
+	 * Call a GET Web service that send back a list read element by element.
+	 * WARNING : The returned iterator must be closed to release the connection
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back in a list by the web service
+	 * @return The iterator on the elements of the list
+	 * @throws ITException : A web service exception
+	 */
+	public <ReturnType> JsonElementIterator<ReturnType> openGetWebServiceForList(String urlToCall, Class<ReturnType> returnTypeClass) throws ITException
+	{
+		WebServiceResponse response = WebServiceEngine.openWebService(urlToCall, "", HttpRequestType.Get);
+		return openElementIterator(response, "GET", urlToCall, returnTypeClass);
+	}
+	
+	/**
+	 * Call a POST Web service that needs a request object and send back a list whose elements are given one by one to the listener, 
+	 * without keeping the whole list in memory
+	 * @param urlToCall : The URL of the web service
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back in a list by the web service
+	 * @param elementListener : The listener receiving the elements. Can stop the reading by returning false
+	 * @return The number of elements given to the listener
+	 * @throws ITException : A web service exception
+	 */
+	public <RequestType, ReturnType> int callPostWebServiceForEach(String urlToCall, RequestType requestObject,
+			Class<ReturnType> returnTypeClass, StreamElementListener<ReturnType> elementListener) throws ITException
+	{
+		return readElements(openPostWebServiceForList(urlToCall, requestObject, returnTypeClass), elementListener);
+	}
+	
+	/**
+	 * Call a GET Web service that send back a list whose elements are given one by one to the listener, 
+	 * without keeping the whole list in memory
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back in a list by the web service
+	 * @param elementListener : The listener receiving the elements. Can stop the reading by returning false
+	 * @return The number of elements given to the listener
+	 * @throws ITException : A web service exception
+	 */
+	public <ReturnType> int callGetWebServiceForEach(String urlToCall, Class<ReturnType> returnTypeClass, 
+			StreamElementListener<ReturnType> elementListener) throws ITException
+	{
+		return readElements(openGetWebServiceForList(urlToCall, returnTypeClass), elementListener);
 	}
 	
 	/**
@@ -141,4 +359,377 @@ public class JsonWebServiceCaller {
 	{
 		WebServiceEngine.callWebServiceGet(urlToCall);
 	}
+	
+	/**
+	 * Asynchronous version of <code>callPostWebService()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <RequestType, ReturnType> WebServiceFuture<ReturnType> callPostWebServiceAsync(final String urlToCall, final RequestType requestObject, 
+			final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callPostWebService(urlToCall, requestObject, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callPostWebServiceForList()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <RequestType, ReturnType> WebServiceFuture<List<ReturnType>> callPostWebServiceForListAsync(final String urlToCall, final RequestType requestObject, 
+			final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callPostWebServiceForList(urlToCall, requestObject, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callPostWebService()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<ReturnType> callPostWebServiceAsync(final String urlToCall, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callPostWebService(urlToCall, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callPostWebServiceForList()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<List<ReturnType>> callPostWebServiceForListAsync(final String urlToCall, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callPostWebServiceForList(urlToCall, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callPostWebService()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public WebServiceFuture<Void> callPostWebServiceAsync(final String urlToCall)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<Void>() {
+			@Override
+			public Void execute() throws ITException
+			{
+				callPostWebService(urlToCall);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebService()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<ReturnType> callGetWebServiceAsync(final String urlToCall, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callGetWebService(urlToCall, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebServiceForList()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<List<ReturnType>> callGetWebServiceForListAsync(final String urlToCall, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callGetWebServiceForList(urlToCall, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebService()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public WebServiceFuture<Void> callGetWebServiceAsync(final String urlToCall)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<Void>() {
+			@Override
+			public Void execute() throws ITException
+			{
+				callGetWebService(urlToCall);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebServiceCached()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<ReturnType> callGetWebServiceCachedAsync(final String urlToCall, final Class<ReturnType> returnTypeClass, 
+			final long timeToLive)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callGetWebServiceCached(urlToCall, returnTypeClass, timeToLive);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebServiceCached()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the result is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed result on the main thread, can be null
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<ReturnType> callGetWebServiceCachedAsync(final String urlToCall, final Class<ReturnType> returnTypeClass, 
+			final long timeToLive, final long staleTime, final RefreshListener<ReturnType> refreshListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callGetWebServiceCached(urlToCall, returnTypeClass, timeToLive, staleTime, refreshListener);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebServiceForListCached()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<List<ReturnType>> callGetWebServiceForListCachedAsync(final String urlToCall, final Class<ReturnType> returnTypeClass, 
+			final long timeToLive)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callGetWebServiceForListCached(urlToCall, returnTypeClass, timeToLive);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebServiceForListCached()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the result is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed result on the main thread, can be null
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<List<ReturnType>> callGetWebServiceForListCachedAsync(final String urlToCall, final Class<ReturnType> returnTypeClass, 
+			final long timeToLive, final long staleTime, final RefreshListener<List<ReturnType>> refreshListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callGetWebServiceForListCached(urlToCall, returnTypeClass, timeToLive, staleTime, refreshListener);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callPostWebServiceCached()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <RequestType, ReturnType> WebServiceFuture<ReturnType> callPostWebServiceCachedAsync(final String urlToCall, final RequestType requestObject, 
+			final Class<ReturnType> returnTypeClass, final long timeToLive)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callPostWebServiceCached(urlToCall, requestObject, returnTypeClass, timeToLive);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callPostWebServiceForEach()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param elementListener : The listener receiving the elements in background. Can stop the reading by returning false
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <RequestType, ReturnType> WebServiceFuture<Integer> callPostWebServiceForEachAsync(final String urlToCall, final RequestType requestObject, 
+			final Class<ReturnType> returnTypeClass, final StreamElementListener<ReturnType> elementListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<Integer>() {
+			@Override
+			public Integer execute() throws ITException
+			{
+				return callPostWebServiceForEach(urlToCall, requestObject, returnTypeClass, elementListener);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callGetWebServiceForEach()</code>, run by WebServiceExecutor
+	 * @param urlToCall : The URL of the web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param elementListener : The listener receiving the elements in background. Can stop the reading by returning false
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public <ReturnType> WebServiceFuture<Integer> callGetWebServiceForEachAsync(final String urlToCall, final Class<ReturnType> returnTypeClass, 
+			final StreamElementListener<ReturnType> elementListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<Integer>() {
+			@Override
+			public Integer execute() throws ITException
+			{
+				return callGetWebServiceForEach(urlToCall, returnTypeClass, elementListener);
+			}
+		});
+	}
+	
+	private <ReturnType> JsonElementIterator<ReturnType> openElementIterator(WebServiceResponse response, String callType, 
+			String urlToCall, Class<ReturnType> returnTypeClass) throws ITException
+	{
+		boolean opened = false;
+		try
+		{
+			if(response.isEmpty())
+			{
+				throw new ITException("No response message sent back by the server for the " + callType + " call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+			}
+			JsonParser jsonParser = JsonUtils.openJsonArray(response.getContent());
+			opened = true;
+			return new JsonElementIterator<ReturnType>(response, jsonParser, returnTypeClass);
+		}
+		finally
+		{
+			if(!opened)
+				response.abort();
+		}
+	}
+	
+	private <ReturnType> int readElements(JsonElementIterator<ReturnType> iterator, StreamElementListener<ReturnType> elementListener) throws ITException
+	{
+		int elementCount = 0;
+		try
+		{
+			while(iterator.hasNext())
+			{
+				elementCount++;
+				if(!elementListener.onElementReceived(iterator.next()))
+					break;
+			}
+		}
+		finally
+		{
+			iterator.close();
+		}
+		return elementCount;
+	}
+	
+	/**
+	 * Response handler deserializing the JSON body stream into a single object
+	 */
+	private static class JsonObjectResponseHandler<ReturnType> implements ResponseHandler<ReturnType>
+	{
+		private final String callType;
+		private final String urlToCall;
+		private final Class<ReturnType> returnTypeClass;
+		
+		public JsonObjectResponseHandler(String callType, String urlToCall, Class<ReturnType> returnTypeClass)
+		{
+			this.callType = callType;
+			this.urlToCall = urlToCall;
+			this.returnTypeClass = returnTypeClass;
+		}
+		
+		@Override
+		public ReturnType handleResponse(WebServiceResponse response) throws ITException
+		{
+			if(response.isEmpty())
+			{
+				throw new ITException("No response message sent back by the server for the " + callType + " call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+			}
+			return JsonUtils.deserializeJson(response.getContent(), returnTypeClass);
+		}
+	}
+	
+	/**
+	 * Response handler deserializing the JSON body stream into a list of objects
+	 */
+	private static class JsonListResponseHandler<ReturnType> implements ResponseHandler<List<ReturnType>>
+	{
+		private final String callType;
+		private final String urlToCall;
+		private final Class<ReturnType> returnTypeClass;
+		
+		public JsonListResponseHandler(String callType, String urlToCall, Class<ReturnType> returnTypeClass)
+		{
+			this.callType = callType;
+			this.urlToCall = urlToCall;
+			this.returnTypeClass = returnTypeClass;
+		}
+		
+		@Override
+		public List<ReturnType> handleResponse(WebServiceResponse response) throws ITException
+		{
+			if(response.isEmpty())
+			{
+				throw new ITException("No response message sent back by the server for the " + callType + " call to " + urlToCall, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+			}
+			return JsonUtils.deserializeJsonList(response.getContent(), returnTypeClass);
+		}
+	}
 }
@@ -1,14 +1,26 @@
 package com.itelios.itframework.services.caller;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.ksoap2.serialization.SoapObject;
 import org.ksoap2.serialization.SoapPrimitive;
+import org.xmlpull.v1.XmlPullParser;
 
 import com.itelios.itframework.exception.ITException;
 import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.listener.StreamElementListener;
+import com.itelios.itframework.services.caller.WebServiceResultCache.RefreshListener;
+import com.itelios.itframework.services.caller.WebServiceResultCache.ResultLoader;
 import com.itelios.itframework.services.engine.KSoapWebServiceEngine;
+import com.itelios.itframework.services.engine.KSoapWebServiceEngine.SoapResponseHandler;
+import com.itelios.itframework.services.engine.SingleFlightGroup;
+import com.itelios.itframework.task.WebServiceExecutor;
+import com.itelios.itframework.task.WebServiceFuture;
 import com.itelios.itframework.utils.CastUtils;
+import com.itelios.itframework.utils.SoapPullParserUtils;
 import com.itelios.itframework.utils.SoapUtils;
 
 
@@ -19,6 +31,65 @@ import com.itelios.itframework.utils.SoapUtils;
  */
 public class SoapWebServiceCaller  {
 
+	/**
+	 * True to read the responses with a pull parser instead of building the SoapObject tree
+	 */
+	private static volatile boolean streamingParserEnabled = false;
+	
+	/**
+	 * Enable or disable the streaming mode : the responses are read with a pull parser while they are downloaded
+	 * and bound directly to the business objects, without building the intermediate SoapObject tree.
+	 * Recommended for the large responses (disabled by default)
+	 * @param enabled : True to enable the streaming mode
+	 */
+	public static void setStreamingParserEnabled(boolean enabled)
+	{
+		streamingParserEnabled = enabled;
+	}
+
+	/**
+	 * The namespaces ("namespace") and methods ("namespace#methodName") whose identical calls running at the same time share their result
+	 */
+	private static final Set<String> coalescedCalls = Collections.synchronizedSet(new HashSet<String>());
+	
+	/**
+	 * Enable the coalescing of the calls of a method : while a call is running, the identical calls (same method and same request)
+	 * wait for its result instead of calling the web service again. To enable only for the methods that don't modify any data
+	 * (disabled by default, for all the methods)
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method, null for all the methods of the namespace
+	 */
+	public static void enableCallCoalescing(String namespace, String methodName)
+	{
+		coalescedCalls.add(getCoalescingKey(namespace, methodName));
+	}
+	
+	/**
+	 * Disable the coalescing of the calls enabled with <code>enableCallCoalescing()</code>
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method, null for the namespace
+	 */
+	public static void disableCallCoalescing(String namespace, String methodName)
+	{
+		coalescedCalls.remove(getCoalescingKey(namespace, methodName));
+	}
+	
+	/**
+	 * Check if the identical calls of a method share their result
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method
+	 * @return True if the coalescing is enabled for the method or for its namespace
+	 */
+	public static boolean isCallCoalescingEnabled(String namespace, String methodName)
+	{
+		return coalescedCalls.contains(getCoalescingKey(namespace, methodName)) || coalescedCalls.contains(getCoalescingKey(namespace, null));
+	}
+	
+	private static String getCoalescingKey(String namespace, String methodName)
+	{
+		return (methodName != null) ? namespace + "#" + methodName : namespace;
+	}
+
 	/**
 	 * Call a SOAP Web service that needs a request object and send back a response object
 	 * @param urlServer : The URL of the web service
@@ -37,32 +108,7 @@ public class SoapWebServiceCaller  {
 		if(soapRequest == null)
 			throw new ITException("Error while serializing the object - The serialized object is null", ITExceptionsType.PARSE_ERROR);
 		
-		Object result = KSoapWebServiceEngine.callWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest);
-		if(result == null)
-		{
-			throw new ITException("No response message sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
-		}
-		if(result instanceof SoapObject)
-		{
-			SoapObject soapResult = (SoapObject) result;
-			return SoapUtils.deserializeBusinessObject(soapResult, returnTypeClass);
-		}
-		else if(result instanceof SoapPrimitive)
-		{
-			SoapPrimitive soapPrimitiveResult = (SoapPrimitive) result;
-			try
-			{
-				return CastUtils.castPrimitiveTypeValue(soapPrimitiveResult.toString(), returnTypeClass);
-			}
-			catch (ClassCastException ex)
-			{
-				throw new ITException("Error while casting result '"+soapPrimitiveResult.toString()+"' to primitive type '"+returnTypeClass.getSimpleName()+"'", ITExceptionsType.PARSE_ERROR);
-			}
-		}
-		else
-		{
-			throw new ITException("Unknown response type sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
-		}
+		return coalesceWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
 	}
 	
 	/**
@@ -83,13 +129,7 @@ public class SoapWebServiceCaller  {
 		if(soapRequest == null)
 			throw new ITException("Error while serializing the object - The serialized object is null", ITExceptionsType.PARSE_ERROR);
 		
-		//For the lists, the returned object is always a soap object
-		SoapObject soapResult = (SoapObject) KSoapWebServiceEngine.callWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest);
-		if(soapResult == null)
-		{
-			throw new ITException("No response message sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
-		}
-		return SoapUtils.deserializeBusinessObjectList(soapResult, returnTypeClass);
+		return coalesceWebServiceForList(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
 	}
 	
 	/**
@@ -107,6 +147,76 @@ public class SoapWebServiceCaller  {
 	{
 		SoapObject soapRequest = new SoapObject(urlServer, methodName);
 		
+		return coalesceWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+	}
+	
+	/**
+	 * Call a SOAP Web service that doesn't need a request object and send back a response list containing several object
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The list of objects sent back by the web service
+	 * @throws ITException : A web service exception
+	 */
+	public static <ReturnType> List<ReturnType> callWebServiceForList(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, Class<ReturnType> returnTypeClass) throws ITException
+	{
+		SoapObject soapRequest = new SoapObject(urlServer, methodName);
+		
+		return coalesceWebServiceForList(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+	}
+	
+	/**
+	 * Execute a call, the identical calls running at the same time (same method and same request) sharing the same result
+	 */
+	private static <ReturnType> ReturnType coalesceWebService(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final SoapObject soapRequest, final Class<ReturnType> returnTypeClass) throws ITException
+	{
+		if(!isCallCoalescingEnabled(namespace, methodName))
+			return executeWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+		
+		String callKey = buildCallKey(urlServer, namespace, methodName, soapRequest, returnTypeClass.getName());
+		return SingleFlightGroup.getInstance().execute(callKey, new SingleFlightGroup.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return executeWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Execute a call returning a list, the identical calls running at the same time (same method and same request) sharing the same list
+	 */
+	private static <ReturnType> List<ReturnType> coalesceWebServiceForList(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final SoapObject soapRequest, final Class<ReturnType> returnTypeClass) throws ITException
+	{
+		if(!isCallCoalescingEnabled(namespace, methodName))
+			return executeWebServiceForList(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+		
+		String callKey = buildCallKey(urlServer, namespace, methodName, soapRequest, "List<" + returnTypeClass.getName() + ">");
+		return SingleFlightGroup.getInstance().execute(callKey, new SingleFlightGroup.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return executeWebServiceForList(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+			}
+		});
+	}
+	
+	private static String buildCallKey(String urlServer, String namespace, String methodName, SoapObject soapRequest, String resultType)
+	{
+		return "SOAP " + urlServer + " " + namespace + " " + methodName + " " + soapRequest + " " + resultType;
+	}
+	
+	private static <ReturnType> ReturnType executeWebService(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, SoapObject soapRequest, Class<ReturnType> returnTypeClass) throws ITException
+	{
+		if(streamingParserEnabled)
+			return callWebServiceStreaming(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+		
 		Object result = KSoapWebServiceEngine.callWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest);
 		if(result == null)
 		{
@@ -135,28 +245,457 @@ public class SoapWebServiceCaller  {
 		}
 	}
 	
+	private static <ReturnType> List<ReturnType> executeWebServiceForList(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, SoapObject soapRequest, Class<ReturnType> returnTypeClass) throws ITException
+	{
+		if(streamingParserEnabled)
+			return callWebServiceStreamingForList(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass);
+		
+		//For the lists, the returned object is always a soap object
+		SoapObject soapResult = (SoapObject) KSoapWebServiceEngine.callWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest);
+		if(soapResult == null)
+		{
+			throw new ITException("No response message sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+		}
+		return SoapUtils.deserializeBusinessObjectList(soapResult, returnTypeClass);
+	}
+	
 	/**
-	 * Call a SOAP Web service that doesn't need a request object and send back a response list containing several object
+	 * Call a SOAP Web service that needs a request object and send back a response object, the object being kept
+	 * in the WebServiceResultCache for the same request
 	 * @param urlServer : The URL of the web service
 	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
 	 * @param namespace : The namespace used by the soap web service
 	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
 	 * @param returnTypeClass : The type of object that is sent back by the web service
-	 * @return The list of objects sent back by the web service
+	 * @param timeToLive : The time during which the object is given back without calling the web service, in milliseconds
+	 * @return The object sent back by the web service or the cached object (that must not be modified)
 	 * @throws ITException : A web service exception
 	 */
-	public static <ReturnType> List<ReturnType> callWebServiceForList(String urlServer, String relativeUrlWsdl, String namespace, 
-			String methodName, Class<ReturnType> returnTypeClass) throws ITException
+	public static <RequestType, ReturnType> ReturnType callWebServiceCached(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, RequestType requestObject, Class<ReturnType> returnTypeClass, long timeToLive) throws ITException
 	{
-		SoapObject soapRequest = new SoapObject(urlServer, methodName);
-		
-		//For the lists, the returned object is always a soap object
-		SoapObject soapResult = (SoapObject) KSoapWebServiceEngine.callWebService(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest);
-		if(soapResult == null)
+		return callWebServiceCached(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass, timeToLive, 0, null);
+	}
+	
+	/**
+	 * Call a SOAP Web service that needs a request object and send back a response object, the object being kept
+	 * in the WebServiceResultCache for the same request.
+	 * An object expired for less than the stale time is given back instantly while it is refreshed in background
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the object is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the object is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed object on the main thread, can be null
+	 * @return The object sent back by the web service or the cached object (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public static <RequestType, ReturnType> ReturnType callWebServiceCached(final String urlServer, final String relativeUrlWsdl, 
+			final String namespace, final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass, 
+			long timeToLive, long staleTime, RefreshListener<ReturnType> refreshListener) throws ITException
+	{
+		String key = buildResultKey(urlServer, namespace, methodName, requestObject, returnTypeClass.getName());
+		return WebServiceResultCache.getInstance().get(key, timeToLive, staleTime, new ResultLoader<ReturnType>() {
+			@Override
+			public ReturnType loadResult() throws ITException
+			{
+				return callWebService(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass);
+			}
+		}, refreshListener);
+	}
+	
+	/**
+	 * Call a SOAP Web service that needs a request object and send back a response list, the list being kept
+	 * in the WebServiceResultCache for the same request
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the list is given back without calling the web service, in milliseconds
+	 * @return The list sent back by the web service or the cached list (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public static <RequestType, ReturnType> List<ReturnType> callWebServiceForListCached(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, RequestType requestObject, Class<ReturnType> returnTypeClass, long timeToLive) throws ITException
+	{
+		return callWebServiceForListCached(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass, timeToLive, 0, null);
+	}
+	
+	/**
+	 * Call a SOAP Web service that needs a request object and send back a response list, the list being kept
+	 * in the WebServiceResultCache for the same request.
+	 * A list expired for less than the stale time is given back instantly while it is refreshed in background
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the list is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the list is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed list on the main thread, can be null
+	 * @return The list sent back by the web service or the cached list (that must not be modified)
+	 * @throws ITException : A web service exception
+	 */
+	public static <RequestType, ReturnType> List<ReturnType> callWebServiceForListCached(final String urlServer, final String relativeUrlWsdl, 
+			final String namespace, final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass, 
+			long timeToLive, long staleTime, RefreshListener<List<ReturnType>> refreshListener) throws ITException
+	{
+		String key = buildResultKey(urlServer, namespace, methodName, requestObject, "List<" + returnTypeClass.getName() + ">");
+		return WebServiceResultCache.getInstance().get(key, timeToLive, staleTime, new ResultLoader<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> loadResult() throws ITException
+			{
+				return callWebServiceForList(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass);
+			}
+		}, refreshListener);
+	}
+	
+	/**
+	 * Build the key of a result in the WebServiceResultCache : the URL of the server followed by the method (so that all the results
+	 * of a method can be invalidated with <code>invalidatePrefix(urlServer + namespace + methodName)</code>), and the serialized request
+	 */
+	private static <RequestType> String buildResultKey(String urlServer, String namespace, String methodName, 
+			RequestType requestObject, String resultType) throws ITException
+	{
+		String serializedRequest = null;
+		if(requestObject != null)
 		{
-			throw new ITException("No response message sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+			SoapObject soapRequest = SoapUtils.serializeBusinessObject(namespace, methodName, requestObject);
+			if(soapRequest == null)
+				throw new ITException("Error while serializing the object - The serialized object is null", ITExceptionsType.PARSE_ERROR);
+			serializedRequest = soapRequest.toString();
 		}
-		return SoapUtils.deserializeBusinessObjectList(soapResult, returnTypeClass);
+		return WebServiceResultCache.buildKey(urlServer + namespace + methodName, "SOAP", serializedRequest, resultType);
+	}
+	
+	/**
+	 * Call a SOAP Web service that needs a request object and send back a list, giving the objects one by one to the listener
+	 * while the response is downloaded (the whole list is never kept in memory)
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param elementListener : The listener receiving the objects. Can stop the reading by returning false
+	 * @return The number of objects given to the listener
+	 * @throws ITException : A web service exception
+	 */
+	public static <RequestType, ReturnType> int callWebServiceForEach(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, RequestType requestObject, Class<ReturnType> returnTypeClass, StreamElementListener<ReturnType> elementListener) throws ITException
+	{
+		SoapObject soapRequest = SoapUtils.serializeBusinessObject(namespace, methodName, requestObject);
+		if(soapRequest == null)
+			throw new ITException("Error while serializing the object - The serialized object is null", ITExceptionsType.PARSE_ERROR);
+		
+		return readWebServiceElements(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass, elementListener);
+	}
+	
+	/**
+	 * Call a SOAP Web service that doesn't need a request object and send back a list, giving the objects one by one to the listener
+	 * while the response is downloaded (the whole list is never kept in memory)
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param elementListener : The listener receiving the objects. Can stop the reading by returning false
+	 * @return The number of objects given to the listener
+	 * @throws ITException : A web service exception
+	 */
+	public static <ReturnType> int callWebServiceForEach(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, Class<ReturnType> returnTypeClass, StreamElementListener<ReturnType> elementListener) throws ITException
+	{
+		SoapObject soapRequest = new SoapObject(urlServer, methodName);
+		
+		return readWebServiceElements(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, returnTypeClass, elementListener);
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebService()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <RequestType, ReturnType> WebServiceFuture<ReturnType> callWebServiceAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callWebService(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceForList()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <RequestType, ReturnType> WebServiceFuture<List<ReturnType>> callWebServiceForListAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callWebServiceForList(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebService()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <ReturnType> WebServiceFuture<ReturnType> callWebServiceAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callWebService(urlServer, relativeUrlWsdl, namespace, methodName, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceForList()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <ReturnType> WebServiceFuture<List<ReturnType>> callWebServiceForListAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final Class<ReturnType> returnTypeClass)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callWebServiceForList(urlServer, relativeUrlWsdl, namespace, methodName, returnTypeClass);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceCached()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <RequestType, ReturnType> WebServiceFuture<ReturnType> callWebServiceCachedAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass, final long timeToLive)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callWebServiceCached(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass, timeToLive);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceCached()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the result is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed result on the main thread, can be null
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <RequestType, ReturnType> WebServiceFuture<ReturnType> callWebServiceCachedAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass, final long timeToLive, 
+			final long staleTime, final RefreshListener<ReturnType> refreshListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<ReturnType>() {
+			@Override
+			public ReturnType execute() throws ITException
+			{
+				return callWebServiceCached(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass, timeToLive, staleTime, refreshListener);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceForListCached()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <RequestType, ReturnType> WebServiceFuture<List<ReturnType>> callWebServiceForListCachedAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass, final long timeToLive)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callWebServiceForListCached(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass, timeToLive);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceForListCached()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param timeToLive : The time during which the result is given back without calling the web service, in milliseconds
+	 * @param staleTime : The time after the expiration during which the result is given back while it is refreshed, in milliseconds
+	 * @param refreshListener : The listener receiving the refreshed result on the main thread, can be null
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <RequestType, ReturnType> WebServiceFuture<List<ReturnType>> callWebServiceForListCachedAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass, final long timeToLive, 
+			final long staleTime, final RefreshListener<List<ReturnType>> refreshListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<List<ReturnType>>() {
+			@Override
+			public List<ReturnType> execute() throws ITException
+			{
+				return callWebServiceForListCached(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass, timeToLive, staleTime, refreshListener);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceForEach()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject : The object to send to the Web service
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param elementListener : The listener receiving the elements in background. Can stop the reading by returning false
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <RequestType, ReturnType> WebServiceFuture<Integer> callWebServiceForEachAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final RequestType requestObject, final Class<ReturnType> returnTypeClass, 
+			final StreamElementListener<ReturnType> elementListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<Integer>() {
+			@Override
+			public Integer execute() throws ITException
+			{
+				return callWebServiceForEach(urlServer, relativeUrlWsdl, namespace, methodName, requestObject, returnTypeClass, elementListener);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous version of <code>callWebServiceForEach()</code>, run by WebServiceExecutor
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param returnTypeClass : The type of object that is sent back by the web service
+	 * @param elementListener : The listener receiving the elements in background. Can stop the reading by returning false
+	 * @return The future of the call, to wait for the result, add callbacks or cancel the call
+	 */
+	public static <ReturnType> WebServiceFuture<Integer> callWebServiceForEachAsync(final String urlServer, final String relativeUrlWsdl, final String namespace, 
+			final String methodName, final Class<ReturnType> returnTypeClass, final StreamElementListener<ReturnType> elementListener)
+	{
+		return WebServiceExecutor.submit(new WebServiceFuture.Call<Integer>() {
+			@Override
+			public Integer execute() throws ITException
+			{
+				return callWebServiceForEach(urlServer, relativeUrlWsdl, namespace, methodName, returnTypeClass, elementListener);
+			}
+		});
+	}
+	
+	private static <ReturnType> ReturnType callWebServiceStreaming(final String urlServer, String relativeUrlWsdl, String namespace, 
+			final String methodName, SoapObject soapRequest, final Class<ReturnType> returnTypeClass) throws ITException
+	{
+		return KSoapWebServiceEngine.callWebServiceStreaming(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, 
+				new SoapResponseHandler<ReturnType>() {
+					@Override
+					public ReturnType handleResponse(XmlPullParser resultParser) throws ITException
+					{
+						ReturnType result = null;
+						if(resultParser != null)
+							result = SoapPullParserUtils.deserializeBusinessObject(resultParser, returnTypeClass);
+						if(result == null)
+							throw new ITException("No response message sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+						return result;
+					}
+				});
+	}
+	
+	private static <ReturnType> List<ReturnType> callWebServiceStreamingForList(final String urlServer, String relativeUrlWsdl, String namespace, 
+			final String methodName, SoapObject soapRequest, final Class<ReturnType> returnTypeClass) throws ITException
+	{
+		return KSoapWebServiceEngine.callWebServiceStreaming(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, 
+				new SoapResponseHandler<List<ReturnType>>() {
+					@Override
+					public List<ReturnType> handleResponse(XmlPullParser resultParser) throws ITException
+					{
+						if(resultParser == null)
+							throw new ITException("No response message sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+						return SoapPullParserUtils.deserializeBusinessObjectList(resultParser, returnTypeClass);
+					}
+				});
+	}
+	
+	private static <ReturnType> int readWebServiceElements(final String urlServer, String relativeUrlWsdl, String namespace, 
+			final String methodName, SoapObject soapRequest, final Class<ReturnType> returnTypeClass, 
+			final StreamElementListener<ReturnType> elementListener) throws ITException
+	{
+		return KSoapWebServiceEngine.callWebServiceStreaming(urlServer, relativeUrlWsdl, namespace, methodName, soapRequest, 
+				new SoapResponseHandler<Integer>() {
+					@Override
+					public Integer handleResponse(XmlPullParser resultParser) throws ITException
+					{
+						if(resultParser == null)
+							throw new ITException("No response message sent back by the server for the call to " + urlServer + methodName, ITExceptionsType.NO_RESPONSE_MESSAGE_ERROR);
+						return SoapPullParserUtils.readBusinessObjectList(resultParser, returnTypeClass, elementListener);
+					}
+				});
 	}
 	
 }
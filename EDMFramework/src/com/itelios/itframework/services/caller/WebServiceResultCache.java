@@ -0,0 +1,368 @@
+package com.itelios.itframework.services.caller;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.itelios.itframework.ITApplication;
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.utils.DiskLruCache;
+import com.itelios.itframework.utils.Log;
+
+/**
+ * In memory cache of the objects deserialized from the web service responses, used by the "Cached" methods of the callers.
+ * The results are kept for a time to live given by each call, the least recently used results being evicted once the cache is full.
+ * With a stale time, an expired result is still given back instantly while it is refreshed in background (stale-while-revalidate),
+ * the refreshed result being given to a listener on the main thread.
+ * WARNING : The cached objects are shared between the calls, they must not be modified
+ * @author marcduvignaud
+ *
+ */
+public class WebServiceResultCache {
+
+	private static final String LOG_TAG = "WebServiceResultCache";
+
+	private static final int REFRESH_THREAD_COUNT = 2;
+
+	private static WebServiceResultCache instance;
+
+	/**
+	 * Load a result from the web service, when it is not in the cache or to refresh it
+	 * @param <ResultType> : The type of the result
+	 */
+	public interface ResultLoader<ResultType>
+	{
+		public ResultType loadResult() throws ITException;
+	}
+
+	/**
+	 * Listener receiving on the main thread the result of a background refresh
+	 * @param <ResultType> : The type of the result
+	 */
+	public interface RefreshListener<ResultType>
+	{
+		public void onResultRefreshed(ResultType result);
+		public void onRefreshFailed(ITException exception);
+	}
+
+	/**
+	 * The results in access order : iterating gives the least recently used results first
+	 */
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private int maxEntries;
+	private long hitCount;
+	private long staleHitCount;
+	private long missCount;
+	/**
+	 * Incremented by each invalidation, so that a result loaded meanwhile isn't put in the cache
+	 */
+	private long invalidationGeneration;
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final ExecutorService refreshExecutor = Executors.newFixedThreadPool(REFRESH_THREAD_COUNT, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "WebServiceResultRefresh");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Get the cache shared by the callers, bounded by ITApplication.WS_RESULT_CACHE_MAX_ENTRIES
+	 * @return The shared cache
+	 */
+	public static synchronized WebServiceResultCache getInstance()
+	{
+		if(instance == null)
+			instance = new WebServiceResultCache(ITApplication.WS_RESULT_CACHE_MAX_ENTRIES);
+		return instance;
+	}
+
+	/**
+	 * @param maxEntries : The max number of results kept
+	 */
+	public WebServiceResultCache(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Build the key of a result. The key starts with the URL, so that the results of a service can be invalidated with <code>invalidatePrefix()</code>
+	 * @param url : The URL of the web service (and the method name for SOAP)
+	 * @param method : The type of call (GET, POST, SOAP)
+	 * @param requestBody : The serialized request, null if there is none
+	 * @param resultType : The type of the result (class name, including the list for the lists)
+	 * @return The key
+	 */
+	public static String buildKey(String url, String method, String requestBody, String resultType)
+	{
+		String requestHash = (requestBody != null) ? DiskLruCache.hashKey(requestBody) : "";
+		return url + "|" + method + "|" + requestHash + "|" + resultType;
+	}
+
+	/**
+	 * Get a result from the cache, loading it if it is not cached or expired
+	 * @param key : The key of the result (see <code>buildKey()</code>)
+	 * @param timeToLive : The time during which the loaded result is kept, in milliseconds
+	 * @param loader : The loader calling the web service
+	 * @return The result
+	 * @throws ITException : The exception of the loader
+	 */
+	public <ResultType> ResultType get(String key, long timeToLive, ResultLoader<ResultType> loader) throws ITException
+	{
+		return get(key, timeToLive, 0, loader, null);
+	}
+
+	/**
+	 * Get a result from the cache, loading it if it is not cached. A result expired for less than the stale time is given back
+	 * while it is refreshed in background
+	 * @param key : The key of the result (see <code>buildKey()</code>)
+	 * @param timeToLive : The time during which the loaded result is kept, in milliseconds
+	 * @param staleTime : The time after the expiration during which the result is still given back, in milliseconds
+	 * @param loader : The loader calling the web service
+	 * @param refreshListener : The listener receiving the refreshed result on the main thread, can be null
+	 * @return The result
+	 * @throws ITException : The exception of the loader
+	 */
+	@SuppressWarnings("unchecked")
+	public <ResultType> ResultType get(String key, long timeToLive, long staleTime, ResultLoader<ResultType> loader,
+			RefreshListener<ResultType> refreshListener) throws ITException
+	{
+		CacheEntry staleEntry = null;
+		boolean refreshNeeded = false;
+		long generation;
+		synchronized (this)
+		{
+			generation = invalidationGeneration;
+			CacheEntry entry = entries.get(key);
+			if(entry != null)
+			{
+				long now = SystemClock.elapsedRealtime();
+				if(now < entry.expiresAt)
+				{
+					hitCount++;
+					return (ResultType) entry.value;
+				}
+				if(now < entry.expiresAt + staleTime)
+				{
+					staleHitCount++;
+					staleEntry = entry;
+					//A single refresh at a time for a result
+					refreshNeeded = !entry.refreshing;
+					entry.refreshing = true;
+				}
+			}
+			if(staleEntry == null)
+				missCount++;
+		}
+
+		if(staleEntry != null)
+		{
+			if(refreshNeeded)
+				refreshInBackground(key, staleEntry, timeToLive, loader, refreshListener);
+			return (ResultType) staleEntry.value;
+		}
+
+		ResultType result = loader.loadResult();
+		synchronized (this)
+		{
+			//A result invalidated during the load may have been modified on the server : the loaded result is not kept
+			if(generation == invalidationGeneration)
+				put(key, result, timeToLive);
+		}
+		return result;
+	}
+
+	/**
+	 * Put a result in the cache (null results are not cached)
+	 * @param key : The key of the result (see <code>buildKey()</code>)
+	 * @param result : The result
+	 * @param timeToLive : The time during which the result is kept, in milliseconds
+	 */
+	public synchronized void put(String key, Object result, long timeToLive)
+	{
+		if(result == null || timeToLive <= 0)
+			return;
+		entries.put(key, new CacheEntry(result, SystemClock.elapsedRealtime() + timeToLive));
+		trimToSize();
+	}
+
+	/**
+	 * Remove a result from the cache
+	 * @param key : The key of the result
+	 */
+	public synchronized void invalidate(String key)
+	{
+		invalidationGeneration++;
+		entries.remove(key);
+	}
+
+	/**
+	 * Remove the results whose key starts with a prefix, for instance all the results of a URL after a modification
+	 * @param keyPrefix : The prefix of the keys
+	 * @return The number of results removed
+	 */
+	public synchronized int invalidatePrefix(String keyPrefix)
+	{
+		invalidationGeneration++;
+		int removedCount = 0;
+		for(Iterator<String> iterator = entries.keySet().iterator(); iterator.hasNext(); )
+		{
+			if(iterator.next().startsWith(keyPrefix))
+			{
+				iterator.remove();
+				removedCount++;
+			}
+		}
+		return removedCount;
+	}
+
+	/**
+	 * Remove all the results
+	 */
+	public synchronized void clear()
+	{
+		invalidationGeneration++;
+		entries.clear();
+	}
+
+	/**
+	 * Change the max number of results kept, evicting the least recently used results if needed
+	 * @param maxEntries : The max number of results
+	 */
+	public synchronized void setMaxEntries(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+		trimToSize();
+	}
+
+	/**
+	 * Build the list of keys, for debugging purpose
+	 * @return The keys, least recently used first
+	 */
+	public synchronized List<String> keys()
+	{
+		return new ArrayList<String>(entries.keySet());
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public synchronized long getHitCount()
+	{
+		return hitCount;
+	}
+
+	/**
+	 * Get the number of expired results given back while they were refreshed
+	 */
+	public synchronized long getStaleHitCount()
+	{
+		return staleHitCount;
+	}
+
+	public synchronized long getMissCount()
+	{
+		return missCount;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "WebServiceResultCache[entries=" + entries.size() + ",maxEntries=" + maxEntries + ",hits=" + hitCount
+				+ ",staleHits=" + staleHitCount + ",misses=" + missCount + "]";
+	}
+
+	private void trimToSize()
+	{
+		Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+		while(entries.size() > maxEntries && iterator.hasNext())
+		{
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	private <ResultType> void refreshInBackground(final String key, final CacheEntry staleEntry, final long timeToLive,
+			final ResultLoader<ResultType> loader, final RefreshListener<ResultType> refreshListener)
+	{
+		refreshExecutor.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				ResultType result = null;
+				ITException exception = null;
+				try
+				{
+					result = loader.loadResult();
+				}
+				catch (ITException ex)
+				{
+					exception = ex;
+				}
+				catch (RuntimeException ex)
+				{
+					exception = new ITException("Error while refreshing the result " + key + " - Ex : " + ex.getMessage(), ITException.ITExceptionsType.CALL_ERROR);
+				}
+
+				synchronized (WebServiceResultCache.this)
+				{
+					staleEntry.refreshing = false;
+					//A result invalidated meanwhile may have been modified on the server : the refreshed result is not kept
+					if(exception == null && entries.get(key) == staleEntry)
+						put(key, result, timeToLive);
+				}
+				if(exception != null)
+					Log.w(LOG_TAG, "Unable to refresh the result %s - Ex : %s", key, exception.getMessage());
+				if(refreshListener != null)
+					notifyRefresh(refreshListener, result, exception);
+			}
+		});
+	}
+
+	private <ResultType> void notifyRefresh(final RefreshListener<ResultType> refreshListener, final ResultType result, final ITException exception)
+	{
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				if(exception != null)
+					refreshListener.onRefreshFailed(exception);
+				else
+					refreshListener.onResultRefreshed(result);
+			}
+		});
+	}
+
+	/**
+	 * Cached result
+	 */
+	private static final class CacheEntry
+	{
+		final Object value;
+		final long expiresAt;
+		/**
+		 * True while the result is refreshed in background, guarded by the cache
+		 */
+		boolean refreshing;
+
+		CacheEntry(Object value, long expiresAt)
+		{
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
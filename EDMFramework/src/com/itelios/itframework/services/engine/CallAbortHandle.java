@@ -0,0 +1,168 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.ksoap2.transport.ServiceConnection;
+
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.utils.Log;
+
+/**
+ * Handle used to abort the HTTP call of a background task. The handle is set for the thread running the task,
+ * the engines register on it the request (REST) or the connection (SOAP) they open, and <code>abort()</code> closes it
+ * from any thread so that the task doesn't wait for the end of the download.
+ * @author marcduvignaud
+ *
+ */
+public class CallAbortHandle {
+
+	private static final String LOG_TAG = "CallAbortHandle";
+
+	private static final ThreadLocal<CallAbortHandle> currentHandle = new ThreadLocal<CallAbortHandle>();
+
+	private HttpUriRequest request;
+	private ServiceConnection connection;
+	private boolean aborted;
+	private final List<Runnable> abortListeners = new ArrayList<Runnable>();
+
+	/**
+	 * Set the handle of the calls made by the current thread
+	 * @param handle : The handle, null once the task is over
+	 */
+	public static void setCurrent(CallAbortHandle handle)
+	{
+		if(handle == null)
+			currentHandle.remove();
+		else
+			currentHandle.set(handle);
+	}
+
+	/**
+	 * Get the handle of the calls made by the current thread
+	 * @return The handle, null if the thread doesn't run a task that can be aborted
+	 */
+	public static CallAbortHandle getCurrent()
+	{
+		return currentHandle.get();
+	}
+
+	/**
+	 * Register the request about to be executed by the current thread
+	 * @param request : The request
+	 * @throws ITException : Exception of type CALL_ERROR if the task has already been aborted
+	 */
+	static void registerRequest(HttpUriRequest request) throws ITException
+	{
+		CallAbortHandle handle = currentHandle.get();
+		if(handle != null && !handle.attach(request, null))
+			throw new ITException("The call to " + request.getURI() + " has been cancelled", ITExceptionsType.CALL_ERROR);
+	}
+
+	/**
+	 * Register the SOAP connection about to be opened by the current thread
+	 * @param connection : The connection
+	 * @throws IOException : If the task has already been aborted
+	 */
+	static void registerConnection(ServiceConnection connection) throws IOException
+	{
+		CallAbortHandle handle = currentHandle.get();
+		if(handle != null && !handle.attach(null, connection))
+			throw new IOException("The call to " + connection.getHost() + " has been cancelled");
+	}
+
+	/**
+	 * Add a listener run when the task of the current thread is aborted, used by the calls that are not made by the thread itself
+	 * (for instance a call shared with other threads by SingleFlightGroup)
+	 * @param listener : The listener, run on the thread aborting the task
+	 * @return False if the task has already been aborted (the listener is not added)
+	 */
+	static boolean addAbortListener(Runnable listener)
+	{
+		CallAbortHandle handle = currentHandle.get();
+		if(handle == null)
+			return true;
+		synchronized (handle)
+		{
+			if(handle.aborted)
+				return false;
+			handle.abortListeners.add(listener);
+			return true;
+		}
+	}
+
+	/**
+	 * Remove a listener added with <code>addAbortListener()</code>, once the call is over
+	 * @param listener : The listener
+	 */
+	static void removeAbortListener(Runnable listener)
+	{
+		CallAbortHandle handle = currentHandle.get();
+		if(handle == null)
+			return;
+		synchronized (handle)
+		{
+			handle.abortListeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Abort the call running and the next calls of the task
+	 */
+	public void abort()
+	{
+		HttpUriRequest runningRequest;
+		ServiceConnection runningConnection;
+		List<Runnable> listeners;
+		synchronized (this)
+		{
+			if(aborted)
+				return;
+			aborted = true;
+			runningRequest = request;
+			runningConnection = connection;
+			request = null;
+			connection = null;
+			listeners = new ArrayList<Runnable>(abortListeners);
+			abortListeners.clear();
+		}
+
+		for(Runnable listener : listeners)
+			listener.run();
+
+		if(runningRequest != null)
+			runningRequest.abort();
+		if(runningConnection != null)
+		{
+			try
+			{
+				runningConnection.disconnect();
+			}
+			catch (IOException ex)
+			{
+				Log.w(LOG_TAG, "Error while closing the aborted connection - Ex : %s", ex.getMessage());
+			}
+		}
+	}
+
+	public synchronized boolean isAborted()
+	{
+		return aborted;
+	}
+
+	/**
+	 * Keep the request or the connection of the last call, the previous calls of the task being over
+	 * @return False if the task has been aborted
+	 */
+	private synchronized boolean attach(HttpUriRequest request, ServiceConnection connection)
+	{
+		if(aborted)
+			return false;
+		this.request = request;
+		this.connection = connection;
+		return true;
+	}
+}
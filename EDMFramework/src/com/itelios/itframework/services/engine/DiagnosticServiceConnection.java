@@ -0,0 +1,274 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import org.ksoap2.HeaderProperty;
+import org.ksoap2.transport.ServiceConnection;
+
+import com.itelios.itframework.utils.Log;
+import com.itelios.itframework.utils.Log.LogLevel;
+
+/**
+ * ksoap connection used in diagnostics mode : keeps a copy of the beginning of the request and of the response
+ * (at most maxDumpSize bytes each) so that they can be logged once the call is done.
+ * The copy is made while the data goes through the streams, the payloads are never read twice.
+ * @author marcduvignaud
+ *
+ */
+class DiagnosticServiceConnection implements ServiceConnection {
+
+	private static final String LOG_TAG = "DiagnosticServiceConnection";
+
+	private final ServiceConnection connection;
+	private final String url;
+	private final DumpBuffer requestDump;
+	private final DumpBuffer responseDump;
+	private boolean responseCompressed;
+	private boolean logged;
+
+	DiagnosticServiceConnection(ServiceConnection connection, String url, int maxDumpSize)
+	{
+		this.connection = connection;
+		this.url = url;
+		this.requestDump = new DumpBuffer(maxDumpSize);
+		this.responseDump = new DumpBuffer(maxDumpSize);
+	}
+
+	/**
+	 * Log the request and the response captured (only once, the next calls do nothing)
+	 */
+	void logDump()
+	{
+		if(logged)
+			return;
+		logged = true;
+		if(!Log.isLoggable(LogLevel.Debug))
+			return;
+		Log.d(LOG_TAG, "Soap Web service call to %s with request dump : %s", url, requestDump.toString(false));
+		Log.d(LOG_TAG, "Soap Web service call to %s with response dump : %s", url, responseDump.toString(responseCompressed));
+	}
+
+	@Override
+	public void connect() throws IOException
+	{
+		connection.connect();
+	}
+
+	@Override
+	public void disconnect() throws IOException
+	{
+		connection.disconnect();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List getResponseProperties() throws IOException
+	{
+		return connection.getResponseProperties();
+	}
+
+	@Override
+	public int getResponseCode() throws IOException
+	{
+		return connection.getResponseCode();
+	}
+
+	@Override
+	public void setRequestProperty(String propertyName, String value) throws IOException
+	{
+		connection.setRequestProperty(propertyName, value);
+	}
+
+	@Override
+	public void setRequestMethod(String requestMethodType) throws IOException
+	{
+		connection.setRequestMethod(requestMethodType);
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(int contentLength)
+	{
+		connection.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public OutputStream openOutputStream() throws IOException
+	{
+		return new DumpOutputStream(connection.openOutputStream(), requestDump);
+	}
+
+	@Override
+	public InputStream openInputStream() throws IOException
+	{
+		InputStream inputStream = connection.openInputStream();
+		responseCompressed = isCompressed();
+		return new DumpInputStream(inputStream, responseDump);
+	}
+
+	@Override
+	public InputStream getErrorStream()
+	{
+		InputStream errorStream = connection.getErrorStream();
+		if(errorStream == null)
+			return null;
+		try
+		{
+			responseCompressed = isCompressed();
+		}
+		catch (IOException ex)
+		{
+			responseCompressed = false;
+		}
+		return new DumpInputStream(errorStream, responseDump);
+	}
+
+	@Override
+	public String getHost()
+	{
+		return connection.getHost();
+	}
+
+	@Override
+	public int getPort()
+	{
+		return connection.getPort();
+	}
+
+	@Override
+	public String getPath()
+	{
+		return connection.getPath();
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean isCompressed() throws IOException
+	{
+		List<HeaderProperty> responseHeaders = connection.getResponseProperties();
+		if(responseHeaders == null)
+			return false;
+		for(HeaderProperty header : responseHeaders)
+		{
+			if(header.getKey() != null && header.getKey().equalsIgnoreCase("Content-Encoding")
+					&& header.getValue() != null && !header.getValue().equalsIgnoreCase("identity"))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Fixed size buffer keeping the first bytes written in it, and counting the others
+	 */
+	private static class DumpBuffer
+	{
+		private final byte[] buffer;
+		private int length;
+		private long totalLength;
+
+		DumpBuffer(int maxSize)
+		{
+			this.buffer = new byte[maxSize];
+		}
+
+		void write(int b)
+		{
+			if(length < buffer.length)
+				buffer[length++] = (byte) b;
+			totalLength++;
+		}
+
+		void write(byte[] b, int off, int len)
+		{
+			int copyLength = Math.min(len, buffer.length - length);
+			if(copyLength > 0)
+			{
+				System.arraycopy(b, off, buffer, length, copyLength);
+				length += copyLength;
+			}
+			totalLength += len;
+		}
+
+		String toString(boolean compressed)
+		{
+			if(compressed)
+				return "[" + totalLength + " compressed bytes]";
+			String dump;
+			try
+			{
+				dump = new String(buffer, 0, length, "UTF-8");
+			}
+			catch (UnsupportedEncodingException ex)
+			{
+				dump = new String(buffer, 0, length);
+			}
+			if(totalLength > length)
+				dump += "... [truncated, " + totalLength + " bytes]";
+			return dump;
+		}
+	}
+
+	private static class DumpOutputStream extends FilterOutputStream
+	{
+		private final DumpBuffer dump;
+
+		DumpOutputStream(OutputStream out, DumpBuffer dump)
+		{
+			super(out);
+			this.dump = dump;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			dump.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			dump.write(b, off, len);
+		}
+	}
+
+	private static class DumpInputStream extends FilterInputStream
+	{
+		private final DumpBuffer dump;
+
+		DumpInputStream(InputStream in, DumpBuffer dump)
+		{
+			super(in);
+			this.dump = dump;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if(b != -1)
+				dump.write(b);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int readLength = in.read(b, off, len);
+			if(readLength > 0)
+				dump.write(b, off, readLength);
+			return readLength;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+	}
+}
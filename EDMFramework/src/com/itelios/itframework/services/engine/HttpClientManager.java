@@ -0,0 +1,164 @@
+package com.itelios.itframework.services.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import com.itelios.itframework.ITApplication;
+import com.itelios.itframework.utils.Log;
+
+/**
+ * Holds the HTTP client shared by every REST call of the framework.
+ * The client is backed by a thread safe connection pool so that connections (and TLS sessions)
+ * are kept alive and reused between calls instead of being opened and closed for each request.
+ * @author marcduvignaud
+ *
+ */
+public class HttpClientManager {
+
+	private final static String LOG_TAG = "HttpClientManager";
+
+	/**
+	 * Interval between two checks of the idle connections monitor
+	 */
+	private static final long IDLE_CONNECTION_CHECK_INTERVAL = 5 * 1000;
+
+	private static DefaultHttpClient httpClient;
+	private static IdleConnectionMonitor idleConnectionMonitor;
+
+	/**
+	 * Get the shared HTTP client, creating it on first call
+	 * @return The pooled HTTP client
+	 */
+	public static synchronized HttpClient getHttpClient()
+	{
+		if(httpClient == null)
+		{
+			HttpParams httpParams = new BasicHttpParams();
+			HttpConnectionParams.setConnectionTimeout(httpParams, ITApplication.HTTP_TIMEOUT);
+			HttpConnectionParams.setSoTimeout(httpParams, ITApplication.HTTP_TIMEOUT);
+			HttpConnectionParams.setStaleCheckingEnabled(httpParams, true);
+			HttpProtocolParams.setVersion(httpParams, HttpVersion.HTTP_1_1);
+			HttpProtocolParams.setContentCharset(httpParams, HTTP.UTF_8);
+
+			//Pool limits : the time to wait for a free connection is the same as the call timeout
+			ConnManagerParams.setMaxTotalConnections(httpParams, ITApplication.HTTP_MAX_TOTAL_CONNECTIONS);
+			ConnManagerParams.setMaxConnectionsPerRoute(httpParams, new ConnPerRouteBean(ITApplication.HTTP_MAX_CONNECTIONS_PER_ROUTE));
+			ConnManagerParams.setTimeout(httpParams, ITApplication.HTTP_TIMEOUT);
+
+			SchemeRegistry schemeRegistry = new SchemeRegistry();
+			schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+			ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(httpParams, schemeRegistry);
+			httpClient = new DefaultHttpClient(connectionManager, httpParams);
+			httpClient.setKeepAliveStrategy(new KeepAliveStrategy());
+			HttpCompression.addInterceptors(httpClient);
+
+			idleConnectionMonitor = new IdleConnectionMonitor(connectionManager);
+			idleConnectionMonitor.start();
+
+			Log.d(LOG_TAG, "Shared HTTP client created");
+		}
+
+		return httpClient;
+	}
+
+	/**
+	 * Close every pooled connection and release the shared HTTP client.
+	 * A new client will be created on the next call to <code>getHttpClient()</code>
+	 */
+	public static synchronized void shutdown()
+	{
+		if(httpClient == null)
+			return;
+
+		idleConnectionMonitor.shutdown();
+		idleConnectionMonitor = null;
+		httpClient.getConnectionManager().shutdown();
+		httpClient = null;
+	}
+
+	/**
+	 * Keep alive strategy using the duration sent by the server (Keep-Alive header).
+	 * When the server doesn't send any duration, the connection is kept for HTTP_IDLE_CONNECTION_TIMEOUT
+	 */
+	private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy
+	{
+		private final ConnectionKeepAliveStrategy defaultStrategy = new DefaultConnectionKeepAliveStrategy();
+
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+		{
+			long duration = defaultStrategy.getKeepAliveDuration(response, context);
+			if(duration <= 0)
+				duration = ITApplication.HTTP_IDLE_CONNECTION_TIMEOUT;
+			return duration;
+		}
+	}
+
+	/**
+	 * Thread evicting the expired connections and the ones idle for more than HTTP_IDLE_CONNECTION_TIMEOUT
+	 */
+	private static class IdleConnectionMonitor extends Thread
+	{
+		private final ClientConnectionManager connectionManager;
+		private volatile boolean shutdown;
+
+		public IdleConnectionMonitor(ClientConnectionManager connectionManager)
+		{
+			super("IdleConnectionMonitor");
+			this.connectionManager = connectionManager;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(!shutdown)
+				{
+					synchronized (this)
+					{
+						wait(IDLE_CONNECTION_CHECK_INTERVAL);
+					}
+					connectionManager.closeExpiredConnections();
+					connectionManager.closeIdleConnections(ITApplication.HTTP_IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				//Monitor stopped
+			}
+		}
+
+		public void shutdown()
+		{
+			shutdown = true;
+			synchronized (this)
+			{
+				notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,462 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import com.itelios.itframework.ITApplication;
+
+/**
+ * Compression of the REST calls made with the shared HTTP client.
+ * The responses are requested with "Accept-Encoding: gzip, deflate" and decompressed while they are read, so that the
+ * streaming parsers still read them as a stream. The bodies of the POST requests can be gzipped for the endpoints
+ * whose server accepts compressed requests (see <code>setRequestCompression()</code>, disabled by default).
+ * The sizes of the compressed bodies and of the uncompressed bodies are counted to measure the gain.
+ * @author marcduvignaud
+ *
+ */
+public class HttpCompression {
+
+	private static final String ACCEPT_ENCODING = "Accept-Encoding";
+	private static final String CONTENT_ENCODING = "Content-Encoding";
+	private static final String ENCODING_GZIP = "gzip";
+	private static final String ENCODING_X_GZIP = "x-gzip";
+	private static final String ENCODING_DEFLATE = "deflate";
+
+	private static volatile boolean responseCompressionEnabled = true;
+
+	/**
+	 * The min size of the POST bodies to gzip, by URL prefix of the endpoints
+	 */
+	private static final HashMap<String, Integer> requestCompressionMinSizes = new HashMap<String, Integer>();
+
+	private static final AtomicLong responseCompressedBytes = new AtomicLong();
+	private static final AtomicLong responseUncompressedBytes = new AtomicLong();
+	private static final AtomicLong requestCompressedBytes = new AtomicLong();
+	private static final AtomicLong requestUncompressedBytes = new AtomicLong();
+
+	/**
+	 * Enable or disable the compression of the responses (enabled by default)
+	 * @param enabled : True to send the Accept-Encoding header
+	 */
+	public static void setResponseCompressionEnabled(boolean enabled)
+	{
+		responseCompressionEnabled = enabled;
+	}
+
+	/**
+	 * Gzip the POST bodies of an endpoint bigger than ITApplication.HTTP_REQUEST_COMPRESSION_MIN_SIZE.
+	 * WARNING : The server must accept the requests with "Content-Encoding: gzip"
+	 * @param urlPrefix : The beginning of the URLs of the endpoint (an empty prefix for all the endpoints)
+	 */
+	public static void setRequestCompression(String urlPrefix)
+	{
+		setRequestCompression(urlPrefix, ITApplication.HTTP_REQUEST_COMPRESSION_MIN_SIZE);
+	}
+
+	/**
+	 * Gzip the POST bodies of an endpoint bigger than a size. When several prefixes match a URL, the longest one is used.
+	 * WARNING : The server must accept the requests with "Content-Encoding: gzip"
+	 * @param urlPrefix : The beginning of the URLs of the endpoint (an empty prefix for all the endpoints)
+	 * @param minSize : The min size of the bodies to gzip, in bytes
+	 */
+	public static void setRequestCompression(String urlPrefix, int minSize)
+	{
+		synchronized (requestCompressionMinSizes)
+		{
+			requestCompressionMinSizes.put(urlPrefix, minSize);
+		}
+	}
+
+	/**
+	 * Stop gzipping the POST bodies of an endpoint
+	 * @param urlPrefix : The prefix given to <code>setRequestCompression()</code>
+	 */
+	public static void removeRequestCompression(String urlPrefix)
+	{
+		synchronized (requestCompressionMinSizes)
+		{
+			requestCompressionMinSizes.remove(urlPrefix);
+		}
+	}
+
+	/**
+	 * Get the min size of the POST bodies to gzip for a URL
+	 * @param url : The URL called
+	 * @return The min size in bytes, -1 if the bodies are not gzipped for this URL
+	 */
+	public static int getRequestCompressionMinSize(String url)
+	{
+		synchronized (requestCompressionMinSizes)
+		{
+			int minSize = -1;
+			int prefixLength = -1;
+			for(Map.Entry<String, Integer> entry : requestCompressionMinSizes.entrySet())
+			{
+				String prefix = entry.getKey();
+				if(prefix.length() > prefixLength && url.startsWith(prefix))
+				{
+					minSize = entry.getValue();
+					prefixLength = prefix.length();
+				}
+			}
+			return minSize;
+		}
+	}
+
+	/**
+	 * Get the number of bytes of the compressed responses, as received
+	 */
+	public static long getResponseCompressedBytes()
+	{
+		return responseCompressedBytes.get();
+	}
+
+	/**
+	 * Get the number of bytes of the compressed responses, once decompressed
+	 */
+	public static long getResponseUncompressedBytes()
+	{
+		return responseUncompressedBytes.get();
+	}
+
+	/**
+	 * Get the number of bytes of the gzipped POST bodies, as sent
+	 */
+	public static long getRequestCompressedBytes()
+	{
+		return requestCompressedBytes.get();
+	}
+
+	/**
+	 * Get the number of bytes of the gzipped POST bodies, before the compression
+	 */
+	public static long getRequestUncompressedBytes()
+	{
+		return requestUncompressedBytes.get();
+	}
+
+	public static void resetCounters()
+	{
+		responseCompressedBytes.set(0);
+		responseUncompressedBytes.set(0);
+		requestCompressedBytes.set(0);
+		requestUncompressedBytes.set(0);
+	}
+
+	/**
+	 * Build a string with the counters, for debugging purpose
+	 */
+	public static String getCountersDescription()
+	{
+		return "HttpCompression[responses=" + responseCompressedBytes.get() + "/" + responseUncompressedBytes.get()
+				+ " bytes, requests=" + requestCompressedBytes.get() + "/" + requestUncompressedBytes.get() + " bytes]";
+	}
+
+	/**
+	 * Add the interceptors requesting and decompressing the compressed responses
+	 * @param httpClient : The client
+	 */
+	static void addInterceptors(DefaultHttpClient httpClient)
+	{
+		httpClient.addRequestInterceptor(new AcceptEncodingInterceptor());
+		httpClient.addResponseInterceptor(new ContentEncodingInterceptor());
+	}
+
+	/**
+	 * Build the entity of a POST request, gzipped if the endpoint accepts it and the body is big enough
+	 * @param url : The URL called
+	 * @param message : The body of the request
+	 * @param contentType : The content type of the body
+	 * @return The entity
+	 * @throws IOException : Error while encoding or compressing the body
+	 */
+	static HttpEntity createRequestEntity(String url, String message, String contentType) throws IOException
+	{
+		int minSize = getRequestCompressionMinSize(url);
+		AbstractHttpEntity entity;
+		if(minSize < 0)
+		{
+			entity = new StringEntity(message, HTTP.UTF_8);
+		}
+		else
+		{
+			//The min size is in bytes : compared to the encoded body, not to the number of characters
+			byte[] body = message.getBytes(HTTP.UTF_8);
+			if(body.length >= minSize)
+			{
+				byte[] compressedBody = gzip(body);
+				requestUncompressedBytes.addAndGet(body.length);
+				requestCompressedBytes.addAndGet(compressedBody.length);
+				entity = new ByteArrayEntity(compressedBody);
+				entity.setContentEncoding(ENCODING_GZIP);
+			}
+			else
+			{
+				entity = new ByteArrayEntity(body);
+			}
+		}
+		entity.setContentType(contentType);
+		return entity;
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4 + 64);
+		GZIPOutputStream gzipStream = new GZIPOutputStream(buffer);
+		try
+		{
+			gzipStream.write(data);
+		}
+		finally
+		{
+			gzipStream.close();
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Interceptor adding the Accept-Encoding header to the requests
+	 */
+	private static class AcceptEncodingInterceptor implements HttpRequestInterceptor
+	{
+		@Override
+		public void process(HttpRequest request, HttpContext context) throws HttpException, IOException
+		{
+			if(responseCompressionEnabled && !request.containsHeader(ACCEPT_ENCODING))
+				request.addHeader(ACCEPT_ENCODING, ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+		}
+	}
+
+	/**
+	 * Interceptor replacing the entity of the compressed responses by an entity decompressing the body
+	 */
+	private static class ContentEncodingInterceptor implements HttpResponseInterceptor
+	{
+		@Override
+		public void process(HttpResponse response, HttpContext context) throws HttpException, IOException
+		{
+			HttpEntity entity = response.getEntity();
+			if(entity == null || entity.getContentLength() == 0)
+				return;
+			Header encodingHeader = entity.getContentEncoding();
+			if(encodingHeader == null)
+				return;
+
+			for(HeaderElement element : encodingHeader.getElements())
+			{
+				String encoding = element.getName();
+				boolean gzipped = ENCODING_GZIP.equalsIgnoreCase(encoding) || ENCODING_X_GZIP.equalsIgnoreCase(encoding);
+				if(gzipped || ENCODING_DEFLATE.equalsIgnoreCase(encoding))
+				{
+					response.setEntity(new DecompressingEntity(entity, gzipped));
+					//The headers describe the compressed body
+					response.removeHeaders(CONTENT_ENCODING);
+					response.removeHeaders(HTTP.CONTENT_LEN);
+					response.removeHeaders("Content-MD5");
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Entity decompressing the body while it is read
+	 */
+	private static class DecompressingEntity extends HttpEntityWrapper
+	{
+		private final boolean gzipped;
+		private InputStream content;
+
+		public DecompressingEntity(HttpEntity wrappedEntity, boolean gzipped)
+		{
+			super(wrappedEntity);
+			this.gzipped = gzipped;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException
+		{
+			//The same stream is given back, the body can only be read once
+			if(content == null)
+			{
+				InputStream compressedStream = new CountingInputStream(wrappedEntity.getContent(), responseCompressedBytes);
+				InputStream uncompressedStream = gzipped ? new GZIPInputStream(compressedStream) : openDeflateStream(compressedStream);
+				content = new CountingInputStream(uncompressedStream, responseUncompressedBytes);
+			}
+			return content;
+		}
+
+		@Override
+		public long getContentLength()
+		{
+			return -1;
+		}
+
+		@Override
+		public Header getContentEncoding()
+		{
+			return null;
+		}
+
+		@Override
+		public void writeTo(OutputStream outStream) throws IOException
+		{
+			InputStream inStream = getContent();
+			try
+			{
+				byte[] buffer = new byte[4096];
+				int count;
+				while((count = inStream.read(buffer)) != -1)
+					outStream.write(buffer, 0, count);
+			}
+			finally
+			{
+				inStream.close();
+			}
+		}
+
+		/**
+		 * Open a "deflate" body : most servers send the zlib format, some send the raw deflate data
+		 */
+		private static InputStream openDeflateStream(InputStream compressedStream) throws IOException
+		{
+			PushbackInputStream stream = new PushbackInputStream(compressedStream, 2);
+			byte[] header = new byte[2];
+			int count = 0;
+			int read;
+			while(count < header.length && (read = stream.read(header, count, header.length - count)) != -1)
+				count += read;
+			stream.unread(header, 0, count);
+
+			int compressionMethod = header[0] & 0x0F;
+			int headerValue = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
+			boolean zlibFormat = count == 2 && compressionMethod == 8 && headerValue % 31 == 0;
+			return new InflaterInputStream(stream, new Inflater(!zlibFormat)) {
+				//The inflater given to the stream is not released by the stream : it is ended at the end of the body,
+				//the callers reading a body to its end without closing it
+				private boolean ended;
+
+				@Override
+				public int read() throws IOException
+				{
+					if(ended)
+						return -1;
+					int value = super.read();
+					if(value == -1)
+						end();
+					return value;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException
+				{
+					if(ended)
+						return -1;
+					int count = super.read(buffer, offset, length);
+					if(count == -1)
+						end();
+					return count;
+				}
+
+				@Override
+				public int available() throws IOException
+				{
+					return ended ? 0 : super.available();
+				}
+
+				@Override
+				public void close() throws IOException
+				{
+					try
+					{
+						super.close();
+					}
+					finally
+					{
+						end();
+					}
+				}
+
+				private void end()
+				{
+					ended = true;
+					inf.end();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Stream adding the number of bytes read to a counter
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private final AtomicLong counter;
+
+		public CountingInputStream(InputStream in, AtomicLong counter)
+		{
+			super(in);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int value = super.read();
+			if(value != -1)
+				counter.incrementAndGet();
+			return value;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int count = super.read(buffer, offset, length);
+			if(count > 0)
+				counter.addAndGet(count);
+			return count;
+		}
+
+		@Override
+		public long skip(long byteCount) throws IOException
+		{
+			long count = super.skip(byteCount);
+			if(count > 0)
+				counter.addAndGet(count);
+			return count;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+	}
+}
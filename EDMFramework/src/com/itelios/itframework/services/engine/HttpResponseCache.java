@@ -0,0 +1,786 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+
+import android.content.Context;
+
+import com.itelios.itframework.ITApplication;
+import com.itelios.itframework.utils.DiskLruCache;
+import com.itelios.itframework.utils.Log;
+import com.itelios.itframework.utils.StringUtils;
+
+/**
+ * Disk cache of the responses of the GET calls, used by WebServiceEngine once set with <code>WebServiceEngine.setResponseCache()</code>.
+ * The freshness sent by the server (Cache-Control max-age, Expires) is honored : a fresh response is read from the disk without any call,
+ * and a stale response is revalidated with its validators (ETag, Last-Modified) so that a 304 response gives back the cached body.
+ * The body of a new response is written in the cache while it is read by the caller.
+ * The cache is bounded and evicts the least recently used responses.
+ * @author marcduvignaud
+ *
+ */
+public class HttpResponseCache {
+
+	private static final String LOG_TAG = "HttpResponseCache";
+
+	/**
+	 * First line of the cached files, followed by the expiration time, the ETag, the Last-Modified date, the content type,
+	 * and an empty line before the body
+	 */
+	private static final String MAGIC = "itframework.HttpResponseCache 1";
+	private static final String ENCODING = "UTF-8";
+	private static final int MAX_HEADER_LINE_LENGTH = 8 * 1024;
+
+	private final DiskLruCache diskCache;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong conditionalHitCount = new AtomicLong();
+	private final AtomicLong networkCount = new AtomicLong();
+
+	private HttpResponseCache(DiskLruCache diskCache)
+	{
+		this.diskCache = diskCache;
+	}
+
+	/**
+	 * Open a response cache
+	 * @param directory : The directory of the cache, used only by this cache
+	 * @param maxSize : The max size of the cache in bytes
+	 * @return The cache
+	 * @throws IOException : If the directory can't be used
+	 */
+	public static HttpResponseCache open(File directory, long maxSize) throws IOException
+	{
+		return new HttpResponseCache(DiskLruCache.open(directory, maxSize));
+	}
+
+	/**
+	 * Open the response cache in the cache directory of the application (bounded by ITApplication.HTTP_RESPONSE_CACHE_MAX_SIZE)
+	 * and set it as the cache of WebServiceEngine
+	 * @param context : The context of the application
+	 * @return The cache, null if it can't be opened (the calls are not cached)
+	 */
+	public static HttpResponseCache install(Context context)
+	{
+		File directory = new File(context.getCacheDir(), "http");
+		try
+		{
+			HttpResponseCache cache = open(directory, ITApplication.HTTP_RESPONSE_CACHE_MAX_SIZE);
+			WebServiceEngine.setResponseCache(cache);
+			return cache;
+		}
+		catch (IOException ex)
+		{
+			Log.e(LOG_TAG, "Unable to open the response cache in " + directory + " - Ex : " + ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Get the cached response of a URL
+	 * @param url : The URL of the GET call
+	 * @return The cached response, fresh or not, or null if there is none
+	 */
+	Entry get(String url)
+	{
+		String key = DiskLruCache.hashKey(url);
+		File file = diskCache.get(key);
+		if(file == null)
+			return null;
+		InputStream stream = null;
+		try
+		{
+			stream = new BufferedInputStream(new FileInputStream(file));
+			if(!MAGIC.equals(readLine(stream)))
+				throw new IOException("Unknown format");
+			long expiresAt = Long.parseLong(readLine(stream));
+			String etag = readLine(stream);
+			String lastModified = readLine(stream);
+			String contentType = readLine(stream);
+			if(readLine(stream).length() != 0)
+				throw new IOException("Unknown format");
+			long bodyLength = file.length() - headerLength(expiresAt, etag, lastModified, contentType);
+			return new Entry(file, expiresAt, etag, lastModified, contentType, bodyLength);
+		}
+		catch (Exception ex)
+		{
+			//Corrupted file
+			Log.w(LOG_TAG, "Unable to read the cached response of %s - Ex : %s", url, ex.getMessage());
+			diskCache.remove(key);
+			return null;
+		}
+		finally
+		{
+			closeQuietly(stream);
+		}
+	}
+
+	/**
+	 * Build a response from the cache, without calling the server
+	 * @param request : The request the response is sent back for
+	 * @param entry : The cached response
+	 * @return The response, null if the cached file can't be read anymore
+	 */
+	WebServiceResponse createCachedResponse(HttpUriRequest request, Entry entry)
+	{
+		WebServiceResponse response = openCachedResponse(request, entry);
+		if(response != null)
+			hitCount.incrementAndGet();
+		return response;
+	}
+
+	private WebServiceResponse openCachedResponse(HttpUriRequest request, Entry entry)
+	{
+		InputStream body;
+		try
+		{
+			body = entry.openBody();
+		}
+		catch (IOException ex)
+		{
+			return null;
+		}
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		InputStreamEntity entity = new InputStreamEntity(body, entry.bodyLength);
+		if(!StringUtils.isNullOrEmpty(entry.contentType))
+			entity.setContentType(entry.contentType);
+		response.setEntity(entity);
+		return new WebServiceResponse(request, response, true);
+	}
+
+	/**
+	 * Handle the response of the server to a GET call : a 304 response gives back the cached body,
+	 * a cacheable response is written in the cache while it is read
+	 * @param url : The URL of the GET call
+	 * @param request : The request sent
+	 * @param response : The response of the server
+	 * @param cachedEntry : The cached response that was revalidated, null if there is none
+	 * @return The response to give to the caller, null if the cached body of a 304 response has been removed meanwhile
+	 * (the call must be sent again without the validators)
+	 */
+	WebServiceResponse handleNetworkResponse(String url, HttpUriRequest request, HttpResponse response, Entry cachedEntry)
+	{
+		long now = System.currentTimeMillis();
+		int statusCode = response.getStatusLine().getStatusCode();
+		String key = DiskLruCache.hashKey(url);
+		if(statusCode == HttpStatus.SC_NOT_MODIFIED && cachedEntry != null)
+		{
+			//The connection is released, the body comes from the cache
+			consumeQuietly(response.getEntity());
+			long expiresAt = computeExpiresAt(response, now);
+			if(expiresAt < 0)
+				expiresAt = cachedEntry.expiresAt;
+			String etag = getHeaderValue(response, "ETag", cachedEntry.etag);
+			String lastModified = getHeaderValue(response, "Last-Modified", cachedEntry.lastModified);
+			Entry updatedEntry = updateEntry(key, cachedEntry, expiresAt, etag, lastModified);
+			WebServiceResponse cachedResponse = openCachedResponse(request, updatedEntry);
+			if(cachedResponse != null)
+			{
+				conditionalHitCount.incrementAndGet();
+				return cachedResponse;
+			}
+			//The cached file has been removed meanwhile : the 304 response has no body to give back
+			diskCache.remove(key);
+			return null;
+		}
+
+		networkCount.incrementAndGet();
+		HttpEntity entity = response.getEntity();
+		if(statusCode != HttpStatus.SC_OK || entity == null)
+			return new WebServiceResponse(request, response, false);
+
+		long expiresAt = computeExpiresAt(response, now);
+		String etag = getHeaderValue(response, "ETag", "");
+		String lastModified = getHeaderValue(response, "Last-Modified", "");
+		boolean storable = !hasCacheControlDirective(response, "no-store")
+				&& (expiresAt > now || etag.length() > 0 || lastModified.length() > 0);
+		if(!storable)
+		{
+			if(cachedEntry != null)
+				diskCache.remove(key);
+			return new WebServiceResponse(request, response, false);
+		}
+
+		DiskLruCache.Editor editor = diskCache.edit(key);
+		if(editor == null)
+		{
+			//Already being written by another call
+			return new WebServiceResponse(request, response, false);
+		}
+		OutputStream output = null;
+		try
+		{
+			Header contentType = entity.getContentType();
+			output = new FileOutputStream(editor.getFile());
+			output.write(buildHeader(Math.max(expiresAt, 0), etag, lastModified, contentType != null ? contentType.getValue() : ""));
+			response.setEntity(new CachingEntity(entity, editor, output));
+		}
+		catch (IOException ex)
+		{
+			closeQuietly(output);
+			editor.abort();
+		}
+		return new WebServiceResponse(request, response, false);
+	}
+
+	/**
+	 * Drop the body of a response being written in the cache, when the response is aborted before its end
+	 * @param response : The response given by <code>handleNetworkResponse()</code>
+	 */
+	static void abortCaching(HttpResponse response)
+	{
+		HttpEntity entity = response.getEntity();
+		if(entity instanceof CachingEntity)
+			((CachingEntity) entity).abortCaching();
+	}
+
+	/**
+	 * Remove the cached response of a URL
+	 * @param url : The URL of the GET call
+	 */
+	public void remove(String url)
+	{
+		diskCache.remove(DiskLruCache.hashKey(url));
+	}
+
+	/**
+	 * Remove all the cached responses
+	 */
+	public void clear()
+	{
+		diskCache.clear();
+	}
+
+	public long size()
+	{
+		return diskCache.size();
+	}
+
+	public long getMaxSize()
+	{
+		return diskCache.getMaxSize();
+	}
+
+	/**
+	 * Get the number of calls answered by the cache without calling the server
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * Get the number of calls answered by the cache after a 304 response of the server
+	 */
+	public long getConditionalHitCount()
+	{
+		return conditionalHitCount.get();
+	}
+
+	/**
+	 * Get the number of calls answered by the server with a new body
+	 */
+	public long getNetworkCount()
+	{
+		return networkCount.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "HttpResponseCache[hits=" + getHitCount() + ", conditionalHits=" + getConditionalHitCount()
+				+ ", network=" + getNetworkCount() + ", " + diskCache + "]";
+	}
+
+	/**
+	 * Rewrite a cached response with a new freshness, the body being kept
+	 * @return The updated entry, or the previous one if it can't be rewritten
+	 */
+	private Entry updateEntry(String key, Entry entry, long expiresAt, String etag, String lastModified)
+	{
+		DiskLruCache.Editor editor = diskCache.edit(key);
+		if(editor == null)
+			return entry;
+		InputStream body = null;
+		OutputStream output = null;
+		try
+		{
+			body = entry.openBody();
+			output = new FileOutputStream(editor.getFile());
+			output.write(buildHeader(expiresAt, etag, lastModified, entry.contentType));
+			byte[] buffer = new byte[8 * 1024];
+			int count;
+			while((count = body.read(buffer)) != -1)
+				output.write(buffer, 0, count);
+			output.close();
+			output = null;
+			editor.commit();
+			File file = diskCache.get(key);
+			if(file == null)
+				return entry;
+			return new Entry(file, expiresAt, etag, lastModified, entry.contentType, entry.bodyLength);
+		}
+		catch (IOException ex)
+		{
+			closeQuietly(output);
+			output = null;
+			editor.abort();
+			return entry;
+		}
+		finally
+		{
+			closeQuietly(output);
+			closeQuietly(body);
+		}
+	}
+
+	/**
+	 * Compute the time until which a response is fresh, from its Cache-Control and Expires headers.
+	 * The time the response already spent in the caches on its way (Age header) is deducted from its freshness.
+	 * @return The expiration time, 0 if the response must be revalidated, -1 if the response doesn't give any freshness
+	 */
+	static long computeExpiresAt(HttpResponse response, long now)
+	{
+		long age = getAge(response);
+		Header[] cacheControlHeaders = response.getHeaders("Cache-Control");
+		for(Header header : cacheControlHeaders)
+		{
+			for(HeaderElement element : header.getElements())
+			{
+				String name = element.getName();
+				if("no-cache".equalsIgnoreCase(name))
+					return 0;
+				if("max-age".equalsIgnoreCase(name) && element.getValue() != null)
+				{
+					try
+					{
+						return Math.max(now + Long.parseLong(element.getValue().trim()) * 1000 - age, 0);
+					}
+					catch (NumberFormatException ex)
+					{
+						return 0;
+					}
+				}
+			}
+		}
+
+		Header expiresHeader = response.getFirstHeader("Expires");
+		if(expiresHeader == null)
+			return -1;
+		try
+		{
+			Date expires = DateUtils.parseDate(expiresHeader.getValue());
+			//The date of the server is used as reference, the clocks may differ
+			Header dateHeader = response.getFirstHeader("Date");
+			long serverNow = (dateHeader != null) ? DateUtils.parseDate(dateHeader.getValue()).getTime() : now;
+			return Math.max(now + expires.getTime() - serverNow - age, 0);
+		}
+		catch (DateParseException ex)
+		{
+			//Invalid dates (like "0") mean already expired
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the age of a response given by a cache between the server and the application
+	 * @return The age in milliseconds, 0 if the response has no valid Age header
+	 */
+	private static long getAge(HttpResponse response)
+	{
+		Header ageHeader = response.getFirstHeader("Age");
+		if(ageHeader == null || ageHeader.getValue() == null)
+			return 0;
+		try
+		{
+			return Math.max(Long.parseLong(ageHeader.getValue().trim()) * 1000, 0);
+		}
+		catch (NumberFormatException ex)
+		{
+			return 0;
+		}
+	}
+
+	private static boolean hasCacheControlDirective(HttpResponse response, String directive)
+	{
+		for(Header header : response.getHeaders("Cache-Control"))
+		{
+			for(HeaderElement element : header.getElements())
+			{
+				if(directive.equalsIgnoreCase(element.getName()))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getHeaderValue(HttpResponse response, String name, String defaultValue)
+	{
+		Header header = response.getFirstHeader(name);
+		if(header == null || header.getValue() == null)
+			return defaultValue;
+		//The values are stored on a single line
+		return header.getValue().replace('\r', ' ').replace('\n', ' ');
+	}
+
+	private static byte[] buildHeader(long expiresAt, String etag, String lastModified, String contentType) throws IOException
+	{
+		StringBuilder header = new StringBuilder();
+		header.append(MAGIC).append('\n');
+		header.append(expiresAt).append('\n');
+		header.append(etag).append('\n');
+		header.append(lastModified).append('\n');
+		header.append(contentType).append('\n');
+		header.append('\n');
+		return header.toString().getBytes(ENCODING);
+	}
+
+	private static long headerLength(long expiresAt, String etag, String lastModified, String contentType) throws IOException
+	{
+		return buildHeader(expiresAt, etag, lastModified, contentType).length;
+	}
+
+	private static String readLine(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while((b = stream.read()) != '\n')
+		{
+			if(b == -1 || line.size() > MAX_HEADER_LINE_LENGTH)
+				throw new IOException("Truncated header");
+			line.write(b);
+		}
+		return line.toString(ENCODING);
+	}
+
+	private static void consumeQuietly(HttpEntity entity)
+	{
+		if(entity == null)
+			return;
+		try
+		{
+			entity.consumeContent();
+		}
+		catch (IOException ex)
+		{
+			//The connection won't be reused
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable)
+	{
+		if(closeable == null)
+			return;
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException ex)
+		{
+			//Nothing to do
+		}
+	}
+
+	/**
+	 * Cached response
+	 */
+	static final class Entry
+	{
+		private final File file;
+		final long expiresAt;
+		final String etag;
+		final String lastModified;
+		final String contentType;
+		final long bodyLength;
+
+		private Entry(File file, long expiresAt, String etag, String lastModified, String contentType, long bodyLength)
+		{
+			this.file = file;
+			this.expiresAt = expiresAt;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			this.bodyLength = bodyLength;
+		}
+
+		boolean isFresh()
+		{
+			return System.currentTimeMillis() < expiresAt;
+		}
+
+		/**
+		 * Add the validators of the cached response to a request, so that the server can answer with a 304 response
+		 */
+		void addValidators(HttpUriRequest request)
+		{
+			if(etag.length() > 0)
+				request.setHeader("If-None-Match", etag);
+			if(lastModified.length() > 0)
+				request.setHeader("If-Modified-Since", lastModified);
+		}
+
+		InputStream openBody() throws IOException
+		{
+			InputStream body = new FileInputStream(file);
+			long headerLength = file.length() - bodyLength;
+			if(body.skip(headerLength) != headerLength)
+			{
+				body.close();
+				throw new IOException("Truncated cached response");
+			}
+			return body;
+		}
+	}
+
+	/**
+	 * Entity copying the body in the cache while it is read : the entry is committed once the whole body has been read
+	 * (the end of the body is read when it is closed), and aborted if the response is aborted or can't be read
+	 */
+	private static class CachingEntity extends HttpEntityWrapper
+	{
+		private final DiskLruCache.Editor editor;
+		private final OutputStream output;
+		private InputStream content;
+		private boolean aborted;
+
+		public CachingEntity(HttpEntity entity, DiskLruCache.Editor editor, OutputStream output)
+		{
+			super(entity);
+			this.editor = editor;
+			this.output = output;
+		}
+
+		@Override
+		public synchronized InputStream getContent() throws IOException
+		{
+			if(aborted)
+				return wrappedEntity.getContent();
+			if(content == null)
+				content = new CachingInputStream(wrappedEntity.getContent(), editor, output);
+			return content;
+		}
+
+		/**
+		 * Abort the cache entry, the editor being released even if the body has never been read
+		 */
+		synchronized void abortCaching()
+		{
+			if(content != null)
+			{
+				((CachingInputStream) content).finish(false);
+				return;
+			}
+			if(aborted)
+				return;
+			aborted = true;
+			closeQuietly(output);
+			editor.abort();
+		}
+
+		@Override
+		public boolean isRepeatable()
+		{
+			return false;
+		}
+
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException
+		{
+			InputStream stream = getContent();
+			try
+			{
+				byte[] buffer = new byte[8 * 1024];
+				int count;
+				while((count = stream.read(buffer)) != -1)
+					outstream.write(buffer, 0, count);
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+
+		/**
+		 * The end of the body is read through the cache, so that the response is cached even if the caller stopped reading
+		 */
+		@Override
+		public void consumeContent() throws IOException
+		{
+			InputStream stream = getContent();
+			try
+			{
+				byte[] buffer = new byte[8 * 1024];
+				while(stream.read(buffer) != -1)
+				{
+					//Only cached
+				}
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+	}
+
+	private static class CachingInputStream extends FilterInputStream
+	{
+		private final DiskLruCache.Editor editor;
+		private final OutputStream output;
+		/**
+		 * Set once the entry is committed or aborted, the response can be aborted from another thread
+		 */
+		private volatile boolean finished;
+
+		public CachingInputStream(InputStream in, DiskLruCache.Editor editor, OutputStream output)
+		{
+			super(in);
+			this.editor = editor;
+			this.output = output;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b;
+			try
+			{
+				b = in.read();
+			}
+			catch (IOException ex)
+			{
+				finish(false);
+				throw ex;
+			}
+			if(b == -1)
+				finish(true);
+			else if(!finished)
+			{
+				try
+				{
+					output.write(b);
+				}
+				catch (IOException ex)
+				{
+					finish(false);
+				}
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int count;
+			try
+			{
+				count = in.read(buffer, offset, length);
+			}
+			catch (IOException ex)
+			{
+				finish(false);
+				throw ex;
+			}
+			if(count == -1)
+				finish(true);
+			else if(!finished)
+			{
+				try
+				{
+					output.write(buffer, offset, count);
+				}
+				catch (IOException ex)
+				{
+					//The response is still given to the caller, only the caching fails
+					finish(false);
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			//The skipped bytes must be cached too
+			byte[] buffer = new byte[(int) Math.min(n, 8 * 1024)];
+			long skipped = 0;
+			while(skipped < n)
+			{
+				int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+				if(count == -1)
+					break;
+				skipped += count;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		/**
+		 * The end of the body is read through the cache : the JSON parsers close the stream after the last value
+		 * without reading the end of the stream
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				byte[] buffer = new byte[8 * 1024];
+				while(!finished && read(buffer, 0, buffer.length) != -1)
+				{
+					//Only cached
+				}
+			}
+			finally
+			{
+				//Does nothing if the end has been read
+				finish(false);
+				super.close();
+			}
+		}
+
+		synchronized void finish(boolean complete)
+		{
+			if(finished)
+				return;
+			finished = true;
+			try
+			{
+				output.close();
+			}
+			catch (IOException ex)
+			{
+				complete = false;
+			}
+			if(complete)
+				editor.commit();
+			else
+				editor.abort();
+		}
+	}
+}
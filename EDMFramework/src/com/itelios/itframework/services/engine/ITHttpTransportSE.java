@@ -0,0 +1,190 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.ksoap2.HeaderProperty;
+import org.ksoap2.SoapEnvelope;
+import org.ksoap2.transport.HttpTransportSE;
+import org.ksoap2.transport.ServiceConnection;
+
+import com.itelios.itframework.ITApplication;
+
+/**
+ * ksoap HTTP transport giving access to the raw response stream, so that the response can be read
+ * with a pull parser instead of being loaded in a SoapObject tree
+ * @author marcduvignaud
+ *
+ */
+public class ITHttpTransportSE extends HttpTransportSE {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * The connection of the current call of the thread, when the diagnostics mode is on
+	 */
+	private final ThreadLocal<DiagnosticServiceConnection> diagnosticConnection = new ThreadLocal<DiagnosticServiceConnection>();
+
+	public ITHttpTransportSE(String url)
+	{
+		super(url);
+	}
+
+	@Override
+	public ServiceConnection getServiceConnection() throws IOException
+	{
+		ServiceConnection connection = super.getServiceConnection();
+		//The call can be aborted by the task running it (see WebServiceFuture.cancel())
+		CallAbortHandle.registerConnection(connection);
+		if(!KSoapWebServiceEngine.isDiagnosticsEnabled())
+			return connection;
+
+		DiagnosticServiceConnection diagnostic = new DiagnosticServiceConnection(connection, url, ITApplication.SOAP_DIAGNOSTICS_MAX_DUMP_SIZE);
+		diagnosticConnection.set(diagnostic);
+		return diagnostic;
+	}
+
+	/**
+	 * Log the request and the response of the last call made by the current thread, if it was made in diagnostics mode
+	 */
+	public void logDiagnostics()
+	{
+		DiagnosticServiceConnection diagnostic = diagnosticConnection.get();
+		if(diagnostic != null)
+		{
+			diagnosticConnection.remove();
+			diagnostic.logDump();
+		}
+	}
+
+	/**
+	 * Send the SOAP request and open the response, the same way <code>call()</code> does but without parsing it
+	 * @param soapAction : The SOAP action
+	 * @param envelope : The envelope containing the request
+	 * @param headers : The HTTP headers to send
+	 * @return The response stream (the SOAP envelope, or the SOAP fault if the server sent an error 500)
+	 * @throws IOException : If the call fails
+	 */
+	public ResponseStream openCall(String soapAction, SoapEnvelope envelope, List<HeaderProperty> headers) throws IOException
+	{
+		byte[] requestData = createRequestData(envelope, "UTF-8");
+
+		ServiceConnection connection = getServiceConnection();
+		connection.setRequestProperty("User-Agent", USER_AGENT);
+		if(envelope.version != SoapEnvelope.VER12)
+			connection.setRequestProperty("SOAPAction", soapAction);
+		if(envelope.version == SoapEnvelope.VER12)
+			connection.setRequestProperty("Content-Type", CONTENT_TYPE_SOAP_XML_CHARSET_UTF_8);
+		else
+			connection.setRequestProperty("Content-Type", CONTENT_TYPE_XML_CHARSET_UTF_8);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		connection.setRequestProperty("Content-Length", String.valueOf(requestData.length));
+		connection.setFixedLengthStreamingMode(requestData.length);
+		if(headers != null)
+		{
+			for(HeaderProperty header : headers)
+				connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+		connection.setRequestMethod("POST");
+
+		OutputStream os = connection.openOutputStream();
+		os.write(requestData, 0, requestData.length);
+		os.flush();
+		os.close();
+
+		InputStream is;
+		try
+		{
+			connection.connect();
+			int status = connection.getResponseCode();
+			if(status == 200)
+				is = connection.openInputStream();
+			else if(status == 500)
+				//SOAP faults are sent with a 500 status, the envelope is in the error stream
+				is = connection.getErrorStream();
+			else
+				is = null;
+			if(is == null)
+				throw new IOException("HTTP request failed, HTTP status: " + status);
+		}
+		catch (IOException ex)
+		{
+			connection.disconnect();
+			throw ex;
+		}
+
+		is = new BufferedInputStream(is, BUFFER_SIZE);
+		if(isGzipped(connection))
+			is = new GZIPInputStream(is);
+		return new ResponseStream(is, connection);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static boolean isGzipped(ServiceConnection connection) throws IOException
+	{
+		List<HeaderProperty> responseHeaders = connection.getResponseProperties();
+		if(responseHeaders == null)
+			return false;
+		for(HeaderProperty header : responseHeaders)
+		{
+			if(header.getKey() != null && header.getKey().equalsIgnoreCase("Content-Encoding")
+					&& "gzip".equalsIgnoreCase(header.getValue()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Response stream bound to its connection
+	 */
+	public static class ResponseStream extends FilterInputStream
+	{
+		private final ServiceConnection connection;
+
+		ResponseStream(InputStream in, ServiceConnection connection)
+		{
+			super(in);
+			this.connection = connection;
+		}
+
+		/**
+		 * Read the end of the response and close the stream, so that the connection can be reused
+		 */
+		public void finish()
+		{
+			try
+			{
+				byte[] buffer = new byte[BUFFER_SIZE];
+				while(read(buffer) != -1)
+				{
+					//We only drain the remaining bytes
+				}
+				close();
+			}
+			catch (IOException ex)
+			{
+				abort();
+			}
+		}
+
+		/**
+		 * Close the connection without reading the end of the response
+		 */
+		public void abort()
+		{
+			try
+			{
+				connection.disconnect();
+			}
+			catch (IOException ex)
+			{
+				//Nothing more we can do, the connection is lost anyway
+			}
+		}
+	}
+}
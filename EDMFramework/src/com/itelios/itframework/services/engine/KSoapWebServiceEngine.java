@@ -1,20 +1,26 @@
 package com.itelios.itframework.services.engine;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ksoap2.HeaderProperty;
 import org.ksoap2.SoapEnvelope;
 import org.ksoap2.SoapFault;
 import org.ksoap2.serialization.SoapObject;
 import org.ksoap2.serialization.SoapSerializationEnvelope;
-import org.ksoap2.transport.HttpTransportSE;
+import org.xmlpull.v1.XmlPullParser;
 
+import android.os.Build;
 import android.os.StrictMode;
 
 import com.itelios.itframework.exception.ITException;
 import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.services.engine.ITHttpTransportSE.ResponseStream;
 import com.itelios.itframework.utils.ConnectivityUtils;
 import com.itelios.itframework.utils.Log;
+import com.itelios.itframework.utils.SoapPullParserUtils;
 
 /**
  * Web service engine class for the ksoap library
@@ -23,6 +29,57 @@ import com.itelios.itframework.utils.Log;
  */
 public class KSoapWebServiceEngine {
 	private static final String LOG_TAG = "KSoapWebServiceEngine";
+	private static final String XML_VERSION_TAG = "<?xml version=\"1.0\" encoding= \"UTF-8\"?>";
+	
+	/**
+	 * The transports by endpoint (urlServer + relativeUrlWsdl), shared by all the calls to the same endpoint
+	 */
+	private static final ConcurrentHashMap<String, ITHttpTransportSE> transports = new ConcurrentHashMap<String, ITHttpTransportSE>();
+	/**
+	 * The HTTP headers by SOAP action (namespace + methodName)
+	 */
+	private static final ConcurrentHashMap<String, List<HeaderProperty>> headers = new ConcurrentHashMap<String, List<HeaderProperty>>();
+	/**
+	 * True to log the requests and the responses of the calls
+	 */
+	private static volatile boolean diagnosticsEnabled = false;
+	
+	/**
+	 * Enable or disable the diagnostics mode : the beginning of the requests and of the responses 
+	 * (at most ITApplication.SOAP_DIAGNOSTICS_MAX_DUMP_SIZE bytes each) is logged after each call.
+	 * Disabled by default : the payloads are not copied at all.
+	 * @param enabled : True to enable the diagnostics mode
+	 */
+	public static void setDiagnosticsEnabled(boolean enabled)
+	{
+		diagnosticsEnabled = enabled;
+	}
+	
+	/**
+	 * Check if the diagnostics mode is enabled
+	 * @return True if the requests and the responses are logged
+	 */
+	public static boolean isDiagnosticsEnabled()
+	{
+		return diagnosticsEnabled;
+	}
+	
+	/**
+	 * Set up the global configuration used by the SOAP calls (HTTP keep alive, thread policy of the main thread).
+	 * Called once by ITApplication when the application starts.
+	 */
+	public static void initialize()
+	{
+		//KEEP THE CONNECTIONS OPENED BETWEEN TWO CALLS TO THE SAME SERVER
+		System.setProperty("http.keepAlive", "true");
+
+		//THE THREAD POLICY IS SET ON THE CALLING THREAD (THE MAIN THREAD WHEN CALLED BY ITApplication)
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+		{
+			StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
+			StrictMode.setThreadPolicy(policy);
+		}
+	}
 	
 	/**
 	 * Call a soap webservice and return the soap object result
@@ -42,49 +99,19 @@ public class KSoapWebServiceEngine {
 			throw ITException.generateInternetConnectivityException();
 		}
 		
+		//LET TO CALL THE WEBSERVICE
+		ITHttpTransportSE ht = getTransport(urlServer + relativeUrlWsdl);
 		try {			
 			//CREATE THE ENVELOPE TO SEND THE REQUEST
-			SoapSerializationEnvelope envelope = new SoapSerializationEnvelope(SoapEnvelope.VER12);
-			envelope.dotNet = true;
-			envelope.encodingStyle = SoapEnvelope.ENC;
-			envelope.implicitTypes = true;
-
-			//ENVELOPE TAKE THE REQUEST AS PARAMETER
-			if(requestObject != null)
-				envelope.setOutputSoapObject(requestObject);
-			envelope.setAddAdornments(true);
-
+			SoapSerializationEnvelope envelope = createEnvelope(requestObject);
 
 			//CREATION OF PROPERTIES LIST TO PUSHED ITS IN THE HEADER OF THE SOAP MESSAGE
-			ArrayList<HeaderProperty> headerProperty = new ArrayList<HeaderProperty>();
-
-			//ADDING OF PROPERTIES IN ARRAYLIST TO COMPOSE HEADEROUT OF KSOAP MESSAGE
-			headerProperty.add(new HeaderProperty("User-Agent", "kSOAP/2.0"));
-			headerProperty.add(new HeaderProperty("Content-Type", "text/xml;charset=utf-8"));
-			headerProperty.add(new HeaderProperty("Connection", "Keep-Alive"));
-			headerProperty.add(new HeaderProperty("SOAPAction", namespace + methodName));
-
-
-
-			//LET TO CALL THE WEBSERVICE
-			HttpTransportSE ht = new HttpTransportSE(urlServer + relativeUrlWsdl);
-			ht.debug = true;
-
-			System.setProperty("http.keepAlive", "true");
-
-			//CONSTRUCT A THREAD POLICY INSTANCE
-			StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
-			StrictMode.setThreadPolicy(policy);
-
-
-			//SET XML VERSION TAG BEFORE CALLING THE WEB SERVICE A THE SPECIFIED ADRESS
-			ht.setXmlVersionTag("<?xml version=\"1.0\" encoding= \"UTF-8\"?>");
+			List<HeaderProperty> headerProperty = getHeaders(namespace, methodName);
 
 			//TAKE 3 PARAM : SOAP ACTION String url, SoapSerializationEnvelope Object, HeaderProperty (MANDATORY)
 			ht.call(urlServer+""+methodName, envelope, headerProperty);
 
-			Log.d(LOG_TAG, "Soap Web service call done with request dump : " + ht.requestDump);
-			Log.d(LOG_TAG, "Soap Web service call done with response dump : " + ht.responseDump);			
+			Log.d(LOG_TAG, "Soap Web service call done for %s%s", urlServer, methodName);
 			
 			if(envelope.bodyIn instanceof SoapFault) {
 				String errorMessage = "Invalid soap message received - Error : " + ((SoapFault) envelope.bodyIn).faultstring;
@@ -100,5 +127,136 @@ public class KSoapWebServiceEngine {
 			Log.e(LOG_TAG, errorMessage);
 			throw new ITException(errorMessage, ITExceptionsType.CALL_ERROR);
 		}
+		finally {
+			ht.logDiagnostics();
+		}
+	}
+	
+	/**
+	 * Call a soap webservice and give the response to the handler, positioned on the result element.
+	 * The response is read with a pull parser while it is downloaded : no SoapObject tree is built.
+	 * @param urlServer : The URL of the web service
+	 * @param relativeUrlWsdl : The URL of the WSDL relative to the urlServer
+	 * @param namespace : The namespace used by the soap web service
+	 * @param methodName : The name of the method called
+	 * @param requestObject
+	 * @param responseHandler : The handler reading the result
+	 * @return The object returned by the handler
+	 * @throws ITException
+	 */
+	public static <ResultType> ResultType callWebServiceStreaming(String urlServer, String relativeUrlWsdl, String namespace, 
+			String methodName, SoapObject requestObject, SoapResponseHandler<ResultType> responseHandler) throws ITException
+	{
+		if(!ConnectivityUtils.isNetworkAvailable())
+		{
+			throw ITException.generateInternetConnectivityException();
+		}
+		
+		ITHttpTransportSE ht = getTransport(urlServer + relativeUrlWsdl);
+		ResponseStream responseStream = null;
+		try {
+			SoapSerializationEnvelope envelope = createEnvelope(requestObject);
+			List<HeaderProperty> headerProperty = getHeaders(namespace, methodName);
+
+			responseStream = ht.openCall(urlServer+""+methodName, envelope, headerProperty);
+			Log.d(LOG_TAG, "Soap Web service streaming call done for %s%s", urlServer, methodName);
+			
+			XmlPullParser resultParser = SoapPullParserUtils.openResult(responseStream);
+			int resultDepth = resultParser != null ? resultParser.getDepth() : 0;
+			ResultType result = responseHandler.handleResponse(resultParser);
+			//If the handler stopped before the end of the result, the rest of the response isn't downloaded
+			if(resultParser == null || SoapPullParserUtils.isElementRead(resultParser, resultDepth))
+				responseStream.finish();
+			else
+				responseStream.abort();
+			return result;
+		}
+		catch (ITException e) {
+			if(responseStream != null)
+				responseStream.abort();
+			throw e;
+		}
+		catch (Exception e) {
+			if(responseStream != null)
+				responseStream.abort();
+			String errorMessage =  "Error while calling the webservice '" + urlServer + methodName + "' - " + e .getMessage();
+			Log.e(LOG_TAG, errorMessage);
+			throw new ITException(errorMessage, ITExceptionsType.CALL_ERROR);
+		}
+		finally {
+			ht.logDiagnostics();
+		}
+	}
+	
+	private static SoapSerializationEnvelope createEnvelope(SoapObject requestObject)
+	{
+		SoapSerializationEnvelope envelope = new SoapSerializationEnvelope(SoapEnvelope.VER12);
+		envelope.dotNet = true;
+		envelope.encodingStyle = SoapEnvelope.ENC;
+		envelope.implicitTypes = true;
+
+		//ENVELOPE TAKE THE REQUEST AS PARAMETER
+		if(requestObject != null)
+			envelope.setOutputSoapObject(requestObject);
+		envelope.setAddAdornments(true);
+		return envelope;
+	}
+	
+	/**
+	 * Get the transport of an endpoint, creating it on first call.
+	 * The transports don't keep any state between two calls (the ksoap debug mode is off, the diagnostics are kept by thread), 
+	 * so they can be shared between threads.
+	 */
+	private static ITHttpTransportSE getTransport(String url)
+	{
+		ITHttpTransportSE transport = transports.get(url);
+		if(transport == null)
+		{
+			transport = new ITHttpTransportSE(url);
+			//SET XML VERSION TAG BEFORE CALLING THE WEB SERVICE A THE SPECIFIED ADRESS
+			transport.setXmlVersionTag(XML_VERSION_TAG);
+			ITHttpTransportSE existingTransport = transports.putIfAbsent(url, transport);
+			if(existingTransport != null)
+				transport = existingTransport;
+		}
+		return transport;
+	}
+	
+	/**
+	 * Get the HTTP headers of a SOAP action, creating them on first call (the list is read only)
+	 */
+	private static List<HeaderProperty> getHeaders(String namespace, String methodName)
+	{
+		String soapAction = namespace + methodName;
+		List<HeaderProperty> headerProperty = headers.get(soapAction);
+		if(headerProperty == null)
+		{
+			//ADDING OF PROPERTIES IN ARRAYLIST TO COMPOSE HEADEROUT OF KSOAP MESSAGE
+			ArrayList<HeaderProperty> newHeaderProperty = new ArrayList<HeaderProperty>(4);
+			newHeaderProperty.add(new HeaderProperty("User-Agent", "kSOAP/2.0"));
+			newHeaderProperty.add(new HeaderProperty("Content-Type", "text/xml;charset=utf-8"));
+			newHeaderProperty.add(new HeaderProperty("Connection", "Keep-Alive"));
+			newHeaderProperty.add(new HeaderProperty("SOAPAction", soapAction));
+			headerProperty = Collections.unmodifiableList(newHeaderProperty);
+			List<HeaderProperty> existingHeaderProperty = headers.putIfAbsent(soapAction, headerProperty);
+			if(existingHeaderProperty != null)
+				headerProperty = existingHeaderProperty;
+		}
+		return headerProperty;
+	}
+	
+	/**
+	 * Handler reading the result of a streaming soap call
+	 * @param <ResultType> : The type of object built from the result
+	 */
+	public interface SoapResponseHandler<ResultType>
+	{
+		/**
+		 * Read the result of the call
+		 * @param resultParser : The parser positioned on the start tag of the result element, null if the response is empty
+		 * @return The object built from the result
+		 * @throws ITException
+		 */
+		ResultType handleResponse(XmlPullParser resultParser) throws ITException;
 	}
 }
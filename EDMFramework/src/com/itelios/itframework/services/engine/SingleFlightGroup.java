@@ -0,0 +1,236 @@
+package com.itelios.itframework.services.engine;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.exception.ITException.ITExceptionsType;
+
+/**
+ * Coalesces the identical calls running at the same time : while a call is running for a key, the calls with the same key
+ * wait for its end and receive the same result (or the same exception) instead of calling the web service again.
+ * A caller whose task is cancelled stops waiting without disturbing the other callers.
+ * WARNING : The result is shared between the waiting callers, it must not be modified
+ * @author marcduvignaud
+ *
+ */
+public class SingleFlightGroup {
+
+	private static final SingleFlightGroup instance = new SingleFlightGroup();
+
+	/**
+	 * Call executed once for all the callers waiting for the same key
+	 * @param <ResultType> : The type of the result
+	 */
+	public interface Call<ResultType>
+	{
+		public ResultType execute() throws ITException;
+	}
+
+	/**
+	 * The calls running, by key
+	 */
+	private final HashMap<String, Flight> flights = new HashMap<String, Flight>();
+	private final AtomicLong executionCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Get the group shared by the engines and the callers of the framework
+	 * @return The shared group
+	 */
+	public static SingleFlightGroup getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * Execute a call, or wait for the result of the identical call already running.
+	 * The call runs with its own abort handle : when the task of a caller is aborted (see CallAbortHandle), the caller stops waiting
+	 * and the call is aborted only once all its callers have been aborted
+	 * @param key : The identity of the call (URL, method, request, type of result...)
+	 * @param call : The call to execute if no identical call is running
+	 * @return The result of the call
+	 * @throws ITException : The exception raised by the call, or an exception of type CALL_ERROR if the caller has been aborted
+	 */
+	@SuppressWarnings("unchecked")
+	public <ResultType> ResultType execute(String key, Call<ResultType> call) throws ITException
+	{
+		final Flight flight;
+		boolean leader = false;
+		synchronized (flights)
+		{
+			Flight runningFlight = flights.get(key);
+			//A call aborted by all its callers is not joined, it will fail
+			if(runningFlight == null || runningFlight.abortHandle.isAborted())
+			{
+				runningFlight = new Flight();
+				flights.put(key, runningFlight);
+				leader = true;
+			}
+			flight = runningFlight;
+			synchronized (flight)
+			{
+				flight.waiterCount++;
+			}
+		}
+
+		final Waiter waiter = new Waiter();
+		Runnable abortListener = new Runnable() {
+			@Override
+			public void run()
+			{
+				flight.cancelWaiter(waiter);
+			}
+		};
+		if(!CallAbortHandle.addAbortListener(abortListener))
+			flight.cancelWaiter(waiter);
+
+		try
+		{
+			if(leader)
+			{
+				executionCount.incrementAndGet();
+				runFlight(key, flight, call);
+			}
+			else
+			{
+				coalescedCount.incrementAndGet();
+				waitFlight(key, flight, waiter);
+			}
+		}
+		finally
+		{
+			CallAbortHandle.removeAbortListener(abortListener);
+		}
+
+		if(waiter.cancelled)
+			throw new ITException("The call " + key + " has been cancelled", ITExceptionsType.CALL_ERROR);
+		if(flight.exception != null)
+			throw flight.exception;
+		if(flight.uncheckedException instanceof RuntimeException)
+			throw (RuntimeException) flight.uncheckedException;
+		if(flight.uncheckedException instanceof Error)
+			throw (Error) flight.uncheckedException;
+		return (ResultType) flight.result;
+	}
+
+	/**
+	 * Run the call on the thread of the first caller, with the abort handle of the flight instead of the one of the caller
+	 */
+	private <ResultType> void runFlight(String key, Flight flight, Call<ResultType> call)
+	{
+		CallAbortHandle callerHandle = CallAbortHandle.getCurrent();
+		CallAbortHandle.setCurrent(flight.abortHandle);
+		try
+		{
+			flight.result = call.execute();
+		}
+		catch (ITException ex)
+		{
+			flight.exception = ex;
+		}
+		catch (RuntimeException ex)
+		{
+			flight.uncheckedException = ex;
+		}
+		catch (Error ex)
+		{
+			flight.uncheckedException = ex;
+		}
+		finally
+		{
+			CallAbortHandle.setCurrent(callerHandle);
+			//The next calls will be executed again
+			synchronized (flights)
+			{
+				if(flights.get(key) == flight)
+					flights.remove(key);
+			}
+			synchronized (flight)
+			{
+				flight.done = true;
+				flight.notifyAll();
+			}
+		}
+	}
+
+	private void waitFlight(String key, Flight flight, Waiter waiter) throws ITException
+	{
+		synchronized (flight)
+		{
+			try
+			{
+				while(!flight.done && !waiter.cancelled)
+					flight.wait();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				flight.cancelWaiter(waiter);
+				throw new ITException("Interrupted while waiting for the call " + key, ITExceptionsType.CALL_ERROR);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of calls really executed
+	 */
+	public long getExecutionCount()
+	{
+		return executionCount.get();
+	}
+
+	/**
+	 * Get the number of calls that received the result of an identical call instead of being executed
+	 */
+	public long getCoalescedCount()
+	{
+		return coalescedCount.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SingleFlightGroup[executions=" + getExecutionCount() + ", coalesced=" + getCoalescedCount() + "]";
+	}
+
+	/**
+	 * Call running, the result being published once <code>done</code> is set (guarded by the flight)
+	 */
+	private static final class Flight
+	{
+		final CallAbortHandle abortHandle = new CallAbortHandle();
+		int waiterCount;
+		boolean done;
+		Object result;
+		ITException exception;
+		Throwable uncheckedException;
+
+		/**
+		 * Stop the waiting of a caller, the call being aborted if it was the last caller waiting for it
+		 */
+		void cancelWaiter(Waiter waiter)
+		{
+			boolean lastWaiter;
+			synchronized (this)
+			{
+				if(done || waiter.cancelled)
+					return;
+				waiter.cancelled = true;
+				waiterCount--;
+				lastWaiter = waiterCount == 0;
+				notifyAll();
+			}
+			if(lastWaiter)
+				abortHandle.abort();
+		}
+	}
+
+	/**
+	 * Caller of a flight, guarded by the flight
+	 */
+	private static final class Waiter
+	{
+		boolean cancelled;
+	}
+}
@@ -6,15 +6,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
 
-import com.itelios.itframework.ITApplication;
 import com.itelios.itframework.exception.ITException;
 import com.itelios.itframework.exception.ITException.ITExceptionsType;
 import com.itelios.itframework.utils.ConnectivityUtils;
@@ -32,6 +24,29 @@ public class WebServiceEngine {
 	
 	public static String CONTENT_TYPE = "application/json";
 	
+	/**
+	 * The cache of the GET responses, null if the responses are not cached (default)
+	 */
+	private static volatile HttpResponseCache responseCache;
+	
+	/**
+	 * Set the cache used for the GET calls (see <code>HttpResponseCache.install()</code>)
+	 * @param cache : The cache, null to disable the caching
+	 */
+	public static void setResponseCache(HttpResponseCache cache)
+	{
+		responseCache = cache;
+	}
+	
+	/**
+	 * Get the cache used for the GET calls
+	 * @return The cache, null if the responses are not cached
+	 */
+	public static HttpResponseCache getResponseCache()
+	{
+		return responseCache;
+	}
+	
 	/**
 	 * Function used to call REST WS returning a message
 	 * @param urlToCall : The URL of the WS
@@ -40,19 +55,109 @@ public class WebServiceEngine {
 	 * @return The message returned by the WS
 	 * @throws ITException : An exception if there's an error
 	 */
-	public static String callWebService (String urlToCall, String requestMessage, 
-			HttpRequestType requestType) throws ITException
+	public static String callWebService (final String urlToCall, final String requestMessage, 
+			final HttpRequestType requestType) throws ITException
 	{  
+		//The identical GET calls running at the same time share the same response
+		if(requestType == HttpRequestType.Get)
+		{
+			return SingleFlightGroup.getInstance().execute("GET " + urlToCall, new SingleFlightGroup.Call<String>() {
+				@Override
+				public String execute() throws ITException
+				{
+					return readWebService(urlToCall, requestMessage, requestType);
+				}
+			});
+		}
+		return readWebService(urlToCall, requestMessage, requestType);
+	}
+	
+	private static String readWebService(String urlToCall, String requestMessage, HttpRequestType requestType) throws ITException
+	{
+		WebServiceResponse response = openWebService(urlToCall, requestMessage, requestType);
+		
+		String resultMessage = "";
+		try {
+			//Reading the whole entity releases the connection back to the pool
+			resultMessage = response.getContentAsString();
+			if(!StringUtils.isNullOrEmpty(resultMessage))
+				Log.i(LOG_TAG, "Message received from server : %s", resultMessage);
+		}
+		catch (ITException e) {
+			Log.e(LOG_TAG, e.getMessage());
+			//The connection may be in an unknown state, we don't give it back to the pool
+			response.abort();
+			throw e;
+		}
+		
+		return resultMessage;
+	}
+	
+	/**
+	 * Function used to call REST WS and read the response as a stream. 
+	 * The connection is released once the handler returns (or aborted if the handler raised an exception).
+	 * @param urlToCall : The URL of the WS
+	 * @param requestMessage : The message to send in the request (when POST is chosen)
+	 * @param requestType : The type of the request to send (POST, GET)
+	 * @param responseHandler : The handler reading the response
+	 * @return The object returned by the handler
+	 * @throws ITException : An exception if there's an error
+	 */
+	public static <ResultType> ResultType callWebService(String urlToCall, String requestMessage, 
+			HttpRequestType requestType, ResponseHandler<ResultType> responseHandler) throws ITException
+	{
+		WebServiceResponse response = openWebService(urlToCall, requestMessage, requestType);
+		
+		boolean handled = false;
+		try
+		{
+			ResultType result = responseHandler.handleResponse(response);
+			handled = true;
+			return result;
+		}
+		finally
+		{
+			if(handled)
+				response.close();
+			else
+				response.abort();
+		}
+	}
+	
+	/**
+	 * Function used to call REST WS without reading the response.
+	 * WARNING : The returned response must be closed (or aborted) to release the connection
+	 * @param urlToCall : The URL of the WS
+	 * @param requestMessage : The message to send in the request (when POST is chosen)
+	 * @param requestType : The type of the request to send (POST, GET)
+	 * @return The response of the WS, giving access to the body stream
+	 * @throws ITException : An exception if there's an error
+	 */
+	public static WebServiceResponse openWebService(String urlToCall, String requestMessage, 
+			HttpRequestType requestType) throws ITException
+	{
+		HttpResponseCache cache = (requestType == HttpRequestType.Get) ? responseCache : null;
+		HttpResponseCache.Entry cachedEntry = null;
+		if(cache != null)
+		{
+			cachedEntry = cache.get(urlToCall);
+			if(cachedEntry != null && cachedEntry.isFresh())
+			{
+				WebServiceResponse cachedResponse = cache.createCachedResponse(new HttpGet(urlToCall), cachedEntry);
+				if(cachedResponse != null)
+				{
+					Log.d(LOG_TAG, "Response of %s read from the cache", urlToCall);
+					return cachedResponse;
+				}
+			}
+		}
+		
 		if(!ConnectivityUtils.isNetworkAvailable())
 		{
 			throw ITException.generateInternetConnectivityException();
 		}
 		
-		ITException callException = null;
-		HttpParams httpParams = new BasicHttpParams();
-		HttpConnectionParams.setConnectionTimeout(httpParams, ITApplication.HTTP_TIMEOUT);
-		HttpConnectionParams.setSoTimeout(httpParams, ITApplication.HTTP_TIMEOUT);
-    HttpClient httpclient = new DefaultHttpClient(httpParams);      
+    HttpClient httpclient = HttpClientManager.getHttpClient();      
     
     HttpUriRequest request;          
     
@@ -63,10 +168,10 @@ public class WebServiceEngine {
     	{
     		try
   			{
-    			Log.i(LOG_TAG, "Message sent to server : " + requestMessage);
-	    		StringEntity requestEntity = new StringEntity(requestMessage, HTTP.UTF_8);
-	    		requestEntity.setContentType(CONTENT_TYPE);
-	    		Log.d(LOG_TAG, "Request length is : " + requestEntity.getContentLength());
+    			Log.i(LOG_TAG, "Message sent to server : %s", requestMessage);
+	    		//The body is gzipped if the endpoint accepts it (see HttpCompression.setRequestCompression())
+	    		HttpEntity requestEntity = HttpCompression.createRequestEntity(urlToCall, requestMessage, CONTENT_TYPE);
+	    		Log.d(LOG_TAG, "Request length is : %d", requestEntity.getContentLength());
 	    		postRequest.setEntity(requestEntity);
   			}
   			catch (Exception ex)
@@ -85,32 +190,36 @@ public class WebServiceEngine {
     
     request.setHeader("Accept", CONTENT_TYPE);
     request.setHeader("Content-type", CONTENT_TYPE);
+    //The server can answer with a 304 response if the cached response is still valid
+    if(cachedEntry != null)
+    	cachedEntry.addValidators(request);
     
-    String resultMessage = "";        
+    //The call can be aborted by the task running it (see WebServiceFuture.cancel())
+    CallAbortHandle.registerRequest(request);
     try {  
         HttpResponse response = httpclient.execute(request);  
-        if(response.getEntity() != null)
+        Log.d(LOG_TAG, "Response received from server with status %d", response.getStatusLine().getStatusCode());
+        if(cache != null)
         {
-        	HttpEntity responseEntity = response.getEntity();
-        	resultMessage = EntityUtils.toString(responseEntity);
-        	Log.i(LOG_TAG, "Message received from server : " + resultMessage);
+        	WebServiceResponse cacheResponse = cache.handleNetworkResponse(urlToCall, request, response, cachedEntry);
+        	if(cacheResponse != null)
+        		return cacheResponse;
+        	//The cached body has been removed before the 304 response arrived : the call is sent again without the validators
+        	Log.d(LOG_TAG, "Cached response of %s removed during its revalidation, calling again", urlToCall);
+        	request.removeHeaders("If-None-Match");
+        	request.removeHeaders("If-Modified-Since");
+        	response = httpclient.execute(request);
+        	return cache.handleNetworkResponse(urlToCall, request, response, null);
         }
-        else
-        	resultMessage = "";
+        return new WebServiceResponse(request, response);
     }
     catch (Exception e) {  
     	String errorMessage = "Error while calling the WS - Ex : " + e.getMessage(); 
     	Log.e(LOG_TAG, errorMessage);
-      callException = new ITException(errorMessage, ITException.ITExceptionsType.CALL_ERROR);        
+      //The connection may be in an unknown state, we don't give it back to the pool
+      request.abort();
+      throw new ITException(errorMessage, ITException.ITExceptionsType.CALL_ERROR);        
     }  
-    finally
-    {
-    	httpclient.getConnectionManager().shutdown();
-    }
-    if(callException != null)
-    	throw callException;
-    
-    return resultMessage;
 	}
 
 	/**
@@ -136,6 +245,17 @@ public class WebServiceEngine {
 		return callWebService(urlToCall, "", HttpRequestType.Get);
 	}
 	
+	/**
+	 * Handler used to read the response of a WS as a stream
+	 * @author marcduvignaud
+	 *
+	 * @param <ResultType> : The type of the object built from the response
+	 */
+	public interface ResponseHandler<ResultType>
+	{
+		public ResultType handleResponse(WebServiceResponse response) throws ITException;
+	}
+	
 	/**
 	 * Enum used to choose the Http Request type when calling a WS
 	 * @author marcduvignaud
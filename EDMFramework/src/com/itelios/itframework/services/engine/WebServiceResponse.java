@@ -0,0 +1,172 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.exception.ITException.ITExceptionsType;
+
+/**
+ * Response of a web service call giving access to the body as a stream.
+ * The response holds a pooled connection : it must always be released with <code>close()</code>
+ * (or <code>abort()</code> if the body won't be read until the end)
+ * @author marcduvignaud
+ *
+ */
+public class WebServiceResponse {
+
+	private final HttpUriRequest request;
+	private final HttpResponse response;
+	private final boolean fromCache;
+	private PushbackInputStream content;
+
+	WebServiceResponse(HttpUriRequest request, HttpResponse response)
+	{
+		this(request, response, false);
+	}
+
+	WebServiceResponse(HttpUriRequest request, HttpResponse response, boolean fromCache)
+	{
+		this.request = request;
+		this.response = response;
+		this.fromCache = fromCache;
+	}
+
+	/**
+	 * Check if the body comes from the response cache (fresh response, or response revalidated by the server)
+	 * @return True if the body is read from the cache
+	 */
+	public boolean isFromCache()
+	{
+		return fromCache;
+	}
+
+	/**
+	 * Get the HTTP status code sent back by the server
+	 * @return The status code
+	 */
+	public int getStatusCode()
+	{
+		return response.getStatusLine().getStatusCode();
+	}
+
+	/**
+	 * Get the body of the response as a stream (empty stream if there is no body)
+	 * @return The body stream
+	 * @throws ITException : Exception of type CALL_ERROR if the body can't be read
+	 */
+	public InputStream getContent() throws ITException
+	{
+		if(content == null)
+		{
+			InputStream entityStream;
+			HttpEntity entity = response.getEntity();
+			try
+			{
+				entityStream = (entity != null) ? entity.getContent() : null;
+			}
+			catch (IOException ex)
+			{
+				throw new ITException("Error while reading the response - Ex : " + ex.getMessage(), ITExceptionsType.CALL_ERROR);
+			}
+			if(entityStream == null)
+				entityStream = new ByteArrayInputStream(new byte[0]);
+			content = new PushbackInputStream(entityStream);
+		}
+		return content;
+	}
+
+	/**
+	 * Read the whole body of the response as a string (empty string if there is no body).
+	 * The connection is released once the body is read.
+	 * @return The body of the response
+	 * @throws ITException : Exception of type CALL_ERROR if the body can't be read
+	 */
+	public String getContentAsString() throws ITException
+	{
+		HttpEntity entity = response.getEntity();
+		if(entity == null)
+			return "";
+		try
+		{
+			return EntityUtils.toString(entity);
+		}
+		catch (Exception ex)
+		{
+			throw new ITException("Error while reading the response - Ex : " + ex.getMessage(), ITExceptionsType.CALL_ERROR);
+		}
+	}
+
+	/**
+	 * Check if the server sent back an empty body. Doesn't consume any byte of the body.
+	 * @return True if the body is empty
+	 * @throws ITException : Exception of type CALL_ERROR if the body can't be read
+	 */
+	public boolean isEmpty() throws ITException
+	{
+		PushbackInputStream stream = (PushbackInputStream) getContent();
+		try
+		{
+			int firstByte = stream.read();
+			if(firstByte == -1)
+				return true;
+			stream.unread(firstByte);
+			return false;
+		}
+		catch (IOException ex)
+		{
+			throw new ITException("Error while reading the response - Ex : " + ex.getMessage(), ITExceptionsType.CALL_ERROR);
+		}
+	}
+
+	/**
+	 * Release the connection, reading the end of the body if needed so that the connection can be reused
+	 */
+	public void close()
+	{
+		HttpEntity entity = response.getEntity();
+		if(entity == null)
+			return;
+		try
+		{
+			entity.consumeContent();
+		}
+		catch (IOException ex)
+		{
+			abort();
+		}
+	}
+
+	/**
+	 * Abort the call : the connection is closed and won't be reused, and the body isn't cached
+	 */
+	public void abort()
+	{
+		request.abort();
+		if(fromCache)
+		{
+			//The body is a cached file
+			HttpEntity entity = response.getEntity();
+			try
+			{
+				if(entity != null)
+					entity.getContent().close();
+			}
+			catch (IOException ex)
+			{
+				//Nothing to do
+			}
+		}
+		else
+		{
+			HttpResponseCache.abortCaching(response);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.itelios.itframework.task;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.itelios.itframework.ITApplication;
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.listener.WebServiceCallback;
+
+/**
+ * Executor of the asynchronous web service calls (the "Async" methods of the callers).
+ * The calls run on a dedicated pool of ITApplication.WS_ASYNC_THREAD_COUNT threads, the other calls waiting in a queue,
+ * so that the independent calls of a screen run in parallel without one thread (or one AsyncTask) by call.
+ * @author marcduvignaud
+ *
+ */
+public class WebServiceExecutor {
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private static ThreadPoolExecutor executor;
+
+	/**
+	 * Change the number of threads running the calls
+	 * @param count : The number of threads (at least 1)
+	 */
+	public static synchronized void setThreadCount(int count)
+	{
+		ThreadPoolExecutor pool = getExecutor();
+		int poolSize = Math.max(1, count);
+		//The core size can't be greater than the max size
+		if(poolSize > pool.getMaximumPoolSize())
+		{
+			pool.setMaximumPoolSize(poolSize);
+			pool.setCorePoolSize(poolSize);
+		}
+		else
+		{
+			pool.setCorePoolSize(poolSize);
+			pool.setMaximumPoolSize(poolSize);
+		}
+	}
+
+	public static synchronized int getThreadCount()
+	{
+		return getExecutor().getMaximumPoolSize();
+	}
+
+	/**
+	 * Run a call in background
+	 * @param call : The call
+	 * @return The future of the call
+	 */
+	public static <ResultType> WebServiceFuture<ResultType> submit(WebServiceFuture.Call<ResultType> call)
+	{
+		final WebServiceFuture<ResultType> future = new WebServiceFuture<ResultType>(call);
+		try
+		{
+			getExecutor().execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					future.run();
+				}
+			});
+		}
+		catch (RejectedExecutionException ex)
+		{
+			future.complete(null, new ITException("Unable to run the call in background - Ex : " + ex.getMessage(), ITExceptionsType.CALL_ERROR));
+		}
+		return future;
+	}
+
+	/**
+	 * Run a call in background, the callback receiving its end on the main thread
+	 * @param call : The call
+	 * @param callback : The callback
+	 * @return The future of the call
+	 */
+	public static <ResultType> WebServiceFuture<ResultType> submit(WebServiceFuture.Call<ResultType> call, WebServiceCallback<? super ResultType> callback)
+	{
+		return submit(call).addCallback(callback);
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor()
+	{
+		if(executor == null)
+		{
+			executor = new ThreadPoolExecutor(ITApplication.WS_ASYNC_THREAD_COUNT, ITApplication.WS_ASYNC_THREAD_COUNT, 
+					0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "WebServiceCall-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,409 @@
+package com.itelios.itframework.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.listener.WebServiceCallback;
+import com.itelios.itframework.services.engine.CallAbortHandle;
+
+/**
+ * Result of an asynchronous web service call, run by WebServiceExecutor.
+ * The result can be waited for (<code>get()</code>, <code>getResult()</code>) or received on the main thread by callbacks.
+ * Cancelling the future aborts the HTTP call running. A call shared with identical calls (see SingleFlightGroup) is only
+ * aborted once all the callers have cancelled, the other callers still receive its result.
+ * Several futures can be joined with <code>all()</code> and <code>allOf()</code> : the calls run in parallel and the joined future
+ * completes with the slowest one.
+ * @author marcduvignaud
+ *
+ * @param <ResultType> : The type of the result
+ */
+public class WebServiceFuture<ResultType> implements Future<ResultType> {
+
+	private static final int STATE_PENDING = 0;
+	private static final int STATE_COMPLETED = 1;
+	private static final int STATE_FAILED = 2;
+	private static final int STATE_CANCELLED = 3;
+
+	private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Call executed in background
+	 * @param <ResultType> : The type of the result
+	 */
+	public interface Call<ResultType>
+	{
+		public ResultType execute() throws ITException;
+	}
+
+	private final Call<ResultType> call;
+	private final CallAbortHandle abortHandle = new CallAbortHandle();
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/*
+	 * State guarded by the future
+	 */
+	private int state = STATE_PENDING;
+	private ResultType result;
+	private ITException exception;
+	private Thread runningThread;
+	private final List<WebServiceCallback<? super ResultType>> callbacks = new ArrayList<WebServiceCallback<? super ResultType>>();
+	private final List<Runnable> completionListeners = new ArrayList<Runnable>();
+
+	/**
+	 * @param call : The call to run, null for a future completed by the combinators
+	 */
+	WebServiceFuture(Call<ResultType> call)
+	{
+		this.call = call;
+	}
+
+	/**
+	 * Run the call on the current thread, the abort handle being set for the HTTP calls it makes
+	 */
+	void run()
+	{
+		synchronized (this)
+		{
+			if(state != STATE_PENDING)
+				return;
+			runningThread = Thread.currentThread();
+		}
+
+		CallAbortHandle.setCurrent(abortHandle);
+		try
+		{
+			complete(call.execute(), null);
+		}
+		catch (ITException ex)
+		{
+			complete(null, ex);
+		}
+		catch (RuntimeException ex)
+		{
+			complete(null, new ITException("Error while running the call - Ex : " + ex, ITExceptionsType.CALL_ERROR));
+		}
+		finally
+		{
+			CallAbortHandle.setCurrent(null);
+			synchronized (this)
+			{
+				runningThread = null;
+			}
+			//The interruption of a cancelled call must not reach the next call run by the thread
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Complete the future with a result or an exception
+	 * @return False if the future was already completed or cancelled
+	 */
+	boolean complete(ResultType result, ITException exception)
+	{
+		synchronized (this)
+		{
+			if(state != STATE_PENDING)
+				return false;
+			this.result = result;
+			this.exception = exception;
+			state = (exception != null) ? STATE_FAILED : STATE_COMPLETED;
+		}
+		onDone();
+		return true;
+	}
+
+	/**
+	 * Cancel the call : the HTTP call running is aborted, and the thread is interrupted if <code>mayInterruptIfRunning</code>.
+	 * The callbacks receive <code>onCallCancelled()</code>
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		synchronized (this)
+		{
+			if(state != STATE_PENDING)
+				return false;
+			state = STATE_CANCELLED;
+			//Interrupted under the lock : the thread can't have moved on to another call
+			if(mayInterruptIfRunning && runningThread != null)
+				runningThread.interrupt();
+		}
+		//Aborted without the lock, as the listeners are run : aborting closes the connection and may run code of the shared call
+		abortHandle.abort();
+		onDone();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled()
+	{
+		return state == STATE_CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone()
+	{
+		return state != STATE_PENDING;
+	}
+
+	@Override
+	public ResultType get() throws InterruptedException, ExecutionException
+	{
+		done.await();
+		return report();
+	}
+
+	@Override
+	public ResultType get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		if(!done.await(timeout, unit))
+			throw new TimeoutException();
+		return report();
+	}
+
+	/**
+	 * Wait for the result of the call
+	 * @return The result
+	 * @throws ITException : The exception raised by the call, or an exception of type CALL_ERROR if the call was cancelled
+	 * or the thread interrupted
+	 */
+	public ResultType getResult() throws ITException
+	{
+		try
+		{
+			done.await();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new ITException("Interrupted while waiting for the call", ITExceptionsType.CALL_ERROR);
+		}
+
+		synchronized (this)
+		{
+			if(state == STATE_CANCELLED)
+				throw new ITException("The call has been cancelled", ITExceptionsType.CALL_ERROR);
+			if(exception != null)
+				throw exception;
+			return result;
+		}
+	}
+
+	/**
+	 * Add a callback receiving the end of the call on the main thread (immediately posted if the call is over)
+	 * @param callback : The callback
+	 * @return This future
+	 */
+	public WebServiceFuture<ResultType> addCallback(WebServiceCallback<? super ResultType> callback)
+	{
+		synchronized (this)
+		{
+			if(state == STATE_PENDING)
+			{
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		postCallback(callback);
+		return this;
+	}
+
+	/**
+	 * Join futures of the same type : the joined future completes with the list of the results, in the order of the futures.
+	 * If a call fails, the joined future fails with its exception and the other calls are cancelled.
+	 * Cancelling the joined future cancels all the calls
+	 * @param futures : The futures to join
+	 * @return The joined future
+	 */
+	public static <ResultType> WebServiceFuture<List<ResultType>> all(final List<? extends WebServiceFuture<? extends ResultType>> futures)
+	{
+		final WebServiceFuture<List<ResultType>> joinedFuture = new WebServiceFuture<List<ResultType>>(null);
+		if(futures.isEmpty())
+		{
+			joinedFuture.complete(new ArrayList<ResultType>(), null);
+			return joinedFuture;
+		}
+
+		final int[] remainingCount = { futures.size() };
+		Runnable completionListener = new Runnable() {
+			@Override
+			public void run()
+			{
+				ITException firstException = null;
+				boolean cancelled = false;
+				synchronized (remainingCount)
+				{
+					remainingCount[0]--;
+					for(WebServiceFuture<? extends ResultType> future : futures)
+					{
+						synchronized (future)
+						{
+							if(future.state == STATE_FAILED && firstException == null)
+								firstException = future.exception;
+							else if(future.state == STATE_CANCELLED)
+								cancelled = true;
+						}
+					}
+					if(firstException == null && !cancelled && remainingCount[0] > 0)
+						return;
+				}
+
+				if(firstException != null || cancelled)
+				{
+					//The other calls are cancelled before the joined future is completed
+					for(WebServiceFuture<? extends ResultType> future : futures)
+						future.cancel(true);
+					if(firstException != null)
+						joinedFuture.complete(null, firstException);
+					else
+						joinedFuture.cancel(false);
+					return;
+				}
+
+				List<ResultType> results = new ArrayList<ResultType>(futures.size());
+				for(WebServiceFuture<? extends ResultType> future : futures)
+				{
+					synchronized (future)
+					{
+						results.add(future.result);
+					}
+				}
+				joinedFuture.complete(results, null);
+			}
+		};
+
+		//Cancelling the joined future cancels the calls
+		joinedFuture.addCompletionListener(new Runnable() {
+			@Override
+			public void run()
+			{
+				if(joinedFuture.isCancelled())
+				{
+					for(WebServiceFuture<? extends ResultType> future : futures)
+						future.cancel(true);
+				}
+			}
+		});
+		for(WebServiceFuture<? extends ResultType> future : futures)
+			future.addCompletionListener(completionListener);
+		return joinedFuture;
+	}
+
+	/**
+	 * Join futures of different types : the joined future completes once all the calls are over,
+	 * the results being then read with <code>getResult()</code> on each future without waiting.
+	 * If a call fails, the joined future fails with its exception and the other calls are cancelled
+	 * @param futures : The futures to join
+	 * @return The joined future, with a null result
+	 */
+	public static WebServiceFuture<Void> allOf(WebServiceFuture<?>... futures)
+	{
+		final WebServiceFuture<List<Object>> joinedResults = WebServiceFuture.<Object>all(Arrays.<WebServiceFuture<?>>asList(futures));
+		final WebServiceFuture<Void> joinedFuture = new WebServiceFuture<Void>(null);
+		joinedResults.addCompletionListener(new Runnable() {
+			@Override
+			public void run()
+			{
+				synchronized (joinedResults)
+				{
+					if(joinedResults.state == STATE_CANCELLED)
+					{
+						joinedFuture.cancel(false);
+						return;
+					}
+				}
+				joinedFuture.complete(null, joinedResults.exception);
+			}
+		});
+		joinedFuture.addCompletionListener(new Runnable() {
+			@Override
+			public void run()
+			{
+				if(joinedFuture.isCancelled())
+					joinedResults.cancel(true);
+			}
+		});
+		return joinedFuture;
+	}
+
+	/**
+	 * Add a listener run on the thread completing the future (immediately run if the call is over)
+	 */
+	private void addCompletionListener(Runnable listener)
+	{
+		synchronized (this)
+		{
+			if(state == STATE_PENDING)
+			{
+				completionListeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	private void onDone()
+	{
+		List<Runnable> listeners;
+		List<WebServiceCallback<? super ResultType>> doneCallbacks;
+		synchronized (this)
+		{
+			listeners = new ArrayList<Runnable>(completionListeners);
+			doneCallbacks = new ArrayList<WebServiceCallback<? super ResultType>>(callbacks);
+			completionListeners.clear();
+			callbacks.clear();
+		}
+		done.countDown();
+
+		for(Runnable listener : listeners)
+			listener.run();
+		for(WebServiceCallback<? super ResultType> callback : doneCallbacks)
+			postCallback(callback);
+	}
+
+	private void postCallback(final WebServiceCallback<? super ResultType> callback)
+	{
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				int doneState;
+				ResultType doneResult;
+				ITException doneException;
+				synchronized (WebServiceFuture.this)
+				{
+					doneState = state;
+					doneResult = result;
+					doneException = exception;
+				}
+				if(doneState == STATE_CANCELLED)
+					callback.onCallCancelled();
+				else if(doneState == STATE_FAILED)
+					callback.onCallRaisedError(doneException);
+				else
+					callback.onCallCompleted(doneResult);
+			}
+		});
+	}
+
+	private synchronized ResultType report() throws ExecutionException
+	{
+		if(state == STATE_CANCELLED)
+			throw new CancellationException("The call has been cancelled");
+		if(exception != null)
+			throw new ExecutionException(exception);
+		return result;
+	}
+}
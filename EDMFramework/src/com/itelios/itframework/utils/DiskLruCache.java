@@ -0,0 +1,819 @@
+package com.itelios.itframework.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of files bounded by their total size in bytes, evicting the least recently used entries.
+ * The state of the cache is kept in a journal file, read when the cache is opened : the cache directory is never listed.
+ * Each operation appends a line to the journal :
+ * <ul>
+ * <li>DIRTY key : an entry is being written</li>
+ * <li>CLEAN key size : the entry has been written successfully</li>
+ * <li>REMOVE key : the entry has been removed (or its writing failed)</li>
+ * <li>READ key : the entry has been read (used to restore the LRU order)</li>
+ * </ul>
+ * The entries are written in a temporary file renamed once complete, so a reader never sees a partial file.
+ * The journal is compacted when it contains too many redundant lines.
+ * @author marcduvignaud
+ *
+ */
+public class DiskLruCache {
+
+	private static final String LOG_TAG = "DiskLruCache";
+
+	private static final String JOURNAL_FILE = "journal";
+	private static final String JOURNAL_FILE_TMP = "journal.tmp";
+	private static final String MAGIC = "itframework.DiskLruCache";
+	private static final String VERSION = "1";
+	private static final String CLEAN = "CLEAN";
+	private static final String DIRTY = "DIRTY";
+	private static final String REMOVE = "REMOVE";
+	private static final String READ = "READ";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	private final File directory;
+	private final File journalFile;
+	private final File journalFileTmp;
+	private long maxSize;
+	private long size = 0;
+	private Writer journalWriter;
+	private int redundantOpCount;
+	//Incremented on each commit, to know if an entry has been written again since it has been read
+	private long nextSequenceNumber = 0;
+	/**
+	 * The entries in access order : iterating gives the least recently used entries first
+	 */
+	private final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	private DiskLruCache(File directory, long maxSize)
+	{
+		this.directory = directory;
+		this.journalFile = new File(directory, JOURNAL_FILE);
+		this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Open the cache stored in a directory, creating it if needed
+	 * @param directory : The directory of the cache (must be used by this cache only). When there is no valid journal,
+	 * only the files named like the files of the cache are deleted
+	 * @param maxSize : The max size of the cache in bytes
+	 * @return The cache
+	 * @throws IOException : If the directory can't be read or written
+	 */
+	public static DiskLruCache open(File directory, long maxSize) throws IOException
+	{
+		if(maxSize <= 0)
+			throw new IllegalArgumentException("maxSize <= 0");
+
+		DiskLruCache cache = new DiskLruCache(directory, maxSize);
+		if(cache.journalFile.exists())
+		{
+			try
+			{
+				cache.readJournal();
+				cache.processJournal();
+				cache.journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cache.journalFile, true), "US-ASCII"));
+				return cache;
+			}
+			catch (IOException ex)
+			{
+				Log.w(LOG_TAG, "Corrupted journal in " + directory + ", the cache is cleared - Ex : " + ex.getMessage());
+				deleteCacheFiles(directory);
+			}
+		}
+		else if(directory.exists())
+		{
+			//No journal : the entries left by an old cache are unknown, the other files are kept
+			deleteCacheFiles(directory);
+		}
+
+		directory.mkdirs();
+		cache = new DiskLruCache(directory, maxSize);
+		cache.rebuildJournal();
+		return cache;
+	}
+
+	/**
+	 * Compute a key usable by the cache from any string (SHA-1 of the string in hexadecimal)
+	 * @param value : The string to convert (an URL for instance)
+	 * @return The key
+	 */
+	public static String hashKey(String value)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(value.getBytes("UTF-8"));
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for(byte b : hash)
+			{
+				key.append(Character.forDigit((b >> 4) & 0xF, 16));
+				key.append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+		}
+		catch (NoSuchAlgorithmException ex)
+		{
+			throw new AssertionError(ex);
+		}
+		catch (IOException ex)
+		{
+			throw new AssertionError(ex);
+		}
+	}
+
+	/**
+	 * Get the file of an entry
+	 * @param key : The key of the entry
+	 * @return The file, or null if there is no complete entry for this key
+	 */
+	public synchronized File get(String key)
+	{
+		Entry entry = getReadableEntry(key);
+		if(entry == null)
+			return null;
+		onEntryRead(entry);
+		return entry.getCleanFile();
+	}
+
+	/**
+	 * Open the file of an entry. The file stays readable while the snapshot is open, even if the entry is evicted
+	 * or written again meanwhile : the snapshot must be closed
+	 * @param key : The key of the entry
+	 * @return The snapshot of the entry, or null if there is no complete entry for this key
+	 */
+	public synchronized Snapshot getSnapshot(String key)
+	{
+		Entry entry = getReadableEntry(key);
+		if(entry == null)
+			return null;
+		FileInputStream input;
+		try
+		{
+			input = new FileInputStream(entry.getCleanFile());
+		}
+		catch (IOException ex)
+		{
+			Log.w(LOG_TAG, "Unable to open " + entry.getCleanFile() + " - Ex : " + ex.getMessage());
+			missCount++;
+			return null;
+		}
+		onEntryRead(entry);
+		return new Snapshot(entry, entry.sequenceNumber, input);
+	}
+
+	/**
+	 * Start writing an entry
+	 * @param key : The key of the entry
+	 * @return The editor of the entry, or null if the entry is already being written
+	 */
+	public synchronized Editor edit(String key)
+	{
+		checkNotClosed();
+		validateKey(key);
+		Entry entry = lruEntries.get(key);
+		if(entry == null)
+		{
+			entry = new Entry(key);
+			lruEntries.put(key, entry);
+		}
+		else if(entry.currentEditor != null)
+		{
+			return null;
+		}
+
+		Editor editor = new Editor(entry);
+		entry.currentEditor = editor;
+		//Flushed so that a crash during the writing leaves a DIRTY line to clean up
+		appendJournal(DIRTY + ' ' + key + '\n', true);
+		return editor;
+	}
+
+	/**
+	 * Remove an entry (does nothing if the entry is being written)
+	 * @param key : The key of the entry
+	 * @return True if an entry has been removed
+	 */
+	public synchronized boolean remove(String key)
+	{
+		checkNotClosed();
+		validateKey(key);
+		Entry entry = lruEntries.get(key);
+		if(entry == null || entry.currentEditor != null)
+			return false;
+		removeEntry(entry);
+		if(journalRebuildRequired())
+			rebuildJournalQuietly();
+		return true;
+	}
+
+	/**
+	 * Get the total size of the entries in bytes
+	 * @return The size of the cache
+	 */
+	public synchronized long size()
+	{
+		return size;
+	}
+
+	/**
+	 * Get the max size of the cache in bytes
+	 * @return The max size
+	 */
+	public synchronized long getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Change the max size of the cache, evicting the least recently used entries if needed
+	 * @param maxSize : The new max size in bytes
+	 */
+	public synchronized void setMaxSize(long maxSize)
+	{
+		this.maxSize = maxSize;
+		trimToSize();
+	}
+
+	public synchronized long getHitCount()
+	{
+		return hitCount;
+	}
+
+	public synchronized long getMissCount()
+	{
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount()
+	{
+		return evictionCount;
+	}
+
+
+	/**
+	 * Get the directory of the cache
+	 * @return The directory
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Remove all the entries that are not being written
+	 */
+	public synchronized void clear()
+	{
+		checkNotClosed();
+		List<Entry> entries = new ArrayList<Entry>(lruEntries.values());
+		for(Entry entry : entries)
+		{
+			if(entry.currentEditor == null)
+				removeEntry(entry);
+		}
+		rebuildJournalQuietly();
+	}
+
+	/**
+	 * Write the pending journal lines on the disk
+	 */
+	public synchronized void flush()
+	{
+		if(journalWriter == null)
+			return;
+		try
+		{
+			journalWriter.flush();
+		}
+		catch (IOException ex)
+		{
+			Log.w(LOG_TAG, "Unable to flush the journal - Ex : " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Close the cache. The entries being written are aborted
+	 */
+	public synchronized void close()
+	{
+		if(journalWriter == null)
+			return;
+		for(Entry entry : new ArrayList<Entry>(lruEntries.values()))
+		{
+			if(entry.currentEditor != null)
+				completeEdit(entry.currentEditor, false);
+		}
+		try
+		{
+			journalWriter.close();
+		}
+		catch (IOException ex)
+		{
+			//The journal is replayed on the next opening anyway
+		}
+		journalWriter = null;
+	}
+
+	/**
+	 * Iterate on the keys of the entries, from the least recently used
+	 * @return The keys of the readable entries
+	 */
+	public synchronized List<String> keys()
+	{
+		List<String> keys = new ArrayList<String>(lruEntries.size());
+		for(Map.Entry<String, Entry> entry : lruEntries.entrySet())
+		{
+			if(entry.getValue().readable)
+				keys.add(entry.getKey());
+		}
+		return keys;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "DiskLruCache[entries=" + lruEntries.size() + ",size=" + size + ",maxSize=" + maxSize + ",hits=" + hitCount
+				+ ",misses=" + missCount + ",evictions=" + evictionCount + "]";
+	}
+
+	private void readJournal() throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "US-ASCII"));
+		try
+		{
+			String magic = reader.readLine();
+			String version = reader.readLine();
+			String blank = reader.readLine();
+			if(!MAGIC.equals(magic) || !VERSION.equals(version) || !"".equals(blank))
+				throw new IOException("Unexpected journal header : [" + magic + ", " + version + ", " + blank + "]");
+
+			int lineCount = 0;
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				readJournalLine(line);
+				lineCount++;
+			}
+			redundantOpCount = lineCount - lruEntries.size();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private void readJournalLine(String line) throws IOException
+	{
+		String[] parts = line.split(" ");
+		if(parts.length < 2)
+			throw new IOException("Unexpected journal line : " + line);
+
+		String key = parts[1];
+		if(parts[0].equals(REMOVE) && parts.length == 2)
+		{
+			lruEntries.remove(key);
+			return;
+		}
+
+		Entry entry = lruEntries.get(key);
+		if(entry == null)
+		{
+			entry = new Entry(key);
+			lruEntries.put(key, entry);
+		}
+
+		if(parts[0].equals(CLEAN) && parts.length == 3)
+		{
+			entry.readable = true;
+			entry.currentEditor = null;
+			try
+			{
+				entry.length = Long.parseLong(parts[2]);
+			}
+			catch (NumberFormatException ex)
+			{
+				throw new IOException("Unexpected journal line : " + line);
+			}
+		}
+		else if(parts[0].equals(DIRTY) && parts.length == 2)
+		{
+			entry.currentEditor = new Editor(entry);
+		}
+		else if(!(parts[0].equals(READ) && parts.length == 2))
+		{
+			throw new IOException("Unexpected journal line : " + line);
+		}
+	}
+
+	/**
+	 * Compute the size of the cache and delete the entries left dirty by the last session
+	 */
+	private void processJournal()
+	{
+		deleteIfExists(journalFileTmp);
+		for(Iterator<Entry> iterator = lruEntries.values().iterator(); iterator.hasNext(); )
+		{
+			Entry entry = iterator.next();
+			if(entry.currentEditor == null)
+			{
+				size += entry.length;
+			}
+			else
+			{
+				entry.currentEditor = null;
+				deleteIfExists(entry.getCleanFile());
+				deleteIfExists(entry.getDirtyFile());
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Write a new journal containing only the current entries, replacing the existing one
+	 */
+	private void rebuildJournal() throws IOException
+	{
+		if(journalWriter != null)
+			journalWriter.close();
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFileTmp), "US-ASCII"));
+		try
+		{
+			writer.write(MAGIC + "\n" + VERSION + "\n\n");
+			for(Entry entry : lruEntries.values())
+			{
+				if(entry.currentEditor != null)
+					writer.write(DIRTY + ' ' + entry.key + '\n');
+				else
+					writer.write(CLEAN + ' ' + entry.key + ' ' + entry.length + '\n');
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		if(!journalFileTmp.renameTo(journalFile))
+		{
+			//Some file systems don't replace the existing file
+			deleteIfExists(journalFile);
+			if(!journalFileTmp.renameTo(journalFile))
+				throw new IOException("Unable to rename " + journalFileTmp);
+		}
+		journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), "US-ASCII"));
+		redundantOpCount = 0;
+	}
+
+	private void rebuildJournalQuietly()
+	{
+		try
+		{
+			rebuildJournal();
+		}
+		catch (IOException ex)
+		{
+			Log.w(LOG_TAG, "Unable to rebuild the journal - Ex : " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Get a complete entry, counting a miss if there is none
+	 */
+	private Entry getReadableEntry(String key)
+	{
+		checkNotClosed();
+		validateKey(key);
+		Entry entry = lruEntries.get(key);
+		if(entry == null || !entry.readable)
+		{
+			missCount++;
+			return null;
+		}
+
+		if(!entry.getCleanFile().exists())
+		{
+			//Deleted outside of the cache
+			missCount++;
+			removeEntry(entry);
+			return null;
+		}
+		return entry;
+	}
+
+	private void onEntryRead(Entry entry)
+	{
+		hitCount++;
+		redundantOpCount++;
+		appendJournal(READ + ' ' + entry.key + '\n', false);
+		if(journalRebuildRequired())
+			rebuildJournalQuietly();
+	}
+
+	/**
+	 * Remove an entry read by a snapshot, if it hasn't been written again or removed since
+	 */
+	private synchronized boolean removeSnapshotEntry(Snapshot snapshot)
+	{
+		Entry entry = snapshot.entry;
+		if(journalWriter == null || lruEntries.get(entry.key) != entry || entry.sequenceNumber != snapshot.sequenceNumber
+				|| entry.currentEditor != null)
+			return false;
+		removeEntry(entry);
+		if(journalRebuildRequired())
+			rebuildJournalQuietly();
+		return true;
+	}
+
+	private boolean journalRebuildRequired()
+	{
+		return redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= lruEntries.size();
+	}
+
+	private void appendJournal(String line, boolean flush)
+	{
+		try
+		{
+			journalWriter.write(line);
+			if(flush)
+				journalWriter.flush();
+		}
+		catch (IOException ex)
+		{
+			//The journal is rebuilt from the entries in memory on the next compaction
+			Log.w(LOG_TAG, "Unable to write the journal - Ex : " + ex.getMessage());
+		}
+	}
+
+	private synchronized void completeEdit(Editor editor, boolean success)
+	{
+		Entry entry = editor.entry;
+		if(entry.currentEditor != editor)
+			throw new IllegalStateException("The editor of " + entry.key + " is not the current one");
+		entry.currentEditor = null;
+
+		File dirtyFile = entry.getDirtyFile();
+		if(success && dirtyFile.exists())
+		{
+			File cleanFile = entry.getCleanFile();
+			long oldLength = entry.length;
+			deleteIfExists(cleanFile);
+			if(dirtyFile.renameTo(cleanFile))
+			{
+				entry.readable = true;
+				entry.length = cleanFile.length();
+				entry.sequenceNumber = ++nextSequenceNumber;
+				size = size - oldLength + entry.length;
+				redundantOpCount++;
+				appendJournal(CLEAN + ' ' + entry.key + ' ' + entry.length + '\n', true);
+				trimToSize();
+				if(journalRebuildRequired())
+					rebuildJournalQuietly();
+				return;
+			}
+			Log.w(LOG_TAG, "Unable to rename " + dirtyFile);
+			//The old clean file has been deleted
+			entry.readable = false;
+			size -= oldLength;
+		}
+
+		deleteIfExists(dirtyFile);
+		if(!entry.readable)
+		{
+			lruEntries.remove(entry.key);
+			redundantOpCount++;
+			appendJournal(REMOVE + ' ' + entry.key + '\n', true);
+		}
+		if(journalRebuildRequired())
+			rebuildJournalQuietly();
+	}
+
+	private void removeEntry(Entry entry)
+	{
+		deleteIfExists(entry.getCleanFile());
+		if(entry.readable)
+			size -= entry.length;
+		lruEntries.remove(entry.key);
+		redundantOpCount++;
+		appendJournal(REMOVE + ' ' + entry.key + '\n', false);
+	}
+
+	private void trimToSize()
+	{
+		if(size <= maxSize)
+			return;
+		//Copy of the entries : removing an entry changes the map
+		List<Entry> entries = new ArrayList<Entry>(lruEntries.values());
+		for(Entry entry : entries)
+		{
+			if(size <= maxSize)
+				break;
+			if(entry.currentEditor == null && entry.readable)
+			{
+				removeEntry(entry);
+				evictionCount++;
+			}
+		}
+	}
+
+	private void checkNotClosed()
+	{
+		if(journalWriter == null)
+			throw new IllegalStateException("The cache is closed");
+	}
+
+	private static void validateKey(String key)
+	{
+		if(key == null || key.length() == 0 || key.length() > 120)
+			throw new IllegalArgumentException("Invalid key : " + key);
+		for(int i = 0; i < key.length(); i++)
+		{
+			char c = key.charAt(i);
+			if(!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-'))
+				throw new IllegalArgumentException("Keys must match [a-z0-9_-]{1,120} : " + key);
+		}
+	}
+
+	private static void deleteIfExists(File file)
+	{
+		if(file.exists() && !file.delete())
+			Log.w(LOG_TAG, "Unable to delete " + file);
+	}
+
+	/**
+	 * Delete the files of the cache (journal, entries and temporary files of the entries), the other files being kept
+	 */
+	private static void deleteCacheFiles(File directory)
+	{
+		File[] files = directory.listFiles();
+		if(files == null)
+			return;
+		for(File file : files)
+		{
+			if(file.isFile() && isCacheFileName(file.getName()))
+				deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Check if a file name is the one of the journal, of an entry ("key") or of a temporary file of an entry ("key[.xxx].tmp")
+	 */
+	static boolean isCacheFileName(String name)
+	{
+		if(name.equals(JOURNAL_FILE) || name.equals(JOURNAL_FILE_TMP))
+			return true;
+		int extensionIndex = name.indexOf('.');
+		String key = (extensionIndex >= 0) ? name.substring(0, extensionIndex) : name;
+		if(extensionIndex >= 0 && !name.endsWith(TMP_SUFFIX))
+			return false;
+		try
+		{
+			validateKey(key);
+			return true;
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Writing of an entry : the data is written in <code>getFile()</code>, then the editor must be committed or aborted.
+	 */
+	public final class Editor
+	{
+		private final Entry entry;
+		private boolean done;
+
+		private Editor(Entry entry)
+		{
+			this.entry = entry;
+		}
+
+		/**
+		 * Get the temporary file in which the entry must be written
+		 * @return The file to write
+		 */
+		public File getFile()
+		{
+			return entry.getDirtyFile();
+		}
+
+		/**
+		 * Publish the written file as the new value of the entry
+		 */
+		public void commit()
+		{
+			if(done)
+				return;
+			done = true;
+			completeEdit(this, true);
+		}
+
+		/**
+		 * Discard the written file. The previous value of the entry (if any) is kept
+		 */
+		public void abort()
+		{
+			if(done)
+				return;
+			done = true;
+			completeEdit(this, false);
+		}
+	}
+
+	/**
+	 * Value of an entry when it has been read, see <code>getSnapshot(key)</code>
+	 */
+	public final class Snapshot implements Closeable
+	{
+		private final Entry entry;
+		private final long sequenceNumber;
+		private final FileInputStream input;
+
+		private Snapshot(Entry entry, long sequenceNumber, FileInputStream input)
+		{
+			this.entry = entry;
+			this.sequenceNumber = sequenceNumber;
+			this.input = input;
+		}
+
+		/**
+		 * Get the stream of the file, closed with the snapshot
+		 * @return The stream, its position can be changed with its channel
+		 */
+		public FileInputStream getInputStream()
+		{
+			return input;
+		}
+
+		/**
+		 * Remove the entry (a corrupted file for instance), unless it has been written again since the snapshot
+		 * @return True if the entry has been removed
+		 */
+		public boolean remove()
+		{
+			return removeSnapshotEntry(this);
+		}
+
+		@Override
+		public void close()
+		{
+			try
+			{
+				input.close();
+			}
+			catch (IOException ex)
+			{
+				//Nothing to do
+			}
+		}
+	}
+
+	private final class Entry
+	{
+		private final String key;
+		private long length;
+		private boolean readable;
+		//Sequence number of the last commit
+		private long sequenceNumber;
+		private Editor currentEditor;
+
+		private Entry(String key)
+		{
+			this.key = key;
+		}
+
+		private File getCleanFile()
+		{
+			return new File(directory, key);
+		}
+
+		private File getDirtyFile()
+		{
+			return new File(directory, key + TMP_SUFFIX);
+		}
+	}
+}
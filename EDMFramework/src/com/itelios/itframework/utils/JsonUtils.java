@@ -1,11 +1,17 @@
 package com.itelios.itframework.utils;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.itelios.itframework.exception.ITException;
 import com.itelios.itframework.exception.ITException.ITExceptionsType;
 
@@ -16,19 +22,107 @@ import com.itelios.itframework.exception.ITException.ITExceptionsType;
  */
 public class JsonUtils {
 
-	//Global Json mapper object
-	private static ObjectMapper jsonMapper;
+	private static final String LOG_TAG = "JsonUtils";
+	
+	//Global Json mapper object, created when the class is loaded so that it is safely shared between threads
+	private static final ObjectMapper jsonMapper = createJsonMapper();
+	
+	//Immutable readers & writers cached by target type, to avoid resolving the (de)serializers on each call
+	private static final ConcurrentHashMap<Class<?>, ObjectReader> objectReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+	private static final ConcurrentHashMap<Class<?>, ObjectReader> listReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+	private static final ConcurrentHashMap<List<Class<?>>, ObjectReader> hashMapReaders = new ConcurrentHashMap<List<Class<?>>, ObjectReader>();
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter> objectWriters = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+	
+	private static ObjectMapper createJsonMapper()
+	{
+		ObjectMapper mapper = new ObjectMapper();
+		// We indicate to the parser not to fail in case of unknown properties, for backward compatibility reasons
+    // See http://stackoverflow.com/questions/6300311/java-jackson-org-codehaus-jackson-map-exc-unrecognizedpropertyexception
+		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		return mapper;
+	}
+	
 	private static ObjectMapper getJsonMapper()
 	{
-		if(jsonMapper == null)
+		return jsonMapper;
+	}
+	
+	private static ObjectReader getObjectReader(Class<?> valueType)
+	{
+		ObjectReader reader = objectReaders.get(valueType);
+		if(reader == null)
 		{
-			jsonMapper = new ObjectMapper();
-			// We indicate to the parser not to fail in case of unknown properties, for backward compatibility reasons
-	    // See http://stackoverflow.com/questions/6300311/java-jackson-org-codehaus-jackson-map-exc-unrecognizedpropertyexception
-			jsonMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+			reader = getJsonMapper().reader(valueType);
+			ObjectReader existingReader = objectReaders.putIfAbsent(valueType, reader);
+			if(existingReader != null)
+				reader = existingReader;
+		}
+		return reader;
+	}
+	
+	private static ObjectReader getListReader(Class<?> valueType)
+	{
+		ObjectReader reader = listReaders.get(valueType);
+		if(reader == null)
+		{
+			reader = getJsonMapper().reader(getJsonMapper().getTypeFactory().constructCollectionType(List.class, valueType));
+			ObjectReader existingReader = listReaders.putIfAbsent(valueType, reader);
+			if(existingReader != null)
+				reader = existingReader;
+		}
+		return reader;
+	}
+	
+	private static ObjectReader getHashMapReader(Class<?> keyType, Class<?> valueType)
+	{
+		List<Class<?>> readerKey = Arrays.<Class<?>>asList(keyType, valueType);
+		ObjectReader reader = hashMapReaders.get(readerKey);
+		if(reader == null)
+		{
+			reader = getJsonMapper().reader(getJsonMapper().getTypeFactory().constructMapType(HashMap.class, keyType, valueType));
+			ObjectReader existingReader = hashMapReaders.putIfAbsent(readerKey, reader);
+			if(existingReader != null)
+				reader = existingReader;
+		}
+		return reader;
+	}
+	
+	private static ObjectWriter getObjectWriter(Class<?> valueType)
+	{
+		ObjectWriter writer = objectWriters.get(valueType);
+		if(writer == null)
+		{
+			writer = getJsonMapper().writerWithType(valueType);
+			ObjectWriter existingWriter = objectWriters.putIfAbsent(valueType, writer);
+			if(existingWriter != null)
+				writer = existingWriter;
+		}
+		return writer;
+	}
+	
+	/**
+	 * Resolve the JSON serializers and deserializers of the given model classes (single objects and lists),
+	 * so that the first call using them doesn't pay the introspection cost.
+	 * Should be called from a background thread when the application starts.
+	 * @param modelClasses : The classes that will be (de)serialized
+	 */
+	public static void warmUp(Class<?>... modelClasses)
+	{
+		for(Class<?> modelClass : modelClasses)
+		{
+			try
+			{
+				getObjectReader(modelClass);
+				getListReader(modelClass);
+				getObjectWriter(modelClass);
+				getJsonMapper().canSerialize(modelClass);
+			}
+			catch (Exception ex)
+			{
+				//The error will be raised again on the real call, we just log it here
+				Log.w(LOG_TAG, "Unable to warm up the JSON mapper for " + modelClass.getName() + " - Ex : " + ex.getMessage());
+			}
 		}
-		
-		return jsonMapper;
 	}
 	
 	public static <ObjectClass> ObjectClass deserializeJson(InputStream inputStream, Class<? extends ObjectClass> valueType)
@@ -36,7 +130,7 @@ public class JsonUtils {
 	{
     try
     {
-      final ObjectClass businessObject = getJsonMapper().readValue(inputStream, valueType);
+      final ObjectClass businessObject = getObjectReader(valueType).readValue(inputStream);
       return businessObject;
     }
     catch (Exception exception)
@@ -50,7 +144,7 @@ public class JsonUtils {
 	{
     try
     {
-      final ObjectClass businessObject = getJsonMapper().readValue(inputJson, valueType);
+      final ObjectClass businessObject = getObjectReader(valueType).readValue(inputJson);
       return businessObject;
     }
     catch (Exception exception)
@@ -59,12 +153,69 @@ public class JsonUtils {
     }
 	}
 	
+	public static <ObjectClass> ObjectClass deserializeJson(JsonParser jsonParser, Class<? extends ObjectClass> valueType)
+		throws ITException
+	{
+    try
+    {
+      final ObjectClass businessObject = getObjectReader(valueType).readValue(jsonParser);
+      return businessObject;
+    }
+    catch (Exception exception)
+    {
+      throw new ITException(exception.getMessage(), ITExceptionsType.PARSE_ERROR);
+    }
+	}
+	
+	/**
+	 * Open a parser on a stream containing a JSON array, positioned on the start of the array.
+	 * The elements can then be read one by one with <code>deserializeJson(JsonParser, Class)</code>
+	 * @param inputStream : The stream containing the JSON array
+	 * @return The parser
+	 * @throws ITException : Exception of type PARSE_ERROR if the stream doesn't start with an array
+	 */
+	public static JsonParser openJsonArray(InputStream inputStream) throws ITException
+	{
+		try
+		{
+			JsonParser jsonParser = getJsonMapper().getFactory().createParser(inputStream);
+			if(jsonParser.nextToken() != JsonToken.START_ARRAY)
+			{
+				jsonParser.close();
+				throw new ITException("The JSON content is not an array", ITExceptionsType.PARSE_ERROR);
+			}
+			return jsonParser;
+		}
+		catch (ITException exception)
+		{
+			throw exception;
+		}
+		catch (Exception exception)
+		{
+			throw new ITException(exception.getMessage(), ITExceptionsType.PARSE_ERROR);
+		}
+	}
+	
 	public static <ObjectClass> List<ObjectClass> deserializeJsonList(String inputJson, Class<? extends ObjectClass> valueType)
 			throws ITException
 	{
     try
     {
-    	final List<ObjectClass> businessObject = getJsonMapper().readValue(inputJson, getJsonMapper().getTypeFactory().constructCollectionType(List.class,  valueType));
+    	final List<ObjectClass> businessObject = getListReader(valueType).readValue(inputJson);
+      return businessObject;
+    }
+    catch (Exception exception)
+    {
+      throw new ITException(exception.getMessage(), ITExceptionsType.PARSE_ERROR);
+    }
+	}
+	
+	public static <ObjectClass> List<ObjectClass> deserializeJsonList(InputStream inputStream, Class<? extends ObjectClass> valueType)
+			throws ITException
+	{
+    try
+    {
+    	final List<ObjectClass> businessObject = getListReader(valueType).readValue(inputStream);
       return businessObject;
     }
     catch (Exception exception)
@@ -78,7 +229,7 @@ public class JsonUtils {
 	{
     try
     {
-    	final HashMap<KeyClass, ObjectClass> businessObject = getJsonMapper().readValue(inputJson, getJsonMapper().getTypeFactory().constructMapType(HashMap.class, keyType, valueType));
+    	final HashMap<KeyClass, ObjectClass> businessObject = getHashMapReader(keyType, valueType).readValue(inputJson);
       return businessObject;
     }
     catch (Exception exception)
@@ -91,7 +242,9 @@ public class JsonUtils {
 	{
 		try
 		{
-			return getJsonMapper().writeValueAsString(theObject);
+			if(theObject == null)
+				return getJsonMapper().writeValueAsString(theObject);
+			return getObjectWriter(theObject.getClass()).writeValueAsString(theObject);
 		}
 		catch(Exception ex)
 		{
@@ -1,5 +1,7 @@
 package com.itelios.itframework.utils;
 
+import java.util.IllegalFormatException;
+
 import com.itelios.itframework.ITApplication;
 
 /**
@@ -8,14 +10,14 @@ import com.itelios.itframework.ITApplication;
  *
  */
 public class Log {
-	
-	public enum LogLevel 
+
+	public enum LogLevel
 	{
 		Info(1),
-		Debug(2), 
+		Debug(2),
 		Warning(3),
 		Error(4);
-		
+
 		private int logValue;
 		public int getLogValue()
 		{
@@ -26,8 +28,59 @@ public class Log {
 		{
 			logValue = val;
 		}
-	}	
-	
+	}
+
+	/**
+	 * Builds a log message only when it is really logged
+	 */
+	public interface MessageBuilder
+	{
+		/**
+		 * Build the message to log
+		 * @return The message
+		 */
+		String buildMessage();
+	}
+
+	private static final String TRUNCATED_SUFFIX = "... [truncated]";
+
+	/**
+	 * The current log level value, ITApplication.LOG_LEVEL by default
+	 */
+	private static volatile int logLevelValue = ITApplication.LOG_LEVEL.getLogValue();
+	/**
+	 * The max length of the logged messages and arguments, 0 for no limit (default)
+	 */
+	private static volatile int maxMessageLength = 0;
+
+	/**
+	 * Change the log level at runtime
+	 * @param logLevel : The new log level
+	 */
+	public static void setLogLevel(LogLevel logLevel)
+	{
+		logLevelValue = logLevel.getLogValue();
+	}
+
+	/**
+	 * Check if the messages of a level are logged. To be used before building an expensive message
+	 * @param logLevel : The level of the message
+	 * @return True if the message will be logged
+	 */
+	public static boolean isLoggable(LogLevel logLevel)
+	{
+		return logLevelValue <= logLevel.getLogValue();
+	}
+
+	/**
+	 * Set the max length of the logged messages : the longer messages (and the longer format arguments) are truncated
+	 * @param maxLength : The max length, 0 for no limit
+	 */
+	public static void setMaxMessageLength(int maxLength)
+	{
+		maxMessageLength = maxLength;
+	}
+
 	/**
 	 * Log a debug message
 	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
@@ -35,8 +88,33 @@ public class Log {
 	 *
 	 */
 	public static void d(String tag, String msg){
-		if(ITApplication.LOG_LEVEL.getLogValue() <= LogLevel.Debug.getLogValue()){
-			android.util.Log.d(tag, msg);
+		if(isLoggable(LogLevel.Debug)){
+			android.util.Log.d(tag, truncate(msg));
+		}
+	}
+
+	/**
+	 * Log a debug message, formatted only if the debug level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param format The format of the message (see String.format)
+	 * @param args The arguments of the format
+	 *
+	 */
+	public static void d(String tag, String format, Object... args){
+		if(isLoggable(LogLevel.Debug)){
+			android.util.Log.d(tag, format(format, args));
+		}
+	}
+
+	/**
+	 * Log a debug message, built only if the debug level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param msgBuilder The builder of the message you would like logged.
+	 *
+	 */
+	public static void d(String tag, MessageBuilder msgBuilder){
+		if(isLoggable(LogLevel.Debug)){
+			android.util.Log.d(tag, truncate(msgBuilder.buildMessage()));
 		}
 	}
 
@@ -47,11 +125,36 @@ public class Log {
 	 *
 	 */
 	public static void i(String tag, String msg){
-		if(ITApplication.LOG_LEVEL.getLogValue() <= LogLevel.Info.getLogValue()){
-			android.util.Log.i(tag, msg);
+		if(isLoggable(LogLevel.Info)){
+			android.util.Log.i(tag, truncate(msg));
 		}
 	}
-	
+
+	/**
+	 * Log an info message, formatted only if the info level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param format The format of the message (see String.format)
+	 * @param args The arguments of the format
+	 *
+	 */
+	public static void i(String tag, String format, Object... args){
+		if(isLoggable(LogLevel.Info)){
+			android.util.Log.i(tag, format(format, args));
+		}
+	}
+
+	/**
+	 * Log an info message, built only if the info level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param msgBuilder The builder of the message you would like logged.
+	 *
+	 */
+	public static void i(String tag, MessageBuilder msgBuilder){
+		if(isLoggable(LogLevel.Info)){
+			android.util.Log.i(tag, truncate(msgBuilder.buildMessage()));
+		}
+	}
+
 	/**
 	 * Log an error message
 	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
@@ -59,11 +162,36 @@ public class Log {
 	 *
 	 */
 	public static void e(String tag, String msg){
-		if(ITApplication.LOG_LEVEL.getLogValue() <= LogLevel.Error.getLogValue()){
-			android.util.Log.e(tag, msg);
+		if(isLoggable(LogLevel.Error)){
+			android.util.Log.e(tag, truncate(msg));
+		}
+	}
+
+	/**
+	 * Log an error message, formatted only if the error level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param format The format of the message (see String.format)
+	 * @param args The arguments of the format
+	 *
+	 */
+	public static void e(String tag, String format, Object... args){
+		if(isLoggable(LogLevel.Error)){
+			android.util.Log.e(tag, format(format, args));
 		}
 	}
-	
+
+	/**
+	 * Log an error message, built only if the error level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param msgBuilder The builder of the message you would like logged.
+	 *
+	 */
+	public static void e(String tag, MessageBuilder msgBuilder){
+		if(isLoggable(LogLevel.Error)){
+			android.util.Log.e(tag, truncate(msgBuilder.buildMessage()));
+		}
+	}
+
 	/**
 	 * Log a warm message
 	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
@@ -71,8 +199,67 @@ public class Log {
 	 *
 	 */
 	public static void w(String tag, String msg){
-		if(ITApplication.LOG_LEVEL.getLogValue() <= LogLevel.Warning.getLogValue()){
-			android.util.Log.w(tag, msg);
+		if(isLoggable(LogLevel.Warning)){
+			android.util.Log.w(tag, truncate(msg));
 		}
 	}
+
+	/**
+	 * Log a warm message, formatted only if the warning level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param format The format of the message (see String.format)
+	 * @param args The arguments of the format
+	 *
+	 */
+	public static void w(String tag, String format, Object... args){
+		if(isLoggable(LogLevel.Warning)){
+			android.util.Log.w(tag, format(format, args));
+		}
+	}
+
+	/**
+	 * Log a warm message, built only if the warning level is logged
+	 * @param tag Used to identify the source of a log message. It usually identifies the class or activity where the log call occurs.
+	 * @param msgBuilder The builder of the message you would like logged.
+	 *
+	 */
+	public static void w(String tag, MessageBuilder msgBuilder){
+		if(isLoggable(LogLevel.Warning)){
+			android.util.Log.w(tag, truncate(msgBuilder.buildMessage()));
+		}
+	}
+
+	/**
+	 * Format a message, truncating the long text arguments first so that they are not copied entirely
+	 */
+	private static String format(String format, Object... args)
+	{
+		if(maxMessageLength > 0 && args != null)
+		{
+			for(int i = 0; i < args.length; i++)
+			{
+				if(args[i] instanceof CharSequence)
+					args[i] = truncate((CharSequence) args[i]);
+			}
+		}
+		try
+		{
+			return truncate(String.format(format, args));
+		}
+		catch (IllegalFormatException ex)
+		{
+			//A logging call must never fail, the raw format is logged
+			return truncate(format);
+		}
+	}
+
+	private static String truncate(CharSequence msg)
+	{
+		if(msg == null)
+			return null;
+		int maxLength = maxMessageLength;
+		if(maxLength <= 0 || msg.length() <= maxLength)
+			return msg.toString();
+		return msg.subSequence(0, maxLength).toString() + TRUNCATED_SUFFIX;
+	}
 }
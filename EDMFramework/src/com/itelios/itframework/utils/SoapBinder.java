@@ -0,0 +1,22 @@
+package com.itelios.itframework.utils;
+
+import org.ksoap2.serialization.SoapObject;
+
+/**
+ * Serializer / deserializer of a business class, generated at compile time by the SOAP binder annotation processor 
+ * for the classes annotated with <code>@SoapUtils.GenerateSoapBinder</code>.
+ * When a binder exists for a class, SoapUtils uses it instead of reflection.
+ * @author marcduvignaud
+ *
+ * @param <ObjectClass> : The business class
+ */
+public interface SoapBinder<ObjectClass> {
+	
+	/**
+	 * Suffix added to the name of the business class to get the name of its generated binder
+	 */
+	public static final String GENERATED_CLASS_SUFFIX = "$$SoapBinder";
+	
+	public SoapObject serialize(String namespace, String objectName, ObjectClass businessObject) throws Exception;
+	public ObjectClass deserialize(SoapObject rootObject) throws Exception;
+}
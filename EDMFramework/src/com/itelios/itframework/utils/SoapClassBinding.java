@@ -0,0 +1,249 @@
+package com.itelios.itframework.utils;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.itelios.itframework.utils.SoapUtils.SoapPropertyElement;
+
+/**
+ * Binding plan of a business class used by SoapUtils : the reflection (fields, annotations, types)
+ * is resolved once per class and cached, so that (de)serializing an object is a simple walk on the fields array.
+ * @author marcduvignaud
+ *
+ */
+final class SoapClassBinding {
+
+	private static final String LOG_TAG = "SoapClassBinding";
+
+	/*
+	 * Kinds of values handled by the SOAP serialization
+	 */
+	static final int KIND_STRING = 0;
+	static final int KIND_INTEGER = 1;
+	static final int KIND_FLOAT = 2;
+	static final int KIND_DOUBLE = 3;
+	static final int KIND_LONG = 4;
+	static final int KIND_SHORT = 5;
+	static final int KIND_BOOLEAN = 6;
+	static final int KIND_DATE = 7;
+	static final int KIND_LIST = 8;
+	static final int KIND_IGNORED = 9; //Hash maps & other generic types, not handled yet
+	static final int KIND_OBJECT = 10;
+
+	private static final ConcurrentHashMap<Class<?>, SoapClassBinding> bindings = new ConcurrentHashMap<Class<?>, SoapClassBinding>();
+
+	final Class<?> bindingClass;
+	/**
+	 * The name of the element when the object is serialized in a list (class annotation or simple name)
+	 */
+	final String elementName;
+	/**
+	 * The default constructor, null if the class doesn't have one
+	 */
+	final Constructor<?> constructor;
+	final FieldBinding[] fields;
+	/**
+	 * The fields by name of XML element, used when reading a response with a pull parser
+	 */
+	final HashMap<String, FieldBinding> fieldsByElementName;
+	/**
+	 * The binder generated at compile time for the class, null if there is none (reflection is used)
+	 */
+	final SoapBinder<?> generatedBinder;
+
+	/**
+	 * Get the binding plan of a class, building it on first call
+	 * @param bindingClass : The business class
+	 * @return The binding plan
+	 */
+	static SoapClassBinding getBinding(Class<?> bindingClass)
+	{
+		SoapClassBinding binding = bindings.get(bindingClass);
+		if(binding == null)
+		{
+			binding = new SoapClassBinding(bindingClass);
+			SoapClassBinding existingBinding = bindings.putIfAbsent(bindingClass, binding);
+			if(existingBinding != null)
+				binding = existingBinding;
+		}
+		return binding;
+	}
+
+	/**
+	 * Get the kind of a value class (primitive types, Date, or business object)
+	 * @param valueClass : The class of the value
+	 * @return The kind of value
+	 */
+	static int getValueKind(Class<?> valueClass)
+	{
+		if(valueClass.equals(String.class))
+			return KIND_STRING;
+		else if(valueClass.equals(Integer.TYPE) || valueClass.equals(Integer.class))
+			return KIND_INTEGER;
+		else if(valueClass.equals(Float.TYPE) || valueClass.equals(Float.class))
+			return KIND_FLOAT;
+		else if(valueClass.equals(Double.TYPE) || valueClass.equals(Double.class))
+			return KIND_DOUBLE;
+		else if(valueClass.equals(Long.TYPE) || valueClass.equals(Long.class))
+			return KIND_LONG;
+		else if(valueClass.equals(Short.TYPE) || valueClass.equals(Short.class))
+			return KIND_SHORT;
+		else if(valueClass.equals(Boolean.TYPE) || valueClass.equals(Boolean.class))
+			return KIND_BOOLEAN;
+		else if(valueClass.equals(Date.class))
+			return KIND_DATE;
+		return KIND_OBJECT;
+	}
+
+	/**
+	 * Check if the kind of value is serialized as a simple property
+	 * @param kind : The kind of value
+	 * @return True for strings, numbers and booleans
+	 */
+	static boolean isSimpleKind(int kind)
+	{
+		return kind <= KIND_BOOLEAN;
+	}
+
+	private SoapClassBinding(Class<?> bindingClass)
+	{
+		this.bindingClass = bindingClass;
+
+		String className = bindingClass.getSimpleName();
+		SoapPropertyElement classProperty = bindingClass.getAnnotation(SoapPropertyElement.class);
+		if(classProperty != null && !StringUtils.isNullOrEmpty(classProperty.name()))
+			className = classProperty.name();
+		this.elementName = className;
+
+		Constructor<?> defaultConstructor;
+		try
+		{
+			defaultConstructor = bindingClass.getConstructor();
+		}
+		catch (NoSuchMethodException ex)
+		{
+			defaultConstructor = null;
+		}
+		this.constructor = defaultConstructor;
+
+		Field[] declaredFields = bindingClass.getDeclaredFields();
+		this.fields = new FieldBinding[declaredFields.length];
+		this.fieldsByElementName = new HashMap<String, FieldBinding>();
+		for(int i = 0; i < declaredFields.length; i++)
+		{
+			FieldBinding fieldBinding = new FieldBinding(declaredFields[i]);
+			this.fields[i] = fieldBinding;
+			
+			//Same as SoapUtils : the nested objects are read with the field name, the other fields with the property name
+			String elementName = (fieldBinding.kind == KIND_OBJECT) ? fieldBinding.field.getName() : fieldBinding.propertyName;
+			if(!this.fieldsByElementName.containsKey(elementName))
+				this.fieldsByElementName.put(elementName, fieldBinding);
+		}
+		
+		this.generatedBinder = findGeneratedBinder(bindingClass);
+	}
+	
+	private static SoapBinder<?> findGeneratedBinder(Class<?> bindingClass)
+	{
+		try
+		{
+			Class<?> binderClass = Class.forName(bindingClass.getName() + SoapBinder.GENERATED_CLASS_SUFFIX, true, bindingClass.getClassLoader());
+			return (SoapBinder<?>) binderClass.newInstance();
+		}
+		catch (ClassNotFoundException ex)
+		{
+			//No generated binder, the reflection will be used
+			return null;
+		}
+		catch (Exception ex)
+		{
+			Log.w(LOG_TAG, "Unable to instantiate the generated binder of " + bindingClass.getName() + " - Ex : " + ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Binding of a single field
+	 */
+	static final class FieldBinding
+	{
+		final Field field;
+		/**
+		 * The name of the SOAP property (field annotation or field name)
+		 */
+		final String propertyName;
+		final int kind;
+		/**
+		 * True if the field has a primitive type (int, float...), false for the boxed types
+		 */
+		final boolean primitive;
+		/**
+		 * The class of the list elements when the field is a list
+		 */
+		final Class<?> elementClass;
+
+		private FieldBinding(Field field)
+		{
+			this.field = field;
+			field.setAccessible(true);
+
+			String fieldName = field.getName();
+			SoapPropertyElement property = field.getAnnotation(SoapPropertyElement.class);
+			if(property != null && !StringUtils.isNullOrEmpty(property.name()))
+				fieldName = property.name();
+			this.propertyName = fieldName;
+
+			Class<?> type = field.getType();
+			this.primitive = type.isPrimitive();
+
+			int fieldKind = getValueKind(type);
+			Class<?> listElementClass = null;
+			if(fieldKind == KIND_OBJECT)
+			{
+				Type genericType = field.getGenericType();
+				if(genericType instanceof ParameterizedType)
+				{
+					ParameterizedType parameterizedType = (ParameterizedType) genericType;
+					if(parameterizedType.getRawType().equals(List.class) || parameterizedType.getRawType().equals(Array.class))
+					{
+						fieldKind = KIND_LIST;
+						listElementClass = getListElementClass(parameterizedType.getActualTypeArguments()[0]);
+					}
+					else
+					{
+						//HashMap & other generic types are not handled
+						fieldKind = KIND_IGNORED;
+					}
+				}
+			}
+			this.kind = fieldKind;
+			this.elementClass = listElementClass;
+		}
+
+		/**
+		 * Get the class of the elements of a list, using the bound of a wildcard (List&lt;? extends Foo&gt;)
+		 * @return The class, null if it can't be resolved (type variable, generic element)
+		 */
+		private static Class<?> getListElementClass(Type innerType)
+		{
+			if(innerType instanceof WildcardType)
+			{
+				WildcardType wildcardType = (WildcardType) innerType;
+				Type[] lowerBounds = wildcardType.getLowerBounds();
+				innerType = (lowerBounds.length > 0) ? lowerBounds[0] : wildcardType.getUpperBounds()[0];
+				//List<?> doesn't tell the type of the elements
+				if(innerType == Object.class)
+					return null;
+			}
+			return (innerType instanceof Class<?>) ? (Class<?>) innerType : null;
+		}
+	}
+}
@@ -0,0 +1,351 @@
+package com.itelios.itframework.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.itelios.itframework.exception.ITException;
+import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.listener.StreamElementListener;
+import com.itelios.itframework.utils.SoapClassBinding.FieldBinding;
+
+/**
+ * Utils class used to deserialize SOAP responses read with a pull parser, directly into business objects 
+ * (without building the SoapObject tree). Uses the same naming rules as SoapUtils.
+ * @author marcduvignaud
+ *
+ */
+public class SoapPullParserUtils {
+	private static final String LOG_TAG = "SoapPullParserUtils";
+	private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+	/**
+	 * Open a parser on a SOAP response and move it to the result element (the first child of the method response)
+	 * @param responseStream : The stream containing the SOAP envelope
+	 * @return The parser positioned on the start tag of the result, or null if the method response is empty
+	 * @throws ITException : Exception of type CALL_ERROR if the server sent back a SOAP fault, PARSE_ERROR if the envelope can't be read
+	 */
+	public static XmlPullParser openResult(InputStream responseStream) throws ITException
+	{
+		try
+		{
+			XmlPullParser parser = new KXmlParser();
+			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+			parser.setInput(responseStream, null);
+
+			//Envelope
+			parser.nextTag();
+			parser.require(XmlPullParser.START_TAG, null, "Envelope");
+			
+			//Header (optional) & Body
+			parser.nextTag();
+			if("Header".equals(parser.getName()))
+			{
+				skipElement(parser);
+				parser.nextTag();
+			}
+			parser.require(XmlPullParser.START_TAG, null, "Body");
+			
+			//Method response or fault
+			if(parser.nextTag() != XmlPullParser.START_TAG)
+				return null;
+			if("Fault".equals(parser.getName()))
+			{
+				String errorMessage = "Invalid soap message received - Error : " + readFaultMessage(parser);
+				Log.e(LOG_TAG, errorMessage);
+				throw new ITException(errorMessage, ITExceptionsType.CALL_ERROR);
+			}
+			
+			//Result
+			if(parser.nextTag() != XmlPullParser.START_TAG)
+				return null;
+			return parser;
+		}
+		catch (ITException ex)
+		{
+			throw ex;
+		}
+		catch (Exception ex)
+		{
+			String errorMessage = "Error while reading the soap response - " + ex.getMessage();
+			Log.e(LOG_TAG, errorMessage);
+			throw new ITException(errorMessage, ITExceptionsType.PARSE_ERROR);
+		}
+	}
+
+	/**
+	 * Deserialize the element the parser is positioned on into a business object or a primitive value.
+	 * After the call, the parser is positioned on the end tag of the element.
+	 * @param parser : The parser positioned on the start tag of the element
+	 * @param classObject : The class of the object to read
+	 * WARNING : The class must have a default empty constructor
+	 * @return The deserialized object (null if the element is nil or empty for a primitive value)
+	 * @throws ITException : Framework exception of type PARSE_ERROR
+	 */
+	public static <ObjectClass> ObjectClass deserializeBusinessObject(XmlPullParser parser, Class<ObjectClass> classObject) throws ITException
+	{
+		try
+		{
+			return classObject.cast(readValue(parser, classObject, SoapClassBinding.getValueKind(classObject)));
+		}
+		catch (ITException ex)
+		{
+			throw ex;
+		}
+		catch (Exception e)
+		{
+			String errorMessage = String.format("Error while deserializing the object of type %s. Error : %s", classObject.getSimpleName(), e.getMessage());
+			Log.e(LOG_TAG, errorMessage);
+			throw new ITException(errorMessage, ITExceptionsType.PARSE_ERROR);
+		}
+	}
+
+	/**
+	 * Deserialize the list element the parser is positioned on into a list of business objects
+	 * @param parser : The parser positioned on the start tag of the list
+	 * @param classObject : The class of the objects in the list
+	 * WARNING : The class must have a default empty constructor
+	 * @return The list of deserialized objects
+	 * @throws ITException : Framework exception of type PARSE_ERROR
+	 */
+	public static <ObjectClass> List<ObjectClass> deserializeBusinessObjectList(XmlPullParser parser, final Class<ObjectClass> classObject) throws ITException
+	{
+		final List<ObjectClass> listOfObjects = new ArrayList<ObjectClass>();
+		readBusinessObjectList(parser, classObject, new StreamElementListener<ObjectClass>() {
+			@Override
+			public boolean onElementReceived(ObjectClass element)
+			{
+				listOfObjects.add(element);
+				return true;
+			}
+		});
+		return listOfObjects;
+	}
+
+	/**
+	 * Read the list element the parser is positioned on, and give the deserialized objects one by one to the listener
+	 * @param parser : The parser positioned on the start tag of the list
+	 * @param classObject : The class of the objects in the list
+	 * @param elementListener : The listener receiving the objects. Can stop the reading by returning false
+	 * @return The number of objects given to the listener
+	 * @throws ITException : Framework exception of type PARSE_ERROR, or the exception raised by the listener
+	 */
+	public static <ObjectClass> int readBusinessObjectList(XmlPullParser parser, Class<ObjectClass> classObject, 
+			StreamElementListener<ObjectClass> elementListener) throws ITException
+	{
+		int elementCount = 0;
+		int kind = SoapClassBinding.getValueKind(classObject);
+		try
+		{
+			while(parser.nextTag() == XmlPullParser.START_TAG)
+			{
+				Object value = readValue(parser, classObject, kind);
+				if(value == null)
+					continue;
+				elementCount++;
+				if(!elementListener.onElementReceived(classObject.cast(value)))
+					break;
+			}
+			return elementCount;
+		}
+		catch (ITException ex)
+		{
+			throw ex;
+		}
+		catch (Exception e)
+		{
+			String errorMessage = String.format("Error while deserializing the list of %s. Error : %s", classObject.getSimpleName(), e.getMessage());
+			Log.e(LOG_TAG, errorMessage);
+			throw new ITException(errorMessage, ITExceptionsType.PARSE_ERROR);
+		}
+	}
+
+	/**
+	 * Check if the parser has read an element until its end tag
+	 * @param parser : The parser
+	 * @param elementDepth : The depth of the start tag of the element
+	 * @return true if the parser is positioned on the end tag of the element
+	 */
+	public static boolean isElementRead(XmlPullParser parser, int elementDepth)
+	{
+		try
+		{
+			return parser.getEventType() == XmlPullParser.END_TAG && parser.getDepth() == elementDepth;
+		}
+		catch (XmlPullParserException ex)
+		{
+			return false;
+		}
+	}
+
+	private static Object readValue(XmlPullParser parser, Class<?> valueClass, int kind) throws Exception
+	{
+		if(SoapClassBinding.isSimpleKind(kind) || kind == SoapClassBinding.KIND_DATE)
+		{
+			String strValue = readText(parser);
+			if(StringUtils.isNullOrEmpty(strValue))
+				return null;
+			return SoapUtils.castValue(kind, strValue);
+		}
+		if(isNil(parser))
+		{
+			skipElement(parser);
+			return null;
+		}
+		return readObject(parser, valueClass);
+	}
+
+	private static Object readObject(XmlPullParser parser, Class<?> classObject) throws Exception
+	{
+		SoapClassBinding binding = SoapClassBinding.getBinding(classObject);
+		if(binding.constructor == null)
+			throw new NoSuchMethodException("No default constructor");
+		Object objectToReturn = binding.constructor.newInstance();
+
+		while(parser.nextTag() == XmlPullParser.START_TAG)
+		{
+			FieldBinding currentField = binding.fieldsByElementName.get(parser.getName());
+			if(currentField == null)
+			{
+				//Unknown property, we just skip it
+				skipElement(parser);
+				continue;
+			}
+			
+			switch(currentField.kind)
+			{
+				case SoapClassBinding.KIND_LIST:
+					if(isNil(parser) || currentField.elementClass == null)
+					{
+						skipElement(parser);
+						break;
+					}
+					currentField.field.set(objectToReturn, deserializeBusinessObjectList(parser, currentField.elementClass));
+					break;
+				case SoapClassBinding.KIND_OBJECT:
+					if(isNil(parser))
+					{
+						skipElement(parser);
+						break;
+					}
+					currentField.field.set(objectToReturn, readObject(parser, currentField.field.getType()));
+					break;
+				case SoapClassBinding.KIND_IGNORED:
+					skipElement(parser);
+					break;
+				default:
+					String strValue = readText(parser);
+					if(!StringUtils.isNullOrEmpty(strValue))
+						SoapUtils.setFieldValue(objectToReturn, currentField, strValue);
+					break;
+			}
+		}
+		return objectToReturn;
+	}
+
+	private static boolean isNil(XmlPullParser parser)
+	{
+		return "true".equals(parser.getAttributeValue(XSI_NAMESPACE, "nil"));
+	}
+
+	/**
+	 * Read the text of the current element (the text of child elements is ignored), the parser ends on the end tag
+	 */
+	private static String readText(XmlPullParser parser) throws XmlPullParserException, IOException
+	{
+		if(isNil(parser))
+		{
+			skipElement(parser);
+			return null;
+		}
+		
+		StringBuilder text = null;
+		int depth = 1;
+		while(depth > 0)
+		{
+			switch(parser.next())
+			{
+				case XmlPullParser.START_TAG:
+					depth++;
+					break;
+				case XmlPullParser.END_TAG:
+					depth--;
+					break;
+				case XmlPullParser.TEXT:
+					if(depth == 1)
+					{
+						if(text == null)
+							text = new StringBuilder();
+						text.append(parser.getText());
+					}
+					break;
+				case XmlPullParser.END_DOCUMENT:
+					throw new XmlPullParserException("Unexpected end of document");
+				default:
+					break;
+			}
+		}
+		return text == null ? null : text.toString();
+	}
+
+	/**
+	 * Skip the current element and its children, the parser ends on the end tag
+	 */
+	private static void skipElement(XmlPullParser parser) throws XmlPullParserException, IOException
+	{
+		int depth = 1;
+		while(depth > 0)
+		{
+			switch(parser.next())
+			{
+				case XmlPullParser.START_TAG:
+					depth++;
+					break;
+				case XmlPullParser.END_TAG:
+					depth--;
+					break;
+				case XmlPullParser.END_DOCUMENT:
+					throw new XmlPullParserException("Unexpected end of document");
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Read the message of a SOAP fault (faultstring for SOAP 1.1, Reason/Text for SOAP 1.2)
+	 */
+	private static String readFaultMessage(XmlPullParser parser) throws XmlPullParserException, IOException
+	{
+		String faultMessage = null;
+		int depth = 1;
+		while(depth > 0)
+		{
+			switch(parser.next())
+			{
+				case XmlPullParser.START_TAG:
+					depth++;
+					String name = parser.getName();
+					if(faultMessage == null && ("faultstring".equals(name) || "Text".equals(name)))
+					{
+						faultMessage = readText(parser);
+						depth--;
+					}
+					break;
+				case XmlPullParser.END_TAG:
+					depth--;
+					break;
+				case XmlPullParser.END_DOCUMENT:
+					return faultMessage;
+				default:
+					break;
+			}
+		}
+		return faultMessage;
+	}
+}
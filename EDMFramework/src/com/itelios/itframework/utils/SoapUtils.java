@@ -4,20 +4,18 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
-import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 
 import org.ksoap2.serialization.SoapObject;
 
 import com.itelios.itframework.exception.ITException;
 import com.itelios.itframework.exception.ITException.ITExceptionsType;
+import com.itelios.itframework.utils.SoapClassBinding.FieldBinding;
 
 /**
  * Utils class used to serialize / deserialize Soap Objects (works with ksoap2 library)
@@ -26,6 +24,14 @@ import com.itelios.itframework.exception.ITException.ITExceptionsType;
 public class SoapUtils {	
 	private static final String LOG_TAG = "SoapUtils"; 
 	public static final String DATE_FORMAT_WS = "yyyy-MM-dd'T'HH:mm:ss";
+	
+	//SimpleDateFormat isn't thread safe, we keep one per thread instead of creating one for each date
+	private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat(DATE_FORMAT_WS);
+		}
+	};
 
 	@Retention(RetentionPolicy.RUNTIME)
 	@Target(ElementType.TYPE)
@@ -34,6 +40,38 @@ public class SoapUtils {
 		String name();
 	}
 	
+	/**
+	 * Marks a business class for which a SoapBinder is generated at compile time (see the EDMFrameworkProcessor project).
+	 * The fields of the class must not be private and the class must have an accessible empty constructor.
+	 * Static and final fields are not (de)serialized by the generated binder.
+	 */
+	@Retention(RetentionPolicy.CLASS)
+	@Target(ElementType.TYPE)
+	public @interface GenerateSoapBinder
+	{
+	}
+	
+	/**
+	 * Format a date the way the web services expect it (DATE_FORMAT_WS)
+	 * @param date : The date to format
+	 * @return The formatted date
+	 */
+	public static String formatWsDate(Date date)
+	{
+		return dateFormat.get().format(date);
+	}
+	
+	/**
+	 * Parse a date sent by the web services (DATE_FORMAT_WS)
+	 * @param strDate : The date to parse
+	 * @return The parsed date
+	 * @throws ParseException : If the date doesn't have the expected format
+	 */
+	public static Date parseWsDate(String strDate) throws ParseException
+	{
+		return dateFormat.get().parse(strDate);
+	}
+	
 	/**
 	 * Serialize a single business object into a SOAPObject representation
 	 * @param namespace : The namespace of the soap object
@@ -45,64 +83,46 @@ public class SoapUtils {
 	{
 		try
 		{
+			SoapClassBinding binding = SoapClassBinding.getBinding(businessObject.getClass());
+			if(binding.generatedBinder != null)
+				return serializeWithBinder(binding.generatedBinder, namespace, objectName, businessObject);
+			
 			SoapObject soapObject = new SoapObject(namespace, objectName);			
 
-			Field[] fields = businessObject.getClass().getDeclaredFields();
+			FieldBinding[] fields = binding.fields;
 
 			for (int i = 0; i < fields.length; i++) 
 			{
-				Field currentField = fields[i];
-				Type type = currentField.getType();
-				currentField.setAccessible(true);
-				String fieldName = currentField.getName();
-				SoapPropertyElement property = currentField.getAnnotation(SoapPropertyElement.class);
-				if(property != null && !StringUtils.isNullOrEmpty(property.name()))
-					fieldName = property.name();
+				FieldBinding currentField = fields[i];
+				String fieldName = currentField.propertyName;
 				
-				//detect String
-				if (type.equals(String.class)
-						|| type.equals(Integer.TYPE) || type.equals(Integer.class)
-						|| type.equals(Float.TYPE) || type.equals(Float.class)
-						|| type.equals(Double.TYPE) || type.equals(Double.class)
-						|| type.equals(Long.TYPE) || type.equals(Long.class)
-						|| type.equals(Short.TYPE) || type.equals(Short.class)
-						|| type.equals(Boolean.TYPE) || type.equals(Boolean.class)) {
-					//For all primitive types, we simple add the value to the soap object
-					soapObject.addProperty(fieldName, currentField.get(businessObject));
-				}
-				else if(type.equals(Date.class))
+				switch(currentField.kind)
 				{
-					//Special serialization for Date
-					SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT_WS);
-					soapObject.addProperty(fieldName, dateFormat.format(currentField.get(businessObject)));
-				}
-				else
-				{            	
-					Type genericType = currentField.getGenericType();
-					if(genericType instanceof ParameterizedType)
-					{
-						ParameterizedType parameterizedType = (ParameterizedType) genericType;
-						if(parameterizedType.getRawType().equals(List.class))
-						{
-							//We have a list of object as a field => we add it as a soap object 
-							SoapObject serializedList = serializeBusinessObjectList(namespace, 
-									fieldName, (List<?>) currentField.get(businessObject));
+					case SoapClassBinding.KIND_DATE:
+						//Special serialization for Date
+						soapObject.addProperty(fieldName, dateFormat.get().format(currentField.field.get(businessObject)));
+						break;
+					case SoapClassBinding.KIND_LIST:
+						//We have a list of object as a field => we add it as a soap object 
+						SoapObject serializedList = serializeBusinessObjectList(namespace, 
+								fieldName, (List<?>) currentField.field.get(businessObject));
 
-							if(serializedList != null)
-								soapObject.addSoapObject(serializedList);
-						}
-						else if(parameterizedType.getRawType().equals(HashMap.class))
-						{
-							//TODO : Handle hash map if necessary
-						}
-					}
-					else
-					{
+						if(serializedList != null)
+							soapObject.addSoapObject(serializedList);
+						break;
+					case SoapClassBinding.KIND_IGNORED:
+						//TODO : Handle hash map if necessary
+						break;
+					case SoapClassBinding.KIND_OBJECT:
 						//We have an object as a field => we serialize it and add it to the soap property
-						SoapObject serializedObject = serializeBusinessObject(namespace, fieldName, currentField.get(businessObject));
+						SoapObject serializedObject = serializeBusinessObject(namespace, fieldName, currentField.field.get(businessObject));
 						if(serializedObject != null)
 							soapObject.addSoapObject(serializedObject);
-					}
+						break;
+					default:
+						//For all primitive types, we simple add the value to the soap object
+						soapObject.addProperty(fieldName, currentField.field.get(businessObject));
+						break;
 				}
 			}
 
@@ -131,34 +151,25 @@ public class SoapUtils {
 		for(ObjectClass businessObject : businessObjectList)
 		{
 			Class<?> businessClass = businessObject.getClass();
-			if(businessClass.equals(String.class)
-					|| businessClass.equals(Integer.TYPE) || businessClass.equals(Integer.class)
-					|| businessClass.equals(Double.TYPE) || businessClass.equals(Double.class)
-					|| businessClass.equals(Float.TYPE) || businessClass.equals(Float.class)
-					|| businessClass.equals(Long.TYPE) || businessClass.equals(Long.class)
-					|| businessClass.equals(Short.TYPE) || businessClass.equals(Short.class)
-					|| businessClass.equals(Boolean.TYPE) || businessClass.equals(Boolean.class))
+			int kind = SoapClassBinding.getValueKind(businessClass);
+			if(SoapClassBinding.isSimpleKind(kind))
 			{
 				//We have a primitive type => we simply add to property
 				String propertyName = businessClass.getSimpleName().toLowerCase();
 				//For integer, the property name must be int, not integer
-				if(businessClass.equals(Integer.TYPE) || businessClass.equals(Integer.class))
+				if(kind == SoapClassBinding.KIND_INTEGER)
 					propertyName = "int";
 				
 				soapObject.addProperty(propertyName, businessObject);
 			}
-			else if(businessClass.equals(Date.class))
+			else if(kind == SoapClassBinding.KIND_DATE)
 			{
 				//Special serialization for Date
-				SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT_WS);
-				soapObject.addProperty("datetime", dateFormat.format(businessObject));
+				soapObject.addProperty("datetime", dateFormat.get().format(businessObject));
 			}
 			else
 			{
-				String className = businessClass.getSimpleName();
-				SoapPropertyElement property = businessClass.getAnnotation(SoapPropertyElement.class);
-				if(property != null && !StringUtils.isNullOrEmpty(property.name()))
-					className = property.name();
+				String className = SoapClassBinding.getBinding(businessClass).elementName;
 				
 				SoapObject serializedObject = serializeBusinessObject(namespace, className, businessObject);
 				if(serializedObject != null)
@@ -182,145 +193,61 @@ public class SoapUtils {
 	{
 		try
 		{
-			ObjectClass objectToReturn = classObject.getConstructor().newInstance();
-			Field[] fields = classObject.getDeclaredFields();
+			SoapClassBinding binding = SoapClassBinding.getBinding(classObject);
+			if(binding.generatedBinder != null)
+				return classObject.cast(binding.generatedBinder.deserialize(rootObject));
+			
+			if(binding.constructor == null)
+				throw new NoSuchMethodException("No default constructor");
+			ObjectClass objectToReturn = classObject.cast(binding.constructor.newInstance());
+			FieldBinding[] fields = binding.fields;
 
 			for (int i = 0; i < fields.length; i++) 
 			{
-				Field currentField = fields[i];
-				Type type = currentField.getType();
-				currentField.setAccessible(true);
-				String fieldName = currentField.getName();
-				SoapPropertyElement property = currentField.getAnnotation(SoapPropertyElement.class);
-				if(property != null && !StringUtils.isNullOrEmpty(property.name()))
-					fieldName = property.name();
-
-				//detect String
-				if (type.equals(String.class)) {
-					//We retrieve the property safely to avoid crash when missing property
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();
-
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.set(objectToReturn, strValue);
-					}
-				}
-				else if (type.equals(Integer.TYPE) || type.equals(Integer.class)) {
-					//We retrieve the property safely to avoid crash when missing property
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();	          
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.setInt(objectToReturn, Integer.valueOf(strValue));
-					}
-				}
-				else if (type.equals(Float.TYPE) || type.equals(Float.class)) {
-					//detect float or Float  
-					//We retrieve the property safely to avoid crash when missing property
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.setFloat(objectToReturn, Float.valueOf(strValue));
-					}            	
-				}
-				else if (type.equals(Double.TYPE) || type.equals(Double.class)) {
-					//We retrieve the property safely to avoid crash when missing property
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.setDouble(objectToReturn, Double.valueOf(strValue));
-					}
-				}
-				else if (type.equals(Long.TYPE) || type.equals(Long.class)) {
-					//We retrieve the property safely to avoid crash when missing property
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.setLong(objectToReturn, Long.valueOf(strValue));
-					}
-				}
-				else if (type.equals(Short.TYPE) || type.equals(Short.class)) {
-					//We retrieve the property safely to avoid crash when missing property
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.setShort(objectToReturn, Short.valueOf(strValue));
-					}
-				}	
-				else if (type.equals(Boolean.TYPE) || type.equals(Boolean.class)) {
-					//We retrieve the property safely to avoid crash when missing property
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.setBoolean(objectToReturn, Boolean.valueOf(strValue));
-					}
-				}	
-				else if(type.equals(Date.class))
+				FieldBinding currentField = fields[i];
+				
+				if(currentField.kind == SoapClassBinding.KIND_IGNORED)
 				{
-					//Special deserialization for Date
-					
-					Object objValue =  rootObject.getPropertySafely(fieldName); 
-					if(objValue == null)
-						continue; //We don't crash if the property is missing, we just skip
-					String strValue = objValue.toString();
-					SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT_WS);
-					if(!StringUtils.isNullOrEmpty(strValue)){
-						currentField.set(objectToReturn, dateFormat.parse(strValue));
-					}
+					//TODO : Handle hash map if necessary
+					continue;
 				}
-				else
-				{            	
-					Type genericType = currentField.getGenericType();					
-					if(genericType instanceof ParameterizedType)
+				
+				if(currentField.kind == SoapClassBinding.KIND_OBJECT)
+				{
+					Object objectProperty = rootObject.getPropertySafely(currentField.field.getName());
+					if(objectProperty == null)
+						continue;
+					if(objectProperty instanceof SoapObject)
 					{
-						ParameterizedType parameterizedType = (ParameterizedType) genericType;
-						if(parameterizedType.getRawType().equals(List.class) || parameterizedType.getRawType().equals(Array.class))
-						{
-							Type innerType = parameterizedType.getActualTypeArguments()[0];
-							//We retrieve the property safely to avoid crash when missing property
-							Object listProperty =  rootObject.getPropertySafely(fieldName); 
-							if(listProperty == null)
-								continue; //We don't crash if the property is missing, we just skip
-
-							if(listProperty instanceof SoapObject)
-							{
-								SoapObject listObject = (SoapObject) listProperty;
-								Object deserializedList = deserializeBusinessObjectList(listObject, (Class<?>) innerType);
-								if(deserializedList != null)
-									currentField.set(objectToReturn, deserializedList);
-							}
-						}
-						else if(parameterizedType.getRawType().equals(HashMap.class))
-						{
-							//TODO : Handle hash map if necessary
-						}
+						SoapObject soapObject = (SoapObject) objectProperty;
+						Object deserializedObject = deserializeBusinessObject(soapObject, currentField.field.getType());							 
+						if(deserializedObject != null)
+							currentField.field.set(objectToReturn, deserializedObject);
 					}
-					else
+					continue;
+				}
+				
+				//We retrieve the property safely to avoid crash when missing property
+				Object objValue = rootObject.getPropertySafely(currentField.propertyName); 
+				if(objValue == null)
+					continue; //We don't crash if the property is missing, we just skip
+				
+				if(currentField.kind == SoapClassBinding.KIND_LIST)
+				{
+					//The lists whose element class can't be resolved are not deserialized
+					if(objValue instanceof SoapObject && currentField.elementClass != null)
 					{
-						Object objectProperty = rootObject.getPropertySafely(currentField.getName());
-						if(objectProperty == null)
-							continue;
-						if(objectProperty instanceof SoapObject)
-						{
-							SoapObject soapObject = (SoapObject) objectProperty;
-							Object deserializedObject = deserializeBusinessObject(soapObject, currentField.getType());							 
-							if(deserializedObject != null)
-								currentField.set(objectToReturn, deserializedObject);
-						}
+						SoapObject listObject = (SoapObject) objValue;
+						Object deserializedList = deserializeBusinessObjectList(listObject, currentField.elementClass);
+						if(deserializedList != null)
+							currentField.field.set(objectToReturn, deserializedList);
 					}
+					continue;
+				}
+				
+				String strValue = objValue.toString();
+				if(!StringUtils.isNullOrEmpty(strValue)){
+					setFieldValue(objectToReturn, currentField, strValue);
 				}
 			}
 
@@ -333,6 +260,105 @@ public class SoapUtils {
 			throw new ITException(errorMessage, ITExceptionsType.PARSE_ERROR);
 		}   
 	}
+	
+	@SuppressWarnings("unchecked")
+	private static <ObjectClass> SoapObject serializeWithBinder(SoapBinder<?> binder, String namespace, String objectName, 
+			ObjectClass businessObject) throws Exception
+	{
+		return ((SoapBinder<ObjectClass>) binder).serialize(namespace, objectName, businessObject);
+	}
+	
+	/**
+	 * Set the value of a simple field (primitive types & Date) from its string representation
+	 * @param businessObject : The object to fill
+	 * @param fieldBinding : The binding of the field
+	 * @param strValue : The string value (not empty)
+	 * @throws Exception : Reflection or parse exceptions
+	 */
+	static void setFieldValue(Object businessObject, FieldBinding fieldBinding, String strValue) throws Exception
+	{
+		Field field = fieldBinding.field;
+		switch(fieldBinding.kind)
+		{
+			case SoapClassBinding.KIND_STRING:
+				field.set(businessObject, strValue);
+				break;
+			case SoapClassBinding.KIND_INTEGER:
+				if(fieldBinding.primitive)
+					field.setInt(businessObject, Integer.parseInt(strValue));
+				else
+					field.set(businessObject, Integer.valueOf(strValue));
+				break;
+			case SoapClassBinding.KIND_FLOAT:
+				if(fieldBinding.primitive)
+					field.setFloat(businessObject, Float.parseFloat(strValue));
+				else
+					field.set(businessObject, Float.valueOf(strValue));
+				break;
+			case SoapClassBinding.KIND_DOUBLE:
+				if(fieldBinding.primitive)
+					field.setDouble(businessObject, Double.parseDouble(strValue));
+				else
+					field.set(businessObject, Double.valueOf(strValue));
+				break;
+			case SoapClassBinding.KIND_LONG:
+				if(fieldBinding.primitive)
+					field.setLong(businessObject, Long.parseLong(strValue));
+				else
+					field.set(businessObject, Long.valueOf(strValue));
+				break;
+			case SoapClassBinding.KIND_SHORT:
+				if(fieldBinding.primitive)
+					field.setShort(businessObject, Short.parseShort(strValue));
+				else
+					field.set(businessObject, Short.valueOf(strValue));
+				break;
+			case SoapClassBinding.KIND_BOOLEAN:
+				if(fieldBinding.primitive)
+					field.setBoolean(businessObject, Boolean.parseBoolean(strValue));
+				else
+					field.set(businessObject, Boolean.valueOf(strValue));
+				break;
+			case SoapClassBinding.KIND_DATE:
+				//Special deserialization for Date
+				field.set(businessObject, dateFormat.get().parse(strValue));
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Cast the string representation of a simple value (primitive types & Date) for the given kind
+	 * @param kind : The kind of value
+	 * @param strValue : The string value
+	 * @return The casted value
+	 * @throws Exception : Parse exceptions
+	 */
+	static Object castValue(int kind, String strValue) throws Exception
+	{
+		switch(kind)
+		{
+			case SoapClassBinding.KIND_STRING:
+				return strValue;
+			case SoapClassBinding.KIND_INTEGER:
+				return Integer.valueOf(strValue);
+			case SoapClassBinding.KIND_FLOAT:
+				return Float.valueOf(strValue);
+			case SoapClassBinding.KIND_DOUBLE:
+				return Double.valueOf(strValue);
+			case SoapClassBinding.KIND_LONG:
+				return Long.valueOf(strValue);
+			case SoapClassBinding.KIND_SHORT:
+				return Short.valueOf(strValue);
+			case SoapClassBinding.KIND_BOOLEAN:
+				return Boolean.valueOf(strValue);
+			case SoapClassBinding.KIND_DATE:
+				return dateFormat.get().parse(strValue);
+			default:
+				return null;
+		}
+	}
 
 	/**
 	 * Deserialize a list soap object into a list of business objects.
@@ -342,47 +368,28 @@ public class SoapUtils {
 	 * @return The list of deserialized objects
 	 * @throws ITException : Framework exception of type PARSE_ERROR
 	 */
+	@SuppressWarnings("unchecked")
 	public static <ObjectClass> List<ObjectClass> deserializeBusinessObjectList(SoapObject listObject, Class<ObjectClass> classObject) throws ITException
 	{
-		List<ObjectClass> listOfObjects = new ArrayList<ObjectClass>();
+		int propertyCount = listObject.getPropertyCount();
+		List<ObjectClass> listOfObjects = new ArrayList<ObjectClass>(propertyCount);
+		int kind = SoapClassBinding.getValueKind(classObject);
 
-		for(int i=0; i < listObject.getPropertyCount(); i++)
+		for(int i=0; i < propertyCount; i++)
 		{
 			Object property = listObject.getProperty(i);
-			if(classObject.equals(String.class))
-			{
-				String valueToCast = property.toString();
-				listOfObjects.add(classObject.cast(valueToCast));
-			}
-			else if(classObject.equals(Integer.TYPE) || classObject.equals(Integer.class))
-			{
-				Integer valueToCast = Integer.valueOf(property.toString());
-				listOfObjects.add(classObject.cast(valueToCast));
-			}
-			else if(classObject.equals(Double.TYPE) || classObject.equals(Double.class))
-			{
-				Double valueToCast = Double.valueOf(property.toString());
-				listOfObjects.add(classObject.cast(valueToCast));
-			}
-			else if(classObject.equals(Float.TYPE) || classObject.equals(Float.class))
-			{
-				Float valueToCast = Float.valueOf(property.toString());
-				listOfObjects.add(classObject.cast(valueToCast));
-			}
-			else if(classObject.equals(Long.TYPE) || classObject.equals(Long.class))
+			if(SoapClassBinding.isSimpleKind(kind))
 			{
-				Long valueToCast = Long.valueOf(property.toString());
-				listOfObjects.add(classObject.cast(valueToCast));
-			}
-			else if(classObject.equals(Short.TYPE) || classObject.equals(Short.class))
-			{
-				Short valueToCast = Short.valueOf(property.toString());
-				listOfObjects.add(classObject.cast(valueToCast));
-			}
-			else if(classObject.equals(Boolean.TYPE) || classObject.equals(Boolean.class))
-			{
-				Boolean valueToCast = Boolean.valueOf(property.toString());
-				listOfObjects.add(classObject.cast(valueToCast));
+				try
+				{
+					listOfObjects.add((ObjectClass) castValue(kind, property.toString()));
+				}
+				catch (Exception e)
+				{
+					String errorMessage = String.format("Error while deserializing the list of %s. Error : %s", classObject.getSimpleName(), e.getMessage());
+					Log.e(LOG_TAG, errorMessage);
+					throw new ITException(errorMessage, ITExceptionsType.PARSE_ERROR);
+				}
 			}
 			else
 			{
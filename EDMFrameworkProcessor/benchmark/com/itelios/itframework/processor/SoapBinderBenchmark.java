@@ -0,0 +1,130 @@
+package com.itelios.itframework.processor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.ksoap2.serialization.SoapObject;
+
+import com.itelios.itframework.utils.Log;
+import com.itelios.itframework.utils.Log.LogLevel;
+import com.itelios.itframework.utils.SoapBinder;
+import com.itelios.itframework.utils.SoapUtils;
+
+/**
+ * Benchmark of the (de)serialization of a list of 10 000 elements by SoapUtils, with the binder generated by SoapBinderProcessor
+ * and with the reflection. It runs on a JVM, see README.md to build it.
+ * @author marcduvignaud
+ *
+ */
+public class SoapBinderBenchmark {
+
+	private static final String NAMESPACE = "http://itframework.itelios.com/benchmark";
+	private static final int ELEMENT_COUNT = 10000;
+	private static final int WARMUP_ITERATIONS = 20;
+	private static final int MEASURED_ITERATIONS = 50;
+
+	/**
+	 * Element (de)serialized by its generated binder
+	 */
+	@SoapUtils.GenerateSoapBinder
+	public static class GeneratedItem
+	{
+		public int id;
+		public String name;
+		public double price;
+		public Boolean available;
+		public Date updateDate;
+	}
+
+	/**
+	 * Same element, (de)serialized by reflection
+	 */
+	public static class ReflectiveItem
+	{
+		public int id;
+		public String name;
+		public double price;
+		public Boolean available;
+		public Date updateDate;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		//The android logs aren't available on a JVM
+		Log.setLogLevel(LogLevel.Error);
+		try
+		{
+			Class.forName(GeneratedItem.class.getName() + SoapBinder.GENERATED_CLASS_SUFFIX);
+		}
+		catch (ClassNotFoundException ex)
+		{
+			System.err.println("No generated binder : the benchmark must be compiled with SoapBinderProcessor on the processor path");
+			System.exit(1);
+		}
+
+		SoapObject listObject = createListObject();
+		List<GeneratedItem> generatedItems = SoapUtils.deserializeBusinessObjectList(listObject, GeneratedItem.class);
+		List<ReflectiveItem> reflectiveItems = SoapUtils.deserializeBusinessObjectList(listObject, ReflectiveItem.class);
+		if(generatedItems.size() != ELEMENT_COUNT || reflectiveItems.size() != ELEMENT_COUNT)
+			throw new IllegalStateException("The lists haven't been fully deserialized");
+
+		System.out.println(String.format("%d elements, average of %d iterations", ELEMENT_COUNT, MEASURED_ITERATIONS));
+		printResult("Deserialization", measureDeserialization(listObject, GeneratedItem.class),
+				measureDeserialization(listObject, ReflectiveItem.class));
+		printResult("Serialization", measureSerialization(generatedItems), measureSerialization(reflectiveItems));
+	}
+
+	/**
+	 * Build the list the way ksoap gives it back : the values are strings
+	 */
+	private static SoapObject createListObject()
+	{
+		SoapObject listObject = new SoapObject(NAMESPACE, "items");
+		long now = System.currentTimeMillis();
+		for(int i = 0; i < ELEMENT_COUNT; i++)
+		{
+			SoapObject itemObject = new SoapObject(NAMESPACE, "item");
+			itemObject.addProperty("id", String.valueOf(i));
+			itemObject.addProperty("name", "Item " + i);
+			itemObject.addProperty("price", String.valueOf(i * 0.25));
+			itemObject.addProperty("available", String.valueOf(i % 2 == 0));
+			itemObject.addProperty("updateDate", SoapUtils.formatWsDate(new Date(now - i * 1000L)));
+			listObject.addProperty("item", itemObject);
+		}
+		return listObject;
+	}
+
+	/**
+	 * @return The average time of a deserialization, in nanoseconds
+	 */
+	private static long measureDeserialization(SoapObject listObject, Class<?> itemClass) throws Exception
+	{
+		for(int i = 0; i < WARMUP_ITERATIONS; i++)
+			SoapUtils.deserializeBusinessObjectList(listObject, itemClass);
+		long start = System.nanoTime();
+		for(int i = 0; i < MEASURED_ITERATIONS; i++)
+			SoapUtils.deserializeBusinessObjectList(listObject, itemClass);
+		return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+	}
+
+	/**
+	 * @return The average time of a serialization, in nanoseconds
+	 */
+	private static long measureSerialization(List<?> items) throws Exception
+	{
+		List<Object> itemList = new ArrayList<Object>(items);
+		for(int i = 0; i < WARMUP_ITERATIONS; i++)
+			SoapUtils.serializeBusinessObjectList(NAMESPACE, "items", itemList);
+		long start = System.nanoTime();
+		for(int i = 0; i < MEASURED_ITERATIONS; i++)
+			SoapUtils.serializeBusinessObjectList(NAMESPACE, "items", itemList);
+		return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+	}
+
+	private static void printResult(String operation, long generatedTime, long reflectiveTime)
+	{
+		System.out.println(String.format("%s : generated binder %.2f ms, reflection %.2f ms (x%.2f)", operation,
+				generatedTime / 1000000.0, reflectiveTime / 1000000.0, (double) reflectiveTime / generatedTime));
+	}
+}
@@ -0,0 +1,355 @@
+package com.itelios.itframework.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor generating a SoapBinder for each class annotated with <code>@SoapUtils.GenerateSoapBinder</code>.
+ * The generated binder reads and writes the fields directly, so SoapUtils doesn't need reflection for these classes.
+ * It follows the same naming rules as the reflection based serialization of SoapUtils.
+ * @author marcduvignaud
+ *
+ */
+@SupportedAnnotationTypes(SoapBinderProcessor.GENERATE_ANNOTATION)
+public class SoapBinderProcessor extends AbstractProcessor {
+
+	static final String GENERATE_ANNOTATION = "com.itelios.itframework.utils.SoapUtils.GenerateSoapBinder";
+	private static final String PROPERTY_ANNOTATION = "com.itelios.itframework.utils.SoapUtils.SoapPropertyElement";
+	private static final String BINDER_SUFFIX = "$$SoapBinder";
+
+	/*
+	 * Kinds of fields, same as the ones used by SoapUtils
+	 */
+	private enum FieldKind
+	{
+		STRING, INTEGER, FLOAT, DOUBLE, LONG, SHORT, BOOLEAN, DATE, LIST, IGNORED, OBJECT
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion()
+	{
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+	{
+		TypeElement generateAnnotation = processingEnv.getElementUtils().getTypeElement(GENERATE_ANNOTATION);
+		if(generateAnnotation == null)
+			return false;
+
+		for(Element element : roundEnv.getElementsAnnotatedWith(generateAnnotation))
+		{
+			if(element.getKind() != ElementKind.CLASS)
+			{
+				error(element, "@GenerateSoapBinder can only be used on classes");
+				continue;
+			}
+			try
+			{
+				generateBinder((TypeElement) element);
+			}
+			catch (IOException ex)
+			{
+				error(element, "Unable to generate the SOAP binder : " + ex.getMessage());
+			}
+		}
+		return true;
+	}
+
+	private void generateBinder(TypeElement classElement) throws IOException
+	{
+		if(classElement.getModifiers().contains(Modifier.PRIVATE) || classElement.getModifiers().contains(Modifier.ABSTRACT))
+		{
+			error(classElement, "A SOAP binder can't be generated for a private or abstract class");
+			return;
+		}
+		if(classElement.getNestingKind().isNested() && !classElement.getModifiers().contains(Modifier.STATIC))
+		{
+			error(classElement, "A SOAP binder can't be generated for an inner class, the class must be static");
+			return;
+		}
+		if(!hasAccessibleEmptyConstructor(classElement))
+		{
+			error(classElement, "A SOAP binder needs an accessible empty constructor");
+			return;
+		}
+
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		for(Element member : classElement.getEnclosedElements())
+		{
+			if(member.getKind() != ElementKind.FIELD)
+				continue;
+			Set<Modifier> modifiers = member.getModifiers();
+			if(modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL))
+				continue;
+			if(modifiers.contains(Modifier.PRIVATE))
+			{
+				error(member, "The fields of a class using a generated SOAP binder must not be private");
+				return;
+			}
+			fields.add((VariableElement) member);
+		}
+
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(classElement);
+		String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(classElement).toString();
+		String binderSimpleName = (packageName.length() > 0 ? binaryName.substring(packageName.length() + 1) : binaryName) + BINDER_SUFFIX;
+		String className = classElement.getQualifiedName().toString();
+
+		StringBuilder code = new StringBuilder();
+		if(packageName.length() > 0)
+			code.append("package ").append(packageName).append(";\n\n");
+		code.append("import org.ksoap2.serialization.SoapObject;\n\n");
+		code.append("import com.itelios.itframework.utils.SoapBinder;\n");
+		code.append("import com.itelios.itframework.utils.SoapUtils;\n\n");
+		code.append("/**\n * SOAP binder of ").append(className).append(", generated by SoapBinderProcessor. Do not modify.\n */\n");
+		code.append("public final class ").append(binderSimpleName).append(" implements SoapBinder<").append(className).append("> {\n\n");
+
+		//Serialization
+		code.append("\tpublic SoapObject serialize(String namespace, String objectName, ").append(className).append(" businessObject) throws Exception\n\t{\n");
+		code.append("\t\tSoapObject soapObject = new SoapObject(namespace, objectName);\n");
+		code.append("\t\tSoapObject childObject;\n");
+		for(VariableElement field : fields)
+		{
+			String fieldName = field.getSimpleName().toString();
+			String propertyName = quote(getPropertyName(field));
+			switch(getFieldKind(field.asType()))
+			{
+				case DATE:
+					code.append("\t\tsoapObject.addProperty(").append(propertyName).append(", SoapUtils.formatWsDate(businessObject.").append(fieldName).append("));\n");
+					break;
+				case LIST:
+					code.append("\t\tchildObject = SoapUtils.serializeBusinessObjectList(namespace, ").append(propertyName).append(", businessObject.").append(fieldName).append(");\n");
+					code.append("\t\tif(childObject != null)\n\t\t\tsoapObject.addSoapObject(childObject);\n");
+					break;
+				case IGNORED:
+					break;
+				case OBJECT:
+					code.append("\t\tchildObject = SoapUtils.serializeBusinessObject(namespace, ").append(propertyName).append(", businessObject.").append(fieldName).append(");\n");
+					code.append("\t\tif(childObject != null)\n\t\t\tsoapObject.addSoapObject(childObject);\n");
+					break;
+				default:
+					code.append("\t\tsoapObject.addProperty(").append(propertyName).append(", businessObject.").append(fieldName).append(");\n");
+					break;
+			}
+		}
+		code.append("\t\treturn soapObject;\n\t}\n\n");
+
+		//Deserialization
+		code.append("\tpublic ").append(className).append(" deserialize(SoapObject rootObject) throws Exception\n\t{\n");
+		code.append("\t\t").append(className).append(" businessObject = new ").append(className).append("();\n");
+		code.append("\t\tObject value;\n\t\tString strValue;\n");
+		for(VariableElement field : fields)
+		{
+			String fieldName = field.getSimpleName().toString();
+			TypeMirror fieldType = field.asType();
+			FieldKind kind = getFieldKind(fieldType);
+			if(kind == FieldKind.IGNORED)
+				continue;
+			if(kind == FieldKind.OBJECT)
+			{
+				//Same as SoapUtils : the nested objects are read with the field name
+				code.append("\t\tvalue = rootObject.getPropertySafely(").append(quote(fieldName)).append(");\n");
+				code.append("\t\tif(value instanceof SoapObject)\n");
+				code.append("\t\t\tbusinessObject.").append(fieldName).append(" = SoapUtils.deserializeBusinessObject((SoapObject) value, ")
+					.append(erasure(fieldType)).append(".class);\n");
+				continue;
+			}
+
+			code.append("\t\tvalue = rootObject.getPropertySafely(").append(quote(getPropertyName(field))).append(");\n");
+			if(kind == FieldKind.LIST)
+			{
+				TypeMirror elementType = getListElementType(((DeclaredType) fieldType).getTypeArguments().get(0));
+				code.append("\t\tif(value instanceof SoapObject)\n");
+				code.append("\t\t\tbusinessObject.").append(fieldName).append(" = SoapUtils.deserializeBusinessObjectList((SoapObject) value, ")
+					.append(erasure(elementType)).append(".class);\n");
+				continue;
+			}
+
+			code.append("\t\tif(value != null)\n\t\t{\n");
+			code.append("\t\t\tstrValue = value.toString();\n");
+			code.append("\t\t\tif(strValue.length() > 0)\n");
+			code.append("\t\t\t\tbusinessObject.").append(fieldName).append(" = ").append(getParseExpression(kind, fieldType.getKind().isPrimitive())).append(";\n");
+			code.append("\t\t}\n");
+		}
+		code.append("\t\treturn businessObject;\n\t}\n");
+		code.append("}\n");
+
+		String binderQualifiedName = (packageName.length() > 0 ? packageName + "." : "") + binderSimpleName;
+		JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(binderQualifiedName, classElement);
+		Writer writer = sourceFile.openWriter();
+		try
+		{
+			writer.write(code.toString());
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private boolean hasAccessibleEmptyConstructor(TypeElement classElement)
+	{
+		for(Element member : classElement.getEnclosedElements())
+		{
+			if(member.getKind() == ElementKind.CONSTRUCTOR 
+					&& ((ExecutableElement) member).getParameters().isEmpty()
+					&& !member.getModifiers().contains(Modifier.PRIVATE))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the SOAP property name of a field : the name of the SoapPropertyElement annotation, or the field name
+	 */
+	private String getPropertyName(VariableElement field)
+	{
+		for(AnnotationMirror annotation : field.getAnnotationMirrors())
+		{
+			if(!annotation.getAnnotationType().toString().equals(PROPERTY_ANNOTATION))
+				continue;
+			for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet())
+			{
+				if(entry.getKey().getSimpleName().contentEquals("name"))
+				{
+					String name = entry.getValue().getValue().toString();
+					if(name.length() > 0)
+						return name;
+				}
+			}
+		}
+		return field.getSimpleName().toString();
+	}
+
+	private FieldKind getFieldKind(TypeMirror type)
+	{
+		switch(type.getKind())
+		{
+			case INT:
+				return FieldKind.INTEGER;
+			case FLOAT:
+				return FieldKind.FLOAT;
+			case DOUBLE:
+				return FieldKind.DOUBLE;
+			case LONG:
+				return FieldKind.LONG;
+			case SHORT:
+				return FieldKind.SHORT;
+			case BOOLEAN:
+				return FieldKind.BOOLEAN;
+			case DECLARED:
+				break;
+			default:
+				return FieldKind.IGNORED;
+		}
+
+		String typeName = erasure(type);
+		if(typeName.equals("java.lang.String"))
+			return FieldKind.STRING;
+		else if(typeName.equals("java.lang.Integer"))
+			return FieldKind.INTEGER;
+		else if(typeName.equals("java.lang.Float"))
+			return FieldKind.FLOAT;
+		else if(typeName.equals("java.lang.Double"))
+			return FieldKind.DOUBLE;
+		else if(typeName.equals("java.lang.Long"))
+			return FieldKind.LONG;
+		else if(typeName.equals("java.lang.Short"))
+			return FieldKind.SHORT;
+		else if(typeName.equals("java.lang.Boolean"))
+			return FieldKind.BOOLEAN;
+		else if(typeName.equals("java.util.Date"))
+			return FieldKind.DATE;
+
+		List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+		if(!typeArguments.isEmpty())
+		{
+			if(typeName.equals("java.util.List") && getListElementType(typeArguments.get(0)) != null)
+				return FieldKind.LIST;
+			//HashMap & other generic types are not handled, same as SoapUtils
+			return FieldKind.IGNORED;
+		}
+		return FieldKind.OBJECT;
+	}
+
+	/**
+	 * Get the type of the elements of a list, using the bound of a wildcard (List&lt;? extends Foo&gt;), same as SoapUtils
+	 * @return The type, null if it can't be resolved
+	 */
+	private TypeMirror getListElementType(TypeMirror typeArgument)
+	{
+		if(typeArgument.getKind() == TypeKind.WILDCARD)
+		{
+			WildcardType wildcardType = (WildcardType) typeArgument;
+			typeArgument = (wildcardType.getSuperBound() != null) ? wildcardType.getSuperBound() : wildcardType.getExtendsBound();
+			//List<?> doesn't tell the type of the elements
+			if(typeArgument == null || erasure(typeArgument).equals("java.lang.Object"))
+				return null;
+		}
+		return (typeArgument.getKind() == TypeKind.DECLARED) ? typeArgument : null;
+	}
+
+	private String getParseExpression(FieldKind kind, boolean primitive)
+	{
+		switch(kind)
+		{
+			case INTEGER:
+				return primitive ? "Integer.parseInt(strValue)" : "Integer.valueOf(strValue)";
+			case FLOAT:
+				return primitive ? "Float.parseFloat(strValue)" : "Float.valueOf(strValue)";
+			case DOUBLE:
+				return primitive ? "Double.parseDouble(strValue)" : "Double.valueOf(strValue)";
+			case LONG:
+				return primitive ? "Long.parseLong(strValue)" : "Long.valueOf(strValue)";
+			case SHORT:
+				return primitive ? "Short.parseShort(strValue)" : "Short.valueOf(strValue)";
+			case BOOLEAN:
+				return primitive ? "Boolean.parseBoolean(strValue)" : "Boolean.valueOf(strValue)";
+			case DATE:
+				return "SoapUtils.parseWsDate(strValue)";
+			default:
+				return "strValue";
+		}
+	}
+
+	private String erasure(TypeMirror type)
+	{
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	private static String quote(String value)
+	{
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private void error(Element element, String message)
+	{
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
@@ -0,0 +1,243 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.itelios.itframework.services.caller.JsonElementIterator;
+import com.itelios.itframework.services.caller.JsonWebServiceCaller;
+import com.itelios.itframework.services.engine.WebServiceEngine.HttpRequestType;
+
+/**
+ * Tests of HttpResponseCache against a local HTTP server. The calls go through JsonWebServiceCaller and WebServiceEngine,
+ * the JSON bodies being read by the JSON handlers of the framework.
+ * @author marcduvignaud
+ *
+ */
+public class HttpResponseCacheTest extends TestCase {
+
+	private static final long CACHE_MAX_SIZE = 1024 * 1024;
+	private static final String LIST_BODY = "[{\"name\":\"A\"},{\"name\":\"B\"},{\"name\":\"C\"}]";
+
+	/**
+	 * Object sent back by the mock server
+	 */
+	public static class Item
+	{
+		public String name;
+	}
+
+	private MockHttpServer server;
+	private File cacheDirectory;
+	private HttpResponseCache cache;
+	private JsonWebServiceCaller caller;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		server = new MockHttpServer();
+		cacheDirectory = File.createTempFile("HttpResponseCacheTest", "");
+		cacheDirectory.delete();
+		setCache(HttpResponseCache.open(cacheDirectory, CACHE_MAX_SIZE));
+		caller = new JsonWebServiceCaller();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		WebServiceEngine.setResponseCache(null);
+		server.shutdown();
+		deleteDirectory(cacheDirectory);
+		super.tearDown();
+	}
+
+	public void testFreshResponseIsReadFromTheCache() throws Exception
+	{
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", item("A"));
+
+		assertEquals("A", get("/fresh"));
+		assertEquals("A", get("/fresh"));
+		assertEquals(1, server.getRequestCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	public void testFreshListIsReadFromTheCache() throws Exception
+	{
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", LIST_BODY);
+
+		assertEquals(3, caller.callGetWebServiceForList(server.getUrl("/list"), Item.class).size());
+		List<Item> items = caller.callGetWebServiceForList(server.getUrl("/list"), Item.class);
+		assertEquals(3, items.size());
+		assertEquals("C", items.get(2).name);
+		assertEquals(1, server.getRequestCount());
+	}
+
+	public void testNotModifiedResponseGivesBackTheCachedBody() throws Exception
+	{
+		server.enqueue("200 OK", "Cache-Control: no-cache\r\nETag: \"v1\"\r\n", item("A"));
+		server.enqueue("304 Not Modified", "ETag: \"v1\"\r\n", "");
+
+		assertEquals("A", get("/revalidated"));
+		assertEquals("A", get("/revalidated"));
+		assertEquals(2, server.getRequestCount());
+		assertEquals("\"v1\"", server.getRequestHeaders(1).get("if-none-match"));
+		assertEquals(1, cache.getConditionalHitCount());
+	}
+
+	public void testNotModifiedResponseWithoutCachedBodyIsCalledAgain() throws Exception
+	{
+		final String url = server.getUrl("/removed");
+		server.enqueue("200 OK", "Cache-Control: no-cache\r\nETag: \"v1\"\r\n", item("A"));
+		//The cached response is evicted while the server checks it
+		server.enqueue("304 Not Modified", "ETag: \"v1\"\r\n", "", new Runnable() {
+			@Override
+			public void run()
+			{
+				cache.remove(url);
+			}
+		});
+		server.enqueue("200 OK", "Cache-Control: no-cache\r\nETag: \"v2\"\r\n", item("B"));
+
+		assertEquals("A", get("/removed"));
+		assertEquals("B", get("/removed"));
+		assertEquals(3, server.getRequestCount());
+		assertNull(server.getRequestHeaders(2).get("if-none-match"));
+	}
+
+	public void testNoStoreResponseIsNotCached() throws Exception
+	{
+		server.enqueue("200 OK", "Cache-Control: no-store, max-age=60\r\nETag: \"v1\"\r\n", item("A"));
+		server.enqueue("200 OK", "Cache-Control: no-store, max-age=60\r\n", item("B"));
+
+		assertEquals("A", get("/nostore"));
+		assertEquals("B", get("/nostore"));
+		assertEquals(2, server.getRequestCount());
+		assertNull(server.getRequestHeaders(1).get("if-none-match"));
+		assertEquals(0, cache.size());
+	}
+
+	public void testExpiresIsRelativeToTheServerDate() throws Exception
+	{
+		//The clock of the server is one hour late : the response is fresh for a minute
+		long serverNow = System.currentTimeMillis() - 60 * 60 * 1000;
+		server.enqueue("200 OK", "Date: " + DateUtils.formatDate(new Date(serverNow)) + "\r\n"
+				+ "Expires: " + DateUtils.formatDate(new Date(serverNow + 60 * 1000)) + "\r\n", item("A"));
+
+		assertEquals("A", get("/expires"));
+		assertEquals("A", get("/expires"));
+		assertEquals(1, server.getRequestCount());
+	}
+
+	public void testAgeIsDeductedFromTheFreshness() throws Exception
+	{
+		//The response spent two minutes in a proxy : it is already stale
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\nAge: 120\r\nETag: \"v1\"\r\n", item("A"));
+		server.enqueue("304 Not Modified", "Cache-Control: max-age=60\r\n", "");
+
+		assertEquals("A", get("/age"));
+		assertEquals("A", get("/age"));
+		assertEquals(2, server.getRequestCount());
+		assertEquals("\"v1\"", server.getRequestHeaders(1).get("if-none-match"));
+
+		//The 304 response has no Age : the revalidated response is fresh
+		assertEquals("A", get("/age"));
+		assertEquals(2, server.getRequestCount());
+	}
+
+	public void testAbortedResponseIsCachedOnTheNextCall() throws Exception
+	{
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", item("A"));
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", item("B"));
+
+		WebServiceEngine.openWebService(server.getUrl("/aborted"), "", HttpRequestType.Get).abort();
+		assertEquals("B", get("/aborted"));
+		assertEquals("B", get("/aborted"));
+		assertEquals(2, server.getRequestCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	public void testListClosedBeforeItsEndIsCachedOnTheNextCall() throws Exception
+	{
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", LIST_BODY);
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", LIST_BODY);
+
+		JsonElementIterator<Item> iterator = caller.openGetWebServiceForList(server.getUrl("/closed"), Item.class);
+		assertEquals("A", iterator.next().name);
+		iterator.close();
+		assertEquals(0, cache.size());
+
+		assertEquals(3, caller.callGetWebServiceForList(server.getUrl("/closed"), Item.class).size());
+		assertEquals(3, caller.callGetWebServiceForList(server.getUrl("/closed"), Item.class).size());
+		assertEquals(2, server.getRequestCount());
+	}
+
+	public void testLeastRecentlyUsedResponseIsEvicted() throws Exception
+	{
+		//Room for two responses only
+		setCache(HttpResponseCache.open(new File(cacheDirectory, "small"), 2500));
+		String name = repeat('x', 1000);
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", item(name));
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", item(name));
+		server.enqueue("200 OK", "Cache-Control: max-age=60\r\n", item(name));
+
+		get("/a");
+		get("/b");
+		//"/a" becomes the most recently used response
+		get("/a");
+		get("/c");
+
+		assertEquals(3, server.getRequestCount());
+		assertNotNull(cache.get(server.getUrl("/a")));
+		assertNull(cache.get(server.getUrl("/b")));
+		assertNotNull(cache.get(server.getUrl("/c")));
+		assertTrue(cache.size() <= 2500);
+	}
+
+	private void setCache(HttpResponseCache cache)
+	{
+		this.cache = cache;
+		WebServiceEngine.setResponseCache(cache);
+	}
+
+	/**
+	 * Call a URL sending back an item, and get the name of the item
+	 */
+	private String get(String path) throws Exception
+	{
+		return caller.callGetWebService(server.getUrl(path), Item.class).name;
+	}
+
+	private static String item(String name)
+	{
+		return "{\"name\":\"" + name + "\"}";
+	}
+
+	private static String repeat(char c, int count)
+	{
+		StringBuilder builder = new StringBuilder(count);
+		for(int i = 0; i < count; i++)
+			builder.append(c);
+		return builder.toString();
+	}
+
+	private static void deleteDirectory(File directory)
+	{
+		File[] files = directory.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+			{
+				if(file.isDirectory())
+					deleteDirectory(file);
+				else
+					file.delete();
+			}
+		}
+		directory.delete();
+	}
+}
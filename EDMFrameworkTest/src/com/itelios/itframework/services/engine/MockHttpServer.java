@@ -0,0 +1,187 @@
+package com.itelios.itframework.services.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP server listening on the loopback interface, sending back the responses enqueued by the tests in order.
+ * Each connection is closed after its response, and the headers of the requests received are kept.
+ * @author marcduvignaud
+ *
+ */
+class MockHttpServer {
+
+	private static final String ENCODING = "UTF-8";
+
+	private final ServerSocket serverSocket;
+	private final LinkedList<QueuedResponse> responses = new LinkedList<QueuedResponse>();
+	private final List<Map<String, String>> requests = new ArrayList<Map<String, String>>();
+	private final Thread acceptThread;
+
+	MockHttpServer() throws IOException
+	{
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		acceptThread = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				acceptConnections();
+			}
+		}, "MockHttpServer");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * Get the URL of a path on the server
+	 * @param path : The path, starting with a slash
+	 * @return The URL
+	 */
+	String getUrl(String path)
+	{
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+	}
+
+	/**
+	 * Enqueue the next response sent by the server
+	 * @param status : The status line, for instance "200 OK"
+	 * @param headers : The headers, each one followed by "\r\n"
+	 * @param body : The body
+	 */
+	void enqueue(String status, String headers, String body)
+	{
+		enqueue(status, headers, body, null);
+	}
+
+	/**
+	 * Enqueue the next response sent by the server, running an action when the request is received
+	 * @param status : The status line, for instance "200 OK"
+	 * @param headers : The headers, each one followed by "\r\n"
+	 * @param body : The body
+	 * @param requestAction : The action run before the response is sent, null if there is none
+	 */
+	synchronized void enqueue(String status, String headers, String body, Runnable requestAction)
+	{
+		try
+		{
+			responses.add(new QueuedResponse("HTTP/1.1 " + status + "\r\n" + headers + "Content-Length: " + body.getBytes(ENCODING).length + "\r\n"
+					+ "Connection: close\r\n\r\n" + body, requestAction));
+		}
+		catch (IOException ex)
+		{
+			throw new AssertionError(ex);
+		}
+	}
+
+	/**
+	 * Get the number of requests received
+	 */
+	synchronized int getRequestCount()
+	{
+		return requests.size();
+	}
+
+	/**
+	 * Get the headers of a request received, the names being in lower case
+	 * @param index : The index of the request
+	 * @return The headers
+	 */
+	synchronized Map<String, String> getRequestHeaders(int index)
+	{
+		return requests.get(index);
+	}
+
+	void shutdown()
+	{
+		try
+		{
+			serverSocket.close();
+		}
+		catch (IOException ex)
+		{
+			//Nothing to do
+		}
+	}
+
+	private void acceptConnections()
+	{
+		while(!serverSocket.isClosed())
+		{
+			Socket socket = null;
+			try
+			{
+				socket = serverSocket.accept();
+				handleConnection(socket);
+			}
+			catch (IOException ex)
+			{
+				//Server closed or client gone
+			}
+			finally
+			{
+				if(socket != null)
+				{
+					try
+					{
+						socket.close();
+					}
+					catch (IOException ex)
+					{
+						//Nothing to do
+					}
+				}
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ENCODING));
+		if(reader.readLine() == null)
+			return;
+		Map<String, String> headers = new HashMap<String, String>();
+		String line;
+		while((line = reader.readLine()) != null && line.length() > 0)
+		{
+			int separatorIndex = line.indexOf(':');
+			if(separatorIndex > 0)
+				headers.put(line.substring(0, separatorIndex).trim().toLowerCase(), line.substring(separatorIndex + 1).trim());
+		}
+
+		QueuedResponse response;
+		synchronized (this)
+		{
+			requests.add(headers);
+			response = responses.isEmpty() ? null : responses.removeFirst();
+		}
+		if(response == null)
+			response = new QueuedResponse("HTTP/1.1 500 No response enqueued\r\nContent-Length: 0\r\nConnection: close\r\n\r\n", null);
+		if(response.requestAction != null)
+			response.requestAction.run();
+		OutputStream output = socket.getOutputStream();
+		output.write(response.data.getBytes(ENCODING));
+		output.flush();
+	}
+
+	private static class QueuedResponse
+	{
+		final String data;
+		final Runnable requestAction;
+
+		QueuedResponse(String data, Runnable requestAction)
+		{
+			this.data = data;
+			this.requestAction = requestAction;
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package com.itelios.itframework.test;
+
+import com.itelios.itframework.ITApplication;
+
+/**
+ * Application of the test project, initializing the framework like the applications using it
+ * @author marcduvignaud
+ *
+ */
+public class TestApplication extends ITApplication {
+}